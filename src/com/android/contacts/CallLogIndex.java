@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.provider.CallLog.Calls;
+import android.telephony.PhoneNumberUtils;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+
+/**
+ * In-memory snapshot of the call log, indexed by cached caller name and by
+ * normalized number, so that the calls of one contact or number can be listed
+ * without going back to the provider.
+ * <p>
+ * The cached caller info of the calls can be updated in place, see
+ * {@link #updateCachedInfo}, and {@link #matches} tells whether the snapshot still
+ * holds the same calls as a newer cursor, so that it does not have to be copied
+ * again when the call log only changed by those updates.  All methods but the
+ * constructor may be called from any thread.
+ */
+final class CallLogIndex {
+
+    private final int mCount;
+    private final Object[][] mRows;
+
+    /**
+     * Row positions keyed by {@link PhoneNumberUtils#toCallerIDMinMatch}. Numbers
+     * sharing a key still have to be compared with {@link PhoneNumberUtils#compare}.
+     */
+    private final HashMap<String, ArrayList<Integer>> mRowsByNumber;
+    private final HashMap<String, ArrayList<Integer>> mRowsByName;
+
+    /**
+     * Copies all rows of a call log cursor that uses
+     * {@link RecentCallsListActivity#CALL_LOG_PROJECTION}.
+     */
+    public CallLogIndex(Cursor cursor) {
+        mCount = cursor.getCount();
+        mRows = new Object[mCount][];
+        mRowsByNumber = new HashMap<String, ArrayList<Integer>>();
+        mRowsByName = new HashMap<String, ArrayList<Integer>>();
+
+        int columnCount = RecentCallsListActivity.CALL_LOG_PROJECTION.length;
+        cursor.moveToPosition(-1);
+        for (int i = 0; cursor.moveToNext(); i++) {
+            Object[] row = new Object[columnCount];
+            row[RecentCallsListActivity.ID_COLUMN_INDEX] =
+                    cursor.getLong(RecentCallsListActivity.ID_COLUMN_INDEX);
+            row[RecentCallsListActivity.NUMBER_COLUMN_INDEX] =
+                    cursor.getString(RecentCallsListActivity.NUMBER_COLUMN_INDEX);
+            row[RecentCallsListActivity.DATE_COLUMN_INDEX] =
+                    cursor.getLong(RecentCallsListActivity.DATE_COLUMN_INDEX);
+            row[RecentCallsListActivity.DURATION_COLUMN_INDEX] =
+                    cursor.getLong(RecentCallsListActivity.DURATION_COLUMN_INDEX);
+            row[RecentCallsListActivity.CALL_TYPE_COLUMN_INDEX] =
+                    cursor.getInt(RecentCallsListActivity.CALL_TYPE_COLUMN_INDEX);
+            row[RecentCallsListActivity.CALLER_NAME_COLUMN_INDEX] =
+                    cursor.getString(RecentCallsListActivity.CALLER_NAME_COLUMN_INDEX);
+            row[RecentCallsListActivity.CALLER_NUMBERTYPE_COLUMN_INDEX] =
+                    cursor.getInt(RecentCallsListActivity.CALLER_NUMBERTYPE_COLUMN_INDEX);
+            row[RecentCallsListActivity.CALLER_NUMBERLABEL_COLUMN_INDEX] =
+                    cursor.getString(RecentCallsListActivity.CALLER_NUMBERLABEL_COLUMN_INDEX);
+            mRows[i] = row;
+
+            String number = (String) row[RecentCallsListActivity.NUMBER_COLUMN_INDEX];
+            if (!TextUtils.isEmpty(number)) {
+                addToIndex(mRowsByNumber, getNumberKey(number), i);
+            }
+            String name = (String) row[RecentCallsListActivity.CALLER_NAME_COLUMN_INDEX];
+            if (!TextUtils.isEmpty(name)) {
+                addToIndex(mRowsByName, name, i);
+            }
+        }
+    }
+
+    private static void addToIndex(HashMap<String, ArrayList<Integer>> index, String key,
+            int position) {
+        ArrayList<Integer> positions = index.get(key);
+        if (positions == null) {
+            positions = new ArrayList<Integer>(4);
+            index.put(key, positions);
+        }
+        positions.add(position);
+    }
+
+    private static void removeFromIndex(HashMap<String, ArrayList<Integer>> index,
+            String key, int position) {
+        ArrayList<Integer> positions = index.get(key);
+        if (positions != null) {
+            positions.remove(Integer.valueOf(position));
+            if (positions.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Adds a position to the index, keeping the positions of each key in order.
+     */
+    private static void insertIntoIndex(HashMap<String, ArrayList<Integer>> index,
+            String key, int position) {
+        ArrayList<Integer> positions = index.get(key);
+        if (positions == null) {
+            positions = new ArrayList<Integer>(4);
+            index.put(key, positions);
+        }
+        int insertionPoint = Collections.binarySearch(positions, position);
+        if (insertionPoint < 0) {
+            positions.add(-insertionPoint - 1, position);
+        }
+    }
+
+    private static String getNumberKey(String number) {
+        if (PhoneNumberUtils.isUriNumber(number)) {
+            return number.toLowerCase();
+        }
+        return PhoneNumberUtils.toCallerIDMinMatch(number);
+    }
+
+    /**
+     * Returns the calls whose cached caller name is {@code name}, most recent first.
+     */
+    public synchronized Cursor queryByName(String name) {
+        MatrixCursor cursor = new MatrixCursor(RecentCallsListActivity.CALL_LOG_PROJECTION);
+        ArrayList<Integer> positions = mRowsByName.get(name);
+        if (positions != null) {
+            for (int position : positions) {
+                cursor.addRow(mRows[position]);
+            }
+        }
+        return cursor;
+    }
+
+    /**
+     * Returns the calls from or to {@code number}, in any format, most recent first.
+     */
+    public synchronized Cursor queryByNumber(String number) {
+        MatrixCursor cursor = new MatrixCursor(RecentCallsListActivity.CALL_LOG_PROJECTION);
+        if (TextUtils.isEmpty(number)) {
+            return cursor;
+        }
+
+        boolean uriNumber = PhoneNumberUtils.isUriNumber(number);
+        ArrayList<Integer> positions = mRowsByNumber.get(getNumberKey(number));
+        if (positions != null) {
+            for (int position : positions) {
+                Object[] row = mRows[position];
+                String rowNumber = (String) row[RecentCallsListActivity.NUMBER_COLUMN_INDEX];
+                boolean matches = uriNumber
+                        ? number.equalsIgnoreCase(rowNumber)
+                        : PhoneNumberUtils.compare(number, rowNumber);
+                if (matches) {
+                    cursor.addRow(row);
+                }
+            }
+        }
+        return cursor;
+    }
+
+    /**
+     * Applies an update of the cached caller info to the calls whose number is exactly
+     * {@code number}, as done with a {@link Calls#NUMBER} selection.  {@code values}
+     * hold the {@link Calls#CACHED_NAME}, {@link Calls#CACHED_NUMBER_TYPE} and
+     * {@link Calls#CACHED_NUMBER_LABEL} columns.
+     */
+    public synchronized void updateCachedInfo(String number, ContentValues values) {
+        if (TextUtils.isEmpty(number)) {
+            return;
+        }
+
+        ArrayList<Integer> positions = mRowsByNumber.get(getNumberKey(number));
+        if (positions == null) {
+            return;
+        }
+
+        String name = values.getAsString(Calls.CACHED_NAME);
+        Integer numberType = values.getAsInteger(Calls.CACHED_NUMBER_TYPE);
+        for (int position : positions) {
+            Object[] row = mRows[position];
+            if (!number.equals(row[RecentCallsListActivity.NUMBER_COLUMN_INDEX])) {
+                continue;
+            }
+
+            String oldName = (String) row[RecentCallsListActivity.CALLER_NAME_COLUMN_INDEX];
+            if (!TextUtils.equals(oldName, name)) {
+                if (!TextUtils.isEmpty(oldName)) {
+                    removeFromIndex(mRowsByName, oldName, position);
+                }
+                if (!TextUtils.isEmpty(name)) {
+                    insertIntoIndex(mRowsByName, name, position);
+                }
+            }
+            row[RecentCallsListActivity.CALLER_NAME_COLUMN_INDEX] = name;
+            row[RecentCallsListActivity.CALLER_NUMBERTYPE_COLUMN_INDEX] =
+                    numberType != null ? numberType : 0;
+            row[RecentCallsListActivity.CALLER_NUMBERLABEL_COLUMN_INDEX] =
+                    values.getAsString(Calls.CACHED_NUMBER_LABEL);
+        }
+    }
+
+    /**
+     * Returns whether {@code cursor}, which uses
+     * {@link RecentCallsListActivity#CALL_LOG_PROJECTION} and is in the same order,
+     * holds the same calls with the same cached caller info as this snapshot.  The
+     * other columns of a call never change.
+     */
+    public synchronized boolean matches(Cursor cursor) {
+        if (cursor.getCount() != mCount) {
+            return false;
+        }
+
+        cursor.moveToPosition(-1);
+        for (int i = 0; cursor.moveToNext(); i++) {
+            if (!matches(cursor, mRows[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matches(Cursor cursor, Object[] row) {
+        long id = (Long) row[RecentCallsListActivity.ID_COLUMN_INDEX];
+        String name = (String) row[RecentCallsListActivity.CALLER_NAME_COLUMN_INDEX];
+        int numberType = (Integer) row[RecentCallsListActivity.CALLER_NUMBERTYPE_COLUMN_INDEX];
+        String numberLabel =
+                (String) row[RecentCallsListActivity.CALLER_NUMBERLABEL_COLUMN_INDEX];
+        return cursor.getLong(RecentCallsListActivity.ID_COLUMN_INDEX) == id
+                && TextUtils.equals(
+                        cursor.getString(RecentCallsListActivity.CALLER_NAME_COLUMN_INDEX), name)
+                && cursor.getInt(RecentCallsListActivity.CALLER_NUMBERTYPE_COLUMN_INDEX)
+                        == numberType
+                && TextUtils.equals(
+                        cursor.getString(RecentCallsListActivity.CALLER_NUMBERLABEL_COLUMN_INDEX),
+                        numberLabel);
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+}
@@ -42,14 +42,31 @@ public final class Collapser {
         public boolean shouldCollapseWith(T t);
     }
 
+    /*
+     * Collapsible data that can tell which items it may collapse with without comparing it to
+     * each of them. Two items that should collapse must have equal keys, but items with equal
+     * keys are still compared, so the key can be coarser than the comparison. An item with a
+     * null key never collapses.
+     */
+    public interface KeyedCollapsible<T> extends Collapsible<T> {
+        public Object getCollapseKey();
+    }
+
     /**
      * Collapses a list of Collapsible items into a list of collapsed items. Items are collapsed
      * if {@link Collapsible#shouldCollapseWith(Object) return strue, and are collapsed
      * through the {@Link Collapsible#collapseWith(Object)} function implemented by the data item.
      *
+     * If all items are {@link KeyedCollapsible}, each item is only compared with the earlier
+     * items that have the same key, which takes linear time instead of quadratic.
+     *
      * @param list ArrayList of Objects of type <T extends Collapsible<T>> to be collapsed.
      */
     public static <T extends Collapsible<T>> void collapseList(ArrayList<T> list) {
+        if (isKeyed(list)) {
+            collapseKeyedList(list);
+            return;
+        }
 
         int listSize = list.size();
 
@@ -77,4 +94,58 @@ public final class Collapser {
         }
 
     }
+
+    private static <T extends Collapsible<T>> boolean isKeyed(ArrayList<T> list) {
+        for (T item : list) {
+            if (item != null && !(item instanceof KeyedCollapsible)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Collapses the items the same way {@link #collapseList(ArrayList)} does when they are
+     * compared pairwise: each item collapses into the first earlier item that takes it.
+     */
+    private static <T extends Collapsible<T>> void collapseKeyedList(ArrayList<T> list) {
+        final int listSize = list.size();
+        final HashMap<Object, ArrayList<T>> keptByKey = new HashMap<Object, ArrayList<T>>();
+        int kept = 0;
+
+        for (int i = 0; i < listSize; i++) {
+            final T item = list.get(i);
+            if (item == null) {
+                continue;
+            }
+
+            final Object key = ((KeyedCollapsible<?>) item).getCollapseKey();
+            if (key != null) {
+                ArrayList<T> sameKey = keptByKey.get(key);
+                if (sameKey == null) {
+                    sameKey = new ArrayList<T>(1);
+                    keptByKey.put(key, sameKey);
+                }
+
+                boolean collapsed = false;
+                for (T keptItem : sameKey) {
+                    if (keptItem.shouldCollapseWith(item)) {
+                        keptItem.collapseWith(item);
+                        collapsed = true;
+                        break;
+                    }
+                }
+                if (collapsed) {
+                    continue;
+                }
+                sameKey.add(item);
+            }
+            list.set(kept++, item);
+        }
+
+        // Remove what is left behind the kept items
+        for (int i = listSize - 1; i >= kept; i--) {
+            list.remove(i);
+        }
+    }
 }
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts;
+
+import android.database.Cursor;
+
+/**
+ * Lightweight summary of the rows of a contact list cursor: the id of each row and
+ * a 64-bit digest of everything the row shows.  Comparing the snapshots of two cursors tells
+ * whether the list needs to be updated at all, and if so whether only the contents
+ * of some rows changed or the rows themselves.
+ * <p>
+ * Snapshots are immutable, so they can be created on a background thread.
+ */
+final class ContactListSnapshot {
+
+    /**
+     * The lists show exactly the same rows.
+     */
+    public static final int CHANGE_NONE = 0;
+
+    /**
+     * The lists have the same rows in the same order, but some of them show
+     * different values.
+     */
+    public static final int CHANGE_ROWS = 1;
+
+    /**
+     * Rows were added, removed or moved.
+     */
+    public static final int CHANGE_LIST = 2;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final long[] mIds;
+    private final long[] mDigests;
+
+    private ContactListSnapshot(long[] ids, long[] digests) {
+        mIds = ids;
+        mDigests = digests;
+    }
+
+    /**
+     * Creates the snapshot of all rows of a cursor.  The cursor has to have an
+     * "_id" column and must not have any blob columns.
+     */
+    public static ContactListSnapshot fromCursor(Cursor cursor) {
+        int count = cursor.getCount();
+        int columnCount = cursor.getColumnCount();
+        int idColumnIndex = cursor.getColumnIndexOrThrow("_id");
+        long[] ids = new long[count];
+        long[] digests = new long[count];
+
+        cursor.moveToPosition(-1);
+        for (int i = 0; i < count && cursor.moveToNext(); i++) {
+            ids[i] = cursor.getLong(idColumnIndex);
+            long digest = FNV_OFFSET_BASIS;
+            for (int column = 0; column < columnCount; column++) {
+                digest = digest(digest, cursor.getString(column));
+            }
+            digests[i] = digest;
+        }
+        return new ContactListSnapshot(ids, digests);
+    }
+
+    /**
+     * Adds a value to the FNV-1a digest of a row.  The length goes in before the
+     * characters, so that null, empty and shifted values all give different digests.
+     */
+    private static long digest(long digest, String value) {
+        int length = value == null ? -1 : value.length();
+        for (int shift = 0; shift < 32; shift += 8) {
+            digest = (digest ^ ((length >>> shift) & 0xff)) * FNV_PRIME;
+        }
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            digest = (digest ^ (c & 0xff)) * FNV_PRIME;
+            digest = (digest ^ (c >>> 8)) * FNV_PRIME;
+        }
+        return digest;
+    }
+
+    public int getCount() {
+        return mIds.length;
+    }
+
+    /**
+     * Returns how this snapshot differs from a previous one, one of
+     * {@link #CHANGE_NONE}, {@link #CHANGE_ROWS} and {@link #CHANGE_LIST}.
+     */
+    public int compare(ContactListSnapshot previous) {
+        if (previous == null || previous.mIds.length != mIds.length) {
+            return CHANGE_LIST;
+        }
+
+        int change = CHANGE_NONE;
+        for (int i = 0; i < mIds.length; i++) {
+            if (mIds[i] != previous.mIds[i]) {
+                return CHANGE_LIST;
+            }
+            if (mDigests[i] != previous.mDigests[i]) {
+                change = CHANGE_ROWS;
+            }
+        }
+        return change;
+    }
+}
@@ -0,0 +1,414 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.provider.ContactsContract.CommonDataKinds.Email;
+import android.provider.ContactsContract.CommonDataKinds.Nickname;
+import android.provider.ContactsContract.CommonDataKinds.Organization;
+import android.provider.ContactsContract.Contacts;
+import android.provider.ContactsContract.Data;
+import android.text.TextUtils;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * In-memory prefix index of the names of a list of contacts, used to filter the
+ * list without going back to the provider.
+ * <p>
+ * Like the provider's filter, a contact matches when the filter is a prefix of its
+ * name, with the name's words taken in any order, or of its phonetic name, one of
+ * its nicknames, the part of an email address before the '@', or its company or
+ * title.  Comparisons ignore case, accents and anything but letters and digits.
+ * Filters with digits or an '@' may also match phone numbers and whole email
+ * addresses, which the index does not know about; {@link #query} returns null for
+ * those.
+ */
+final class ContactNameIndex {
+
+    /**
+     * The contact columns the index holds, the snippet columns of
+     * {@link ContactsListActivity#CONTACTS_SUMMARY_FILTER_PROJECTION} are left out.
+     */
+    static final String[] CONTACTS_PROJECTION = Arrays.copyOf(
+            ContactsListActivity.CONTACTS_SUMMARY_FILTER_PROJECTION,
+            ContactsListActivity.SUMMARY_SNIPPET_MIMETYPE_COLUMN_INDEX);
+
+    static final String[] DATA_PROJECTION = new String[] {
+        Data.CONTACT_ID,
+        Data.MIMETYPE,
+        Data.DATA1,
+        Data.DATA4,
+    };
+
+    private static final int DATA_CONTACT_ID_COLUMN_INDEX = 0;
+    private static final int DATA_MIMETYPE_COLUMN_INDEX = 1;
+    private static final int DATA_DATA1_COLUMN_INDEX = 2;
+    private static final int DATA_DATA4_COLUMN_INDEX = 3;
+
+    /**
+     * Names with more words than this are only matched on their first words.
+     */
+    private static final int MAX_NAME_TOKENS = 8;
+
+    /**
+     * A nickname, email address or organization a contact can be found by.
+     */
+    private static final class DataKey {
+        String key;
+        String mimetype;
+        String data1;
+        String data4;
+    }
+
+    private final String mSelection;
+    private final String mSortOrder;
+
+    private final Object[][] mRows;
+    private final String[][] mNameTokens;
+    private final String[][] mPhoneticNameTokens;
+    private final ArrayList<DataKey>[] mDataKeys;
+
+    /**
+     * Every token and data key, sorted, and the contacts they belong to.
+     */
+    private final String[] mTokens;
+    private final int[] mTokenContacts;
+
+    /**
+     * Loads the contacts that match {@code selection} and indexes them, with the
+     * nicknames, email addresses and organizations of those contacts only.  The
+     * selection may only use contact columns, which the data rows carry as well.
+     * Must not be called on the main thread.
+     *
+     * @return the index, or null if the contacts could not be loaded
+     */
+    public static ContactNameIndex build(ContentResolver resolver, String selection,
+            String sortOrder) {
+        Cursor contacts = resolver.query(Contacts.CONTENT_URI, CONTACTS_PROJECTION,
+                selection, null, sortOrder);
+        if (contacts == null) {
+            return null;
+        }
+        Cursor data = null;
+        try {
+            String dataSelection = Data.MIMETYPE + " IN (?,?,?)";
+            if (!TextUtils.isEmpty(selection)) {
+                dataSelection = "(" + selection + ") AND " + dataSelection;
+            }
+            data = resolver.query(Data.CONTENT_URI, DATA_PROJECTION, dataSelection,
+                    new String[] {
+                        Nickname.CONTENT_ITEM_TYPE,
+                        Email.CONTENT_ITEM_TYPE,
+                        Organization.CONTENT_ITEM_TYPE
+                    }, null);
+            if (data == null) {
+                return null;
+            }
+            return new ContactNameIndex(contacts, data, selection, sortOrder);
+        } finally {
+            contacts.close();
+            if (data != null) {
+                data.close();
+            }
+        }
+    }
+
+    /**
+     * Indexes the contacts of a {@link #CONTACTS_PROJECTION} cursor, in the cursor's
+     * order, and the data rows of a {@link #DATA_PROJECTION} cursor that belong to them.
+     */
+    @SuppressWarnings("unchecked")
+    ContactNameIndex(Cursor contacts, Cursor data, String selection, String sortOrder) {
+        mSelection = selection;
+        mSortOrder = sortOrder;
+
+        int count = contacts.getCount();
+        int columnCount = CONTACTS_PROJECTION.length;
+        mRows = new Object[count][];
+        mNameTokens = new String[count][];
+        mPhoneticNameTokens = new String[count][];
+        mDataKeys = new ArrayList[count];
+
+        HashMap<Long, Integer> positions = new HashMap<Long, Integer>(count);
+        ArrayList<String> tokens = new ArrayList<String>(count * 3);
+        ArrayList<Integer> tokenContacts = new ArrayList<Integer>(count * 3);
+
+        contacts.moveToPosition(-1);
+        for (int i = 0; i < count && contacts.moveToNext(); i++) {
+            Object[] row = new Object[columnCount];
+            for (int column = 0; column < columnCount; column++) {
+                row[column] = contacts.getString(column);
+            }
+            mRows[i] = row;
+            positions.put(contacts.getLong(ContactsListActivity.SUMMARY_ID_COLUMN_INDEX), i);
+
+            mNameTokens[i] = tokenize(contacts.getString(
+                    ContactsListActivity.SUMMARY_DISPLAY_NAME_PRIMARY_COLUMN_INDEX));
+            mPhoneticNameTokens[i] = tokenize(contacts.getString(
+                    ContactsListActivity.SUMMARY_PHONETIC_NAME_COLUMN_INDEX));
+            for (String token : mNameTokens[i]) {
+                tokens.add(token);
+                tokenContacts.add(i);
+            }
+            for (String token : mPhoneticNameTokens[i]) {
+                tokens.add(token);
+                tokenContacts.add(i);
+            }
+        }
+
+        data.moveToPosition(-1);
+        while (data.moveToNext()) {
+            Integer position = positions.get(data.getLong(DATA_CONTACT_ID_COLUMN_INDEX));
+            if (position == null) {
+                continue;
+            }
+
+            String mimetype = data.getString(DATA_MIMETYPE_COLUMN_INDEX);
+            String data1 = data.getString(DATA_DATA1_COLUMN_INDEX);
+            String data4 = data.getString(DATA_DATA4_COLUMN_INDEX);
+            if (Email.CONTENT_ITEM_TYPE.equals(mimetype)) {
+                if (data1 != null) {
+                    int at = data1.indexOf('@');
+                    addDataKey(position, at == -1 ? data1 : data1.substring(0, at),
+                            mimetype, data1, null, tokens, tokenContacts);
+                }
+            } else if (Organization.CONTENT_ITEM_TYPE.equals(mimetype)) {
+                addDataKey(position, data1, mimetype, data1, data4, tokens, tokenContacts);
+                addDataKey(position, data4, mimetype, data1, data4, tokens, tokenContacts);
+            } else {
+                addDataKey(position, data1, mimetype, data1, null, tokens, tokenContacts);
+            }
+        }
+
+        // Sort the tokens, carrying their contacts along
+        int tokenCount = tokens.size();
+        Integer[] order = new Integer[tokenCount];
+        for (int i = 0; i < tokenCount; i++) {
+            order[i] = i;
+        }
+        final String[] unsorted = tokens.toArray(new String[tokenCount]);
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return unsorted[a].compareTo(unsorted[b]);
+            }
+        });
+        mTokens = new String[tokenCount];
+        mTokenContacts = new int[tokenCount];
+        for (int i = 0; i < tokenCount; i++) {
+            mTokens[i] = unsorted[order[i]];
+            mTokenContacts[i] = tokenContacts.get(order[i]);
+        }
+    }
+
+    private void addDataKey(int position, String value, String mimetype, String data1,
+            String data4, ArrayList<String> tokens, ArrayList<Integer> tokenContacts) {
+        String key = normalize(value);
+        if (key.length() == 0) {
+            return;
+        }
+        DataKey dataKey = new DataKey();
+        dataKey.key = key;
+        dataKey.mimetype = mimetype;
+        dataKey.data1 = data1;
+        dataKey.data4 = data4;
+        if (mDataKeys[position] == null) {
+            mDataKeys[position] = new ArrayList<DataKey>(2);
+        }
+        mDataKeys[position].add(dataKey);
+        tokens.add(key);
+        tokenContacts.add(position);
+    }
+
+    /**
+     * Returns true if the index holds the contacts of a list with the supplied
+     * selection and sort order.
+     */
+    public boolean isFor(String selection, String sortOrder) {
+        return TextUtils.equals(mSelection, selection) && TextUtils.equals(mSortOrder, sortOrder);
+    }
+
+    public int getCount() {
+        return mRows.length;
+    }
+
+    /**
+     * Returns the contacts matching a filter, in the order of the index, with the
+     * columns of {@link ContactsListActivity#CONTACTS_SUMMARY_FILTER_PROJECTION}.
+     * Contacts that match on something other than their names carry it as their
+     * snippet.
+     *
+     * @return the matches, or null if the index cannot tell what matches the filter
+     */
+    public Cursor query(String filter) {
+        if (filter == null || filter.indexOf('@') != -1) {
+            return null;
+        }
+        for (int i = 0; i < filter.length(); i++) {
+            if (Character.isDigit(filter.charAt(i))) {
+                return null;
+            }
+        }
+        String key = normalize(filter);
+        if (key.length() == 0) {
+            return null;
+        }
+
+        boolean[] candidates = findCandidates(key);
+        MatrixCursor cursor = new MatrixCursor(
+                ContactsListActivity.CONTACTS_SUMMARY_FILTER_PROJECTION);
+        int columnCount = ContactsListActivity.CONTACTS_SUMMARY_FILTER_PROJECTION.length;
+        for (int i = 0; i < mRows.length; i++) {
+            if (!candidates[i]) {
+                continue;
+            }
+            Object[] contact = mRows[i];
+            DataKey snippet = null;
+            if (!matchesName(mNameTokens[i], key) && !matchesName(mPhoneticNameTokens[i], key)) {
+                snippet = findDataKey(i, key);
+                if (snippet == null) {
+                    continue;
+                }
+            }
+
+            Object[] row = new Object[columnCount];
+            System.arraycopy(contact, 0, row, 0, contact.length);
+            if (snippet != null) {
+                row[ContactsListActivity.SUMMARY_SNIPPET_MIMETYPE_COLUMN_INDEX] = snippet.mimetype;
+                row[ContactsListActivity.SUMMARY_SNIPPET_DATA1_COLUMN_INDEX] = snippet.data1;
+                row[ContactsListActivity.SUMMARY_SNIPPET_DATA4_COLUMN_INDEX] = snippet.data4;
+            }
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    /**
+     * Marks the contacts that have a token starting with the key, or a token the key
+     * starts with, as the key may run on into the next word of a name.
+     */
+    private boolean[] findCandidates(String key) {
+        boolean[] candidates = new boolean[mRows.length];
+        for (int i = lowerBound(key); i < mTokens.length && mTokens[i].startsWith(key); i++) {
+            candidates[mTokenContacts[i]] = true;
+        }
+        for (int length = 1; length < key.length(); length++) {
+            String prefix = key.substring(0, length);
+            for (int i = lowerBound(prefix); i < mTokens.length && mTokens[i].equals(prefix);
+                    i++) {
+                candidates[mTokenContacts[i]] = true;
+            }
+        }
+        return candidates;
+    }
+
+    private int lowerBound(String key) {
+        int low = 0;
+        int high = mTokens.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mTokens[mid].compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private DataKey findDataKey(int position, String key) {
+        ArrayList<DataKey> dataKeys = mDataKeys[position];
+        if (dataKeys != null) {
+            for (DataKey dataKey : dataKeys) {
+                if (dataKey.key.startsWith(key)) {
+                    return dataKey;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if the key is made of some of the name's tokens, in any order,
+     * the last of which may be cut short.
+     */
+    static boolean matchesName(String[] tokens, String key) {
+        return tokens.length != 0 && matchesName(tokens, 0, key, 0);
+    }
+
+    private static boolean matchesName(String[] tokens, int used, String key, int offset) {
+        for (int i = 0; i < tokens.length; i++) {
+            if ((used & (1 << i)) != 0) {
+                continue;
+            }
+            String token = tokens[i];
+            if (token.regionMatches(0, key, offset, key.length() - offset)) {
+                return true;
+            }
+            if (key.startsWith(token, offset)
+                    && matchesName(tokens, used | (1 << i), key, offset + token.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Splits a name into normalized words.
+     */
+    static String[] tokenize(String name) {
+        if (TextUtils.isEmpty(name)) {
+            return new String[0];
+        }
+        ArrayList<String> tokens = new ArrayList<String>(3);
+        for (String word : name.split("[\\s,.\\-]+")) {
+            String token = normalize(word);
+            if (token.length() != 0) {
+                tokens.add(token);
+                if (tokens.size() == MAX_NAME_TOKENS) {
+                    break;
+                }
+            }
+        }
+        return tokens.toArray(new String[tokens.size()]);
+    }
+
+    /**
+     * Lowercases a string and strips it of accents and of everything that is neither
+     * a letter nor a digit.
+     */
+    static String normalize(String value) {
+        if (value == null) {
+            return "";
+        }
+        String decomposed = Normalizer.normalize(value, Normalizer.Form.NFD);
+        StringBuilder sb = new StringBuilder(decomposed.length());
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                sb.append(Character.toLowerCase(c));
+            }
+        }
+        return sb.toString();
+    }
+}
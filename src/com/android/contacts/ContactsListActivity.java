@@ -24,6 +24,7 @@ import com.android.contacts.ui.ContactsPreferencesActivity;
 import com.android.contacts.ui.ContactsPreferencesActivity.Prefs;
 import com.android.contacts.util.AccountSelectionUtil;
 import com.android.contacts.util.Constants;
+import com.android.contacts.util.WeakAsyncTask;
 import com.android.contacts.PhoneDisambigDialog;
 
 import android.accounts.Account;
@@ -32,15 +33,18 @@ import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.Dialog;
 import android.app.ListActivity;
+import android.app.ProgressDialog;
 import android.app.SearchManager;
 import android.content.AsyncQueryHandler;
 import android.content.ContentResolver;
+import android.content.ContentProviderOperation;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.IContentService;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.content.UriMatcher;
 import android.content.res.ColorStateList;
@@ -48,6 +52,7 @@ import android.content.res.Resources;
 import android.database.CharArrayBuffer;
 import android.database.ContentObserver;
 import android.database.Cursor;
+import android.database.CursorWrapper;
 import android.database.MatrixCursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
@@ -60,11 +65,17 @@ import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.net.Uri.Builder;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Message;
 import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
 import android.os.Parcelable;
 import android.os.RemoteException;
+import android.pim.vcard.VCardComposer;
+import android.pim.vcard.VCardConfig;
 import android.preference.PreferenceManager;
 import android.provider.ContactsContract;
 import android.provider.Settings;
@@ -113,7 +124,6 @@ import android.view.inputmethod.InputMethodManager;
 import android.widget.AbsListView;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
-import android.widget.AlphabetIndexer;
 import android.widget.Button;
 import android.widget.ResourceCursorAdapter;
 import android.widget.Filter;
@@ -125,16 +135,28 @@ import android.widget.TextView;
 import android.widget.Toast;
 import android.widget.AbsListView.OnScrollListener;
 
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.lang.ref.SoftReference;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
 import java.util.Random;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 //Wysie
 import android.content.SharedPreferences;
@@ -320,6 +342,7 @@ public class ContactsListActivity extends ListActivity implements View.OnCreateC
         Contacts.LOOKUP_KEY,                // 8
         Contacts.PHONETIC_NAME,             // 9
         Contacts.HAS_PHONE_NUMBER,          // 10
+        Contacts.SORT_KEY_ALTERNATIVE,      // 11
     };
     static final String[] CONTACTS_SUMMARY_PROJECTION_FROM_EMAIL = new String[] {
         Contacts._ID,                       // 0
@@ -333,6 +356,7 @@ public class ContactsListActivity extends ListActivity implements View.OnCreateC
         Contacts.LOOKUP_KEY,                // 8
         Contacts.PHONETIC_NAME,             // 9
         // email lookup doesn't included HAS_PHONE_NUMBER in projection
+        Contacts.SORT_KEY_ALTERNATIVE,      // 10
     };
 
     static final String[] CONTACTS_SUMMARY_FILTER_PROJECTION = new String[] {
@@ -350,6 +374,7 @@ public class ContactsListActivity extends ListActivity implements View.OnCreateC
         SearchSnippetColumns.SNIPPET_MIMETYPE, // 11
         SearchSnippetColumns.SNIPPET_DATA1,     // 12
         SearchSnippetColumns.SNIPPET_DATA4,     // 13
+        Contacts.SORT_KEY_ALTERNATIVE,      // 14
     };
 
     static final String[] LEGACY_PEOPLE_PROJECTION = new String[] {
@@ -427,6 +452,26 @@ public class ContactsListActivity extends ListActivity implements View.OnCreateC
 
     private static final int QUERY_TOKEN = 42;
 
+    /**
+     * Minimum time between two requeries caused by change notifications.  Syncs
+     * send many notifications in a row, they are handled together.
+     */
+    private static final long CONTENT_CHANGE_REQUERY_INTERVAL_MS = 2000;
+
+    /**
+     * Time the user has to stop typing before the provider is asked for the contacts
+     * matching the search text.
+     */
+    private static final long FILTER_DELAY_MS = 200;
+
+    /**
+     * Largest number of filter results that are narrowed down in memory when the
+     * user types another character.
+     */
+    private static final int LOCAL_FILTER_MAX_ROWS = 100;
+
+    private static final int MESSAGE_FILTER = 1;
+
     static final String KEY_PICKER_MODE = "picker_mode";
 
     private ContactItemListAdapter mAdapter;
@@ -435,6 +480,39 @@ public class ContactsListActivity extends ListActivity implements View.OnCreateC
 
     private QueryHandler mQueryHandler;
     private boolean mJustCreated;
+
+    /**
+     * The latest search text, filter queries for any other text are out of date.
+     */
+    private volatile String mRequestedFilter;
+    private long mLastFilterTime;
+
+    /**
+     * Index of the names of the contacts that search results are picked from, null
+     * while it is being built or when it is out of date.
+     */
+    private volatile ContactNameIndex mNameIndex;
+    private HandlerThread mNameIndexThread;
+    private Handler mNameIndexHandler;
+
+    private final ContentObserver mNameIndexObserver = new ContentObserver(new Handler()) {
+        @Override
+        public void onChange(boolean selfChange) {
+            mNameIndex = null;
+            scheduleNameIndexBuild(CONTENT_CHANGE_REQUERY_INTERVAL_MS);
+        }
+    };
+
+    private final Handler mFilterHandler = new Handler() {
+        @Override
+        public void handleMessage(Message msg) {
+            switch (msg.what) {
+                case MESSAGE_FILTER:
+                    mAdapter.getFilter().filter(getTextFilter());
+                    break;
+            }
+        }
+    };
     private boolean mSyncEnabled;
     Uri mSelectedContactUri;
 
@@ -501,6 +579,24 @@ public class ContactsListActivity extends ListActivity implements View.OnCreateC
     };
     private static ExecutorService sImageFetchThreadPool;
 
+    private static final long JOIN_SUGGESTIONS_THREAD_KEEP_ALIVE_MS = 5000;
+
+    /**
+     * Queries the join suggestions of a filter while the filter thread queries the
+     * complete list.  One query runs at a time, and the thread goes away when idle.
+     */
+    private static final ThreadPoolExecutor sJoinSuggestionsExecutor;
+    static {
+        sJoinSuggestionsExecutor = new ThreadPoolExecutor(1, 1,
+                JOIN_SUGGESTIONS_THREAD_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        return new Thread(r, "JoinSuggestions");
+                    }
+                });
+        sJoinSuggestionsExecutor.allowCoreThreadTimeOut(true);
+    }
+
     //Wysie
     private boolean mContacts = false;
     private boolean mFavs = false;
@@ -924,6 +1020,11 @@ public class ContactsListActivity extends ListActivity implements View.OnCreateC
         mAdapter = new ContactItemListAdapter(this);
         setListAdapter(mAdapter);
 
+        if ((mMode & MODE_MASK_SHOW_CALL_BUTTON) == MODE_MASK_SHOW_CALL_BUTTON) {
+            // Start loading the numbers the call buttons will use
+            PrimaryPhoneCache.getInstance(this);
+        }
+
         if (list instanceof PinnedHeaderListView && mAdapter.getDisplaySectionHeadersEnabled()) {
             mPinnedHeaderBackgroundColor =
                     getResources().getColor(R.color.pinned_header_background);
@@ -1074,6 +1175,12 @@ public class ContactsListActivity extends ListActivity implements View.OnCreateC
     protected void onDestroy() {
         super.onDestroy();
         mPhotoLoader.stop();
+        mAdapter.stopCursorThread();
+        if (mNameIndexThread != null) {
+            mNameIndexThread.quit();
+            mNameIndexThread = null;
+            mNameIndexHandler = null;
+        }
     }
 
     @Override
@@ -1081,6 +1188,7 @@ public class ContactsListActivity extends ListActivity implements View.OnCreateC
         super.onStart();
 
         mContactsPrefs.registerChangeListener(mPreferencesChangeListener);
+        startNameIndex();
     }
 
     @Override
@@ -1098,6 +1206,9 @@ public class ContactsListActivity extends ListActivity implements View.OnCreateC
         showFavsDialButton = ePrefs.getBoolean("favs_show_dial_button", true);
         showFavsPic = ePrefs.getBoolean("favs_show_pic", true);
         showDisplayHeaders = ePrefs.getBoolean("contacts_show_alphabetical_separators", true);
+        if (mAdapter != null) {
+            mAdapter.invalidateRowBinder();
+        }
 
         registerProviderStatusObserver();
         mPhotoLoader.resume();
@@ -1272,6 +1383,9 @@ public class ContactsListActivity extends ListActivity implements View.OnCreateC
         super.onStop();
 
         mContactsPrefs.unregisterChangeListener();
+        mFilterHandler.removeMessages(MESSAGE_FILTER);
+        stopNameIndex();
+        mAdapter.cancelContentChangeRequery();
         mAdapter.setSuggestionsCursor(null);
         mAdapter.changeCursor(null);
 
@@ -1403,8 +1517,114 @@ public class ContactsListActivity extends ListActivity implements View.OnCreateC
         // Set the proper empty string
         setEmptyText();
 
-        Filter filter = mAdapter.getFilter();
-        filter.filter(getTextFilter());
+        String filter = getTextFilter();
+        mRequestedFilter = filter;
+        mFilterHandler.removeMessages(MESSAGE_FILTER);
+
+        // Narrow down the current results right away if we can.  Either way, only
+        // query the provider once the user stops typing.
+        boolean refined = mAdapter.refineFilter(filter);
+        long now = SystemClock.uptimeMillis();
+        if (refined || now - mLastFilterTime < FILTER_DELAY_MS) {
+            mFilterHandler.sendEmptyMessageDelayed(MESSAGE_FILTER, FILTER_DELAY_MS);
+        } else {
+            mAdapter.getFilter().filter(filter);
+        }
+        mLastFilterTime = now;
+    }
+
+    /**
+     * Whether search results can be picked from a {@link ContactNameIndex}.  The index
+     * does not know the sections of the list, so they must not be shown.
+     */
+    private boolean isNameIndexSupported() {
+        if (!mSearchMode || mAdapter.getDisplaySectionHeadersEnabled()) {
+            return false;
+        }
+        switch (mMode) {
+            case MODE_DEFAULT:
+            case MODE_CUSTOM:
+            case MODE_STARRED:
+            case MODE_PICK_CONTACT:
+            case MODE_PICK_OR_CREATE_CONTACT:
+            case MODE_INSERT_OR_EDIT_CONTACT:
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the selection of the contacts that search results are picked from.
+     */
+    private String getNameIndexSelection() {
+        return mMode == MODE_STARRED ? Contacts.STARRED + "=1" : getContactSelection();
+    }
+
+    /**
+     * Starts building the name index and keeping it up to date.
+     */
+    private void startNameIndex() {
+        if (!isNameIndexSupported()) {
+            return;
+        }
+        if (mNameIndexThread == null) {
+            mNameIndexThread = new HandlerThread("ContactNameIndex",
+                    Process.THREAD_PRIORITY_BACKGROUND);
+            mNameIndexThread.start();
+            mNameIndexHandler = new Handler(mNameIndexThread.getLooper());
+        }
+        getContentResolver().registerContentObserver(Contacts.CONTENT_URI, true,
+                mNameIndexObserver);
+        scheduleNameIndexBuild(0);
+    }
+
+    private void stopNameIndex() {
+        if (mNameIndexHandler != null) {
+            getContentResolver().unregisterContentObserver(mNameIndexObserver);
+            mNameIndexHandler.removeCallbacksAndMessages(null);
+        }
+    }
+
+    private void scheduleNameIndexBuild(long delay) {
+        final Handler handler = mNameIndexHandler;
+        if (handler == null) {
+            return;
+        }
+        final String selection = getNameIndexSelection();
+        final String sortOrder = getSortOrder(CONTACTS_SUMMARY_FILTER_PROJECTION);
+        handler.removeCallbacksAndMessages(null);
+        handler.postDelayed(new Runnable() {
+            public void run() {
+                ContactNameIndex index = mNameIndex;
+                if (index == null || !index.isFor(selection, sortOrder)) {
+                    mNameIndex = ContactNameIndex.build(getContentResolver(), selection,
+                            sortOrder);
+                }
+            }
+        }, delay);
+    }
+
+    /**
+     * Returns the search results for a filter from the name index, or null if they
+     * have to be queried from the provider.  Called on the filter thread.
+     */
+    private Cursor queryNameIndex(String filter, String[] projection) {
+        ContactNameIndex index = mNameIndex;
+        if (index == null || projection != CONTACTS_SUMMARY_FILTER_PROJECTION
+                || !isNameIndexSupported()
+                || !index.isFor(getNameIndexSelection(), getSortOrder(projection))) {
+            return null;
+        }
+        return index.query(filter);
+    }
+
+    /**
+     * Returns true if the user has changed the search text since a filter query for
+     * {@code filter} was requested.  Can be called from any thread.
+     */
+    private boolean isFilterSuperseded(String filter) {
+        String requestedFilter = mRequestedFilter;
+        return requestedFilter != null && !requestedFilter.equals(filter);
     }
 
     /**
@@ -1600,6 +1820,12 @@ public class ContactsListActivity extends ListActivity implements View.OnCreateC
             .show();
     }
 
+    /**
+     * Largest number of contacts shared by listing their lookup keys in the URI.  Beyond
+     * that the URI would get very long, and the vCard is written to a file instead.
+     */
+    private static final int SHARE_LOOKUP_URI_MAX_CONTACTS = 100;
+
     private void doShareVisibleContacts() {
         final Cursor cursor = getContentResolver().query(Contacts.CONTENT_URI,
                 sLookupProjection, getContactSelection(), null, null);
@@ -1609,6 +1835,11 @@ public class ContactsListActivity extends ListActivity implements View.OnCreateC
                 return;
             }
 
+            if (cursor.getCount() > SHARE_LOOKUP_URI_MAX_CONTACTS) {
+                new ShareVCardTask(this).execute(getContactSelection());
+                return;
+            }
+
             StringBuilder uriListBuilder = new StringBuilder();
             int index = 0;
             for (;!cursor.isAfterLast(); cursor.moveToNext()) {
@@ -1620,16 +1851,153 @@ public class ContactsListActivity extends ListActivity implements View.OnCreateC
             Uri uri = Uri.withAppendedPath(
                     Contacts.CONTENT_MULTI_VCARD_URI,
                     Uri.encode(uriListBuilder.toString()));
-
-            final Intent intent = new Intent(Intent.ACTION_SEND);
-            intent.setType(Contacts.CONTENT_VCARD_TYPE);
-            intent.putExtra(Intent.EXTRA_STREAM, uri);
-            startActivity(intent);
+            shareVCard(uri);
         } finally {
             cursor.close();
         }
     }
 
+    private void shareVCard(Uri uri) {
+        final Intent intent = new Intent(Intent.ACTION_SEND);
+        intent.setType(Contacts.CONTENT_VCARD_TYPE);
+        intent.putExtra(Intent.EXTRA_STREAM, uri);
+        startActivity(intent);
+    }
+
+    /**
+     * Shares a vCard file written by {@link ShareVCardTask}.  The URI is set as the
+     * data of the intent as well, which is what the read permission is granted on.
+     */
+    private void shareVCardFile(File file) {
+        final Uri uri = VCardShareProvider.getUri(file);
+        final Intent intent = new Intent(Intent.ACTION_SEND);
+        intent.setDataAndType(uri, Contacts.CONTENT_VCARD_TYPE);
+        intent.putExtra(Intent.EXTRA_STREAM, uri);
+        intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        startActivity(intent);
+    }
+
+    /**
+     * Background task that writes the contacts matching a selection to a vCard file
+     * one at a time, so that memory use does not grow with the number of contacts,
+     * and then shares the file through {@link VCardShareProvider}.  The progress is
+     * shown in a dialog, which cancels the task when it is dismissed.  The task stops
+     * at the next contact once cancelled, and deletes the file if it fails or is
+     * cancelled.
+     */
+    private static class ShareVCardTask extends
+            WeakAsyncTask<String, Integer, File, ContactsListActivity>
+            implements DialogInterface.OnCancelListener {
+        private WeakReference<ProgressDialog> mProgress;
+
+        public ShareVCardTask(ContactsListActivity target) {
+            super(target);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        protected void onPreExecute(ContactsListActivity target) {
+            ProgressDialog progress = new ProgressDialog(target);
+            progress.setMessage(target.getText(R.string.share_preparing_vcard));
+            progress.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+            progress.setIndeterminate(true);
+            progress.setOnCancelListener(this);
+            progress.show();
+            mProgress = new WeakReference<ProgressDialog>(progress);
+        }
+
+        public void onCancel(DialogInterface dialog) {
+            cancel(false);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        protected File doInBackground(ContactsListActivity target, String... params) {
+            final File file;
+            try {
+                file = VCardShareProvider.createFile(target);
+            } catch (IOException e) {
+                Log.e(TAG, "Cannot share contacts", e);
+                return null;
+            }
+
+            final VCardComposer composer = new VCardComposer(target,
+                    VCardConfig.VCARD_TYPE_V30_GENERIC, true);
+            boolean success = false;
+            try {
+                composer.addHandler(composer.new HandlerForOutputStream(
+                        new FileOutputStream(file)));
+                if (!composer.init(params[0], null)) {
+                    Log.e(TAG, "Cannot share contacts: " + composer.getErrorReason());
+                    return null;
+                }
+
+                final int count = composer.getCount();
+                int done = 0;
+                while (!composer.isAfterLast()) {
+                    if (isCancelled()) {
+                        return null;
+                    }
+                    if (!composer.createOneEntry()) {
+                        Log.e(TAG, "Cannot share contacts: " + composer.getErrorReason());
+                        return null;
+                    }
+                    publishProgress(++done, count);
+                }
+                success = true;
+            } catch (FileNotFoundException e) {
+                Log.e(TAG, "Cannot share contacts", e);
+                return null;
+            } finally {
+                composer.terminate();
+                if (!success || isCancelled()) {
+                    file.delete();
+                }
+            }
+            return file;
+        }
+
+        @Override
+        protected void onProgressUpdate(Integer... values) {
+            final ProgressDialog progress = mProgress.get();
+            if (progress != null) {
+                progress.setIndeterminate(false);
+                progress.setMax(values[1]);
+                progress.setProgress(values[0]);
+            }
+        }
+
+        @Override
+        protected void onCancelled() {
+            dismissProgress();
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        protected void onPostExecute(ContactsListActivity target, File result) {
+            dismissProgress();
+            if (isCancelled()) {
+                return;
+            }
+            if (result == null) {
+                Toast.makeText(target, R.string.share_error, Toast.LENGTH_SHORT).show();
+                return;
+            }
+            target.shareVCardFile(result);
+        }
+
+        private void dismissProgress() {
+            final ProgressDialog progress = mProgress.get();
+            if (progress != null) {
+                try {
+                    progress.dismiss();
+                } catch (Exception e) {
+                    Log.e(TAG, "Error dismissing progress dialog", e);
+                }
+            }
+        }
+    }
+
     private void handleImportRequest(int resId) {
         // There's three possibilities:
         // - more than one accounts -> ask the user
@@ -2542,7 +2910,8 @@ public class ContactsListActivity extends ListActivity implements View.OnCreateC
 
         // Cancel any pending queries
         mQueryHandler.cancelOperation(QUERY_TOKEN);
-        mQueryHandler.setLoadingJoinSuggestions(false);
+        mQueryHandler.cancelJoinQuery();
+        mAdapter.mContentChangeRequery = false;
 
         mSortOrder = mContactsPrefs.getSortOrder();
         mDisplayOrder = mContactsPrefs.getDisplayOrder();
@@ -2557,6 +2926,7 @@ public class ContactsListActivity extends ListActivity implements View.OnCreateC
                 mDisplayOrder == ContactsContract.Preferences.DISPLAY_ORDER_PRIMARY) {
             mHighlightWhenScrolling = true;
         }
+        mAdapter.invalidateRowBinder();
 
         String[] projection = getProjectionForQuery();
         if (mSearchMode && TextUtils.isEmpty(getTextFilter())) {
@@ -2648,9 +3018,9 @@ public class ContactsListActivity extends ListActivity implements View.OnCreateC
                 break;
 
             case MODE_JOIN_CONTACT:
-                mQueryHandler.setLoadingJoinSuggestions(true);
-                mQueryHandler.startQuery(QUERY_TOKEN, null, uri, projection,
-                        null, null, null);
+                mQueryHandler.startJoinQuery(uri, projection,
+                        getContactFilterUri(getTextFilter()), CONTACTS_SUMMARY_PROJECTION,
+                        getJoinContactSelection(), getSortOrder(CONTACTS_SUMMARY_PROJECTION));
                 break;
         }
     }
@@ -2667,6 +3037,11 @@ public class ContactsListActivity extends ListActivity implements View.OnCreateC
             return new MatrixCursor(projection);
         }
 
+        Cursor indexedResults = queryNameIndex(filter, projection);
+        if (indexedResults != null) {
+            return indexedResults;
+        }
+
         final ContentResolver resolver = getContentResolver();
         switch (mMode) {
             case MODE_DEFAULT:
@@ -2724,19 +3099,63 @@ public class ContactsListActivity extends ListActivity implements View.OnCreateC
 
             case MODE_JOIN_CONTACT: {
 
-                // We are on a background thread. Run queries one after the other synchronously
-                Cursor cursor = resolver.query(getJoinSuggestionsUri(filter), projection, null,
-                        null, null);
-                mAdapter.setSuggestionsCursor(cursor);
+                // We are on a background thread.  Query the suggestions on another one
+                // while the complete list is queried on this one.
+                final Uri suggestionsUri = getJoinSuggestionsUri(filter);
+                final String[] suggestionsProjection = projection;
+                final Future<Cursor> suggestions = sJoinSuggestionsExecutor.submit(
+                        new Callable<Cursor>() {
+                    public Cursor call() {
+                        return resolver.query(suggestionsUri, suggestionsProjection, null, null,
+                                null);
+                    }
+                });
+
+                Cursor cursor = resolver.query(getContactFilterUri(filter), projection,
+                        getJoinContactSelection(), null, getSortOrder(projection));
+                try {
+                    mAdapter.setSuggestionsCursor(suggestions.get());
+                } catch (InterruptedException e) {
+                    Log.w(TAG, "Interrupted while loading join suggestions", e);
+                    closeWhenDone(suggestions);
+                    mAdapter.setSuggestionsCursor(null);
+                } catch (ExecutionException e) {
+                    Log.e(TAG, "Cannot load join suggestions", e.getCause());
+                    mAdapter.setSuggestionsCursor(null);
+                }
                 mJoinModeShowAllContacts = false;
-                return resolver.query(getContactFilterUri(filter), projection,
-                        Contacts._ID + " != " + mQueryAggregateId + " AND " + CLAUSE_ONLY_VISIBLE,
-                        null, getSortOrder(projection));
+                return cursor;
             }
         }
         throw new UnsupportedOperationException("filtering not allowed in mode " + mMode);
     }
 
+    /**
+     * Closes the join suggestions once their query, which cannot be interrupted, has
+     * completed.  The executor runs one query at a time, so by the time this runs on
+     * it the result is there.
+     */
+    private static void closeWhenDone(final Future<Cursor> suggestions) {
+        sJoinSuggestionsExecutor.execute(new Runnable() {
+            public void run() {
+                try {
+                    Cursor cursor = suggestions.get();
+                    if (cursor != null) {
+                        cursor.close();
+                    }
+                } catch (InterruptedException e) {
+                    Log.w(TAG, "Interrupted while closing join suggestions", e);
+                } catch (ExecutionException e) {
+                    // Nothing to close
+                }
+            }
+        });
+    }
+
+    private String getJoinContactSelection() {
+        return Contacts._ID + " != " + mQueryAggregateId + " AND " + CLAUSE_ONLY_VISIBLE;
+    }
+
     private Cursor getShowAllContactsLabelCursor(String[] projection) {
         MatrixCursor matrixCursor = new MatrixCursor(projection);
         Object[] row = new Object[projection.length];
@@ -2802,9 +3221,23 @@ public class ContactsListActivity extends ListActivity implements View.OnCreateC
                     return false;
                 }
 
+                long contactId = cursor.getLong(SUMMARY_ID_COLUMN_INDEX);
+                PrimaryPhoneCache.Entry entry =
+                        PrimaryPhoneCache.getInstance(this).get(contactId);
+                if (entry != null && entry.getNumberToUse() != null) {
+                    // No need to look at the numbers, we know which one to use
+                    if (sendSms) {
+                        ContactsUtils.initiateSms(this, entry.getNumberToUse());
+                    } else {
+                        StickyTabs.saveTab(this, getIntent());
+                        ContactsUtils.initiateCall(this, entry.getNumberToUse());
+                    }
+                    return true;
+                }
+
                 String phone = null;
                 Cursor phonesCursor = null;
-                phonesCursor = queryPhoneNumbers(cursor.getLong(SUMMARY_ID_COLUMN_INDEX));
+                phonesCursor = queryPhoneNumbers(contactId);
                 if (phonesCursor == null || phonesCursor.getCount() == 0) {
                     // No valid number
                     signalError();
@@ -2897,58 +3330,196 @@ public class ContactsListActivity extends ListActivity implements View.OnCreateC
         protected final WeakReference<ContactsListActivity> mActivity;
         protected boolean mLoadingJoinSuggestions = false;
 
+        /**
+         * The join suggestions and the complete list of contacts are queried at the
+         * same time, and shown once both have been loaded.  The generation tells the
+         * results of the current queries from those of canceled ones.  The list is
+         * queried even while it is hidden behind the "show all" item, since it is
+         * shown after all if there are no suggestions, and closed if it is not.
+         */
+        private int mJoinQueryGeneration;
+        private boolean mJoinSuggestionsLoaded;
+        private Cursor mJoinSuggestions;
+        private boolean mJoinContactsLoaded;
+        private Cursor mJoinContacts;
+
         public QueryHandler(Context context) {
             super(context.getContentResolver());
             mActivity = new WeakReference<ContactsListActivity>((ContactsListActivity) context);
         }
 
-        public void setLoadingJoinSuggestions(boolean flag) {
-            mLoadingJoinSuggestions = flag;
+        /**
+         * Starts loading the join suggestions and the complete list of contacts.  The
+         * suggestions are loaded by a task of their own, since the queries of all
+         * query handlers run one after the other on the same thread.
+         */
+        public void startJoinQuery(Uri suggestionsUri, String[] suggestionsProjection,
+                Uri contactsUri, String[] contactsProjection, String contactsSelection,
+                String contactsSortOrder) {
+            cancelJoinQuery();
+            mLoadingJoinSuggestions = true;
+            final Integer generation = ++mJoinQueryGeneration;
+            new JoinSuggestionsTask(this, mActivity.get().getContentResolver(), generation,
+                    suggestionsUri, suggestionsProjection).execute();
+            startQuery(QUERY_TOKEN, generation, contactsUri, contactsProjection,
+                    contactsSelection, null, contactsSortOrder);
         }
 
-        @Override
-        protected void onQueryComplete(int token, Object cookie, Cursor cursor) {
-            final ContactsListActivity activity = mActivity.get();
-            if (activity != null && !activity.isFinishing()) {
+        /**
+         * Drops the results of the join queries in progress.
+         */
+        public void cancelJoinQuery() {
+            mLoadingJoinSuggestions = false;
+            mJoinQueryGeneration++;
+            if (mJoinSuggestions != null) {
+                mJoinSuggestions.close();
+                mJoinSuggestions = null;
+            }
+            if (mJoinContacts != null) {
+                mJoinContacts.close();
+                mJoinContacts = null;
+            }
+            mJoinSuggestionsLoaded = false;
+            mJoinContactsLoaded = false;
+        }
 
-                // Whenever we get a suggestions cursor, we need to immediately kick off
-                // another query for the complete list of contacts
-                if (cursor != null && mLoadingJoinSuggestions) {
-                    mLoadingJoinSuggestions = false;
-                    if (cursor.getCount() > 0) {
-                        activity.mAdapter.setSuggestionsCursor(cursor);
-                    } else {
-                        cursor.close();
-                        activity.mAdapter.setSuggestionsCursor(null);
-                    }
+        private boolean isCurrentJoinQuery(Object cookie) {
+            return mLoadingJoinSuggestions && cookie instanceof Integer
+                    && ((Integer) cookie).intValue() == mJoinQueryGeneration;
+        }
 
-                    if (activity.mAdapter.mSuggestionsCursorCount == 0
-                            || !activity.mJoinModeShowAllContacts) {
-                        startQuery(QUERY_TOKEN, null, activity.getContactFilterUri(
-                                        activity.getTextFilter()),
-                                CONTACTS_SUMMARY_PROJECTION,
-                                Contacts._ID + " != " + activity.mQueryAggregateId
-                                        + " AND " + CLAUSE_ONLY_VISIBLE, null,
-                                activity.getSortOrder(CONTACTS_SUMMARY_PROJECTION));
-                        return;
-                    }
+        private void onJoinSuggestionsComplete(int generation, Cursor cursor) {
+            if (!isCurrentJoinQuery(generation)) {
+                if (cursor != null) {
+                    cursor.close();
+                }
+                return;
+            }
+            mJoinSuggestions = cursor;
+            mJoinSuggestionsLoaded = true;
+            onJoinQueryComplete();
+        }
+
+        private void onJoinQueryComplete() {
+            if (!mJoinSuggestionsLoaded || !mJoinContactsLoaded) {
+                return;
+            }
+
+            Cursor suggestions = mJoinSuggestions;
+            Cursor contacts = mJoinContacts;
+            mJoinSuggestions = null;
+            mJoinContacts = null;
+            mLoadingJoinSuggestions = false;
+            mJoinSuggestionsLoaded = false;
+            mJoinContactsLoaded = false;
+
+            final ContactsListActivity activity = mActivity.get();
+            if (activity == null || activity.isFinishing()) {
+                if (suggestions != null) {
+                    suggestions.close();
+                }
+                if (contacts != null) {
+                    contacts.close();
+                }
+                return;
+            }
 
-                    cursor = activity.getShowAllContactsLabelCursor(CONTACTS_SUMMARY_PROJECTION);
+            if (suggestions != null && suggestions.getCount() > 0) {
+                activity.mAdapter.setSuggestionsCursor(suggestions);
+            } else {
+                if (suggestions != null) {
+                    suggestions.close();
                 }
+                activity.mAdapter.setSuggestionsCursor(null);
+            }
 
-                activity.mAdapter.changeCursor(cursor);
+            // The complete list is only shown once asked for, unless there are no
+            // suggestions
+            if (activity.mAdapter.mSuggestionsCursorCount != 0
+                    && activity.mJoinModeShowAllContacts) {
+                if (contacts != null) {
+                    contacts.close();
+                }
+                contacts = activity.getShowAllContactsLabelCursor(CONTACTS_SUMMARY_PROJECTION);
+            }
+            showCursor(activity, contacts);
+        }
 
-                // Now that the cursor is populated again, it's possible to restore the list state
-                if (activity.mListState != null) {
-                    activity.mList.onRestoreInstanceState(activity.mListState);
-                    activity.mListState = null;
+        @Override
+        protected void onQueryComplete(int token, Object cookie, Cursor cursor) {
+            if (cookie instanceof Integer) {
+                // The complete list of contacts of a join query
+                if (!isCurrentJoinQuery(cookie)) {
+                    if (cursor != null) {
+                        cursor.close();
+                    }
+                    return;
                 }
+                mJoinContacts = cursor;
+                mJoinContactsLoaded = true;
+                onJoinQueryComplete();
+                return;
+            }
+
+            final ContactsListActivity activity = mActivity.get();
+            if (activity != null && !activity.isFinishing()) {
+                showCursor(activity, cursor);
             } else {
                 if (cursor != null) {
                     cursor.close();
                 }
             }
         }
+
+        private void showCursor(ContactsListActivity activity, Cursor cursor) {
+            if (activity.mAdapter.mContentChangeRequery) {
+                activity.mAdapter.mContentChangeRequery = false;
+                activity.mAdapter.changeCursorIfChanged(cursor);
+            } else {
+                activity.mAdapter.changeCursor(cursor);
+            }
+        }
+    }
+
+    /**
+     * Loads the join suggestions, while the query handler loads the complete list
+     * of contacts.
+     */
+    private static class JoinSuggestionsTask extends AsyncTask<Void, Void, Cursor> {
+        private final WeakReference<QueryHandler> mQueryHandler;
+        private final ContentResolver mResolver;
+        private final int mGeneration;
+        private final Uri mUri;
+        private final String[] mProjection;
+
+        public JoinSuggestionsTask(QueryHandler queryHandler, ContentResolver resolver,
+                int generation, Uri uri, String[] projection) {
+            mQueryHandler = new WeakReference<QueryHandler>(queryHandler);
+            mResolver = resolver;
+            mGeneration = generation;
+            mUri = uri;
+            mProjection = projection;
+        }
+
+        @Override
+        protected Cursor doInBackground(Void... params) {
+            Cursor cursor = mResolver.query(mUri, mProjection, null, null, null);
+            if (cursor != null) {
+                // Fill the window on this thread
+                cursor.getCount();
+            }
+            return cursor;
+        }
+
+        @Override
+        protected void onPostExecute(Cursor cursor) {
+            final QueryHandler queryHandler = mQueryHandler.get();
+            if (queryHandler != null) {
+                queryHandler.onJoinSuggestionsComplete(mGeneration, cursor);
+            } else if (cursor != null) {
+                cursor.close();
+            }
+        }
     }
 
     final static class ContactListItemCache {
@@ -2982,16 +3553,191 @@ public class ContactsListActivity extends ListActivity implements View.OnCreateC
         public QuickContactBadge photoView;
     }
 
-    final static class PinnedHeaderCache {
-        public TextView titleView;
-        public ColorStateList textColor;
-        public Drawable background;
+    /**
+     * A new cursor that is prepared on a background thread before it is handed to the
+     * list.  The snapshot of a cursor loaded after a change notification is taken so
+     * that it can be compared with the current one, and the section index is built if
+     * the provider did not supply one.
+     */
+    final static class CursorRequest {
+        public Cursor cursor;
+        public boolean keepIfUnchanged;
+        public boolean takeSnapshot;
+        public ContactListSnapshot previous;
+        public ContactListSnapshot snapshot;
+        public ContactsSectionIndexBuilder indexBuilder;
+        public int sortKeyColumnIndex;
+        public SectionIndexer indexer;
+        public int generation;
     }
 
-    private final class ContactItemListAdapter extends ResourceCursorAdapter
-            implements SectionIndexer, OnScrollListener, PinnedHeaderListView.PinnedHeaderAdapter {
+    /**
+     * The results of a filter query, labeled with the filter.
+     */
+    final static class FilterResultCursor extends CursorWrapper {
+        private final Cursor mCursor;
+        private final String mFilter;
+        private boolean mReleased;
+
+        public FilterResultCursor(Cursor cursor, String filter) {
+            super(cursor);
+            mCursor = cursor;
+            mFilter = filter;
+        }
+
+        public String getFilter() {
+            return mFilter;
+        }
+
+        /**
+         * Hands the wrapped cursor over to a new owner.  Closing this cursor no longer
+         * closes the wrapped one.
+         */
+        public Cursor release() {
+            mReleased = true;
+            return mCursor;
+        }
+
+        @Override
+        public void close() {
+            if (!mReleased) {
+                super.close();
+            }
+        }
+    }
+
+    /**
+     * Shows some of the rows of a cursor, in the same order, without copying them.
+     * The positions are those of the wrapped cursor at the time the rows were
+     * picked, so the wrapped cursor must not be requeried.
+     */
+    final static class PositionMapCursor extends CursorWrapper {
+        private final Cursor mCursor;
+        private final int[] mPositions;
+        private int mPos = -1;
+
+        private PositionMapCursor(Cursor cursor, int[] positions) {
+            super(cursor);
+            mCursor = cursor;
+            mPositions = positions;
+        }
+
+        /**
+         * Returns a cursor with the rows of the given cursor at the given positions.
+         * If the cursor itself only shows some of the rows of another cursor, the new
+         * one wraps that other cursor directly.
+         */
+        public static PositionMapCursor create(Cursor cursor, int[] positions) {
+            if (cursor instanceof PositionMapCursor) {
+                PositionMapCursor mapped = (PositionMapCursor) cursor;
+                int[] wrappedPositions = new int[positions.length];
+                for (int i = 0; i < positions.length; i++) {
+                    wrappedPositions[i] = mapped.mPositions[positions[i]];
+                }
+                return new PositionMapCursor(mapped.mCursor, wrappedPositions);
+            }
+            return new PositionMapCursor(cursor, positions);
+        }
+
+        @Override
+        public int getCount() {
+            return mPositions.length;
+        }
+
+        @Override
+        public int getPosition() {
+            return mPos;
+        }
+
+        @Override
+        public boolean moveToPosition(int position) {
+            if (position < 0) {
+                mPos = -1;
+                mCursor.moveToPosition(-1);
+                return false;
+            }
+            if (position >= mPositions.length) {
+                mPos = mPositions.length;
+                mCursor.moveToPosition(mCursor.getCount());
+                return false;
+            }
+            mPos = position;
+            return mCursor.moveToPosition(mPositions[position]);
+        }
+
+        @Override
+        public boolean move(int offset) {
+            return moveToPosition(mPos + offset);
+        }
+
+        @Override
+        public boolean moveToFirst() {
+            return moveToPosition(0);
+        }
+
+        @Override
+        public boolean moveToLast() {
+            return moveToPosition(mPositions.length - 1);
+        }
+
+        @Override
+        public boolean moveToNext() {
+            return moveToPosition(mPos + 1);
+        }
+
+        @Override
+        public boolean moveToPrevious() {
+            return moveToPosition(mPos - 1);
+        }
+
+        @Override
+        public boolean isFirst() {
+            return mPositions.length != 0 && mPos == 0;
+        }
+
+        @Override
+        public boolean isLast() {
+            return mPositions.length != 0 && mPos == mPositions.length - 1;
+        }
+
+        @Override
+        public boolean isBeforeFirst() {
+            return mPositions.length == 0 || mPos == -1;
+        }
+
+        @Override
+        public boolean isAfterLast() {
+            return mPositions.length == 0 || mPos == mPositions.length;
+        }
+    }
+
+    /**
+     * Returns true if a word of {@code text} starts with {@code prefix}, ignoring case.
+     */
+    static boolean containsWordPrefix(String text, String prefix) {
+        if (text == null) {
+            return false;
+        }
+        int prefixLength = prefix.length();
+        int end = text.length() - prefixLength;
+        for (int i = 0; i <= end; i++) {
+            if ((i == 0 || !Character.isLetterOrDigit(text.charAt(i - 1)))
+                    && text.regionMatches(true, i, prefix, 0, prefixLength)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    final static class PinnedHeaderCache {
+        public TextView titleView;
+        public ColorStateList textColor;
+        public Drawable background;
+    }
+
+    private final class ContactItemListAdapter extends ResourceCursorAdapter
+            implements SectionIndexer, OnScrollListener, PinnedHeaderListView.PinnedHeaderAdapter {
         private SectionIndexer mIndexer;
-        private String mAlphabet;
         private boolean mLoading = true;
         private CharSequence mUnknownNameText;
         private boolean mDisplayPhotos = false;
@@ -3006,12 +3752,65 @@ public class ContactsListActivity extends ListActivity implements View.OnCreateC
         private ImageFetchHandler mHandler;
         private static final int FETCH_IMAGE_MSG = 1;
 
+        /**
+         * Whether the running query was started by a change notification, in which
+         * case its result is compared with the current list before it replaces it.
+         */
+        private boolean mContentChangeRequery;
+        private long mLastContentChangeRequery;
+
+        /**
+         * Whether change notifications are held back while many changes are made,
+         * and whether any arrived in the meantime.
+         */
+        private boolean mContentChangesSuspended;
+        private boolean mContentChangedWhileSuspended;
+
+        /**
+         * The filter the current cursor holds the results of, if they can be narrowed
+         * down in memory.
+         */
+        private String mCursorFilter;
+
+        /**
+         * Binds the rows, null if the mode, the preferences or the cursor changed
+         * since the last row was bound.
+         */
+        private RowBinder mRowBinder;
+
+        /**
+         * Snapshot of the rows of the current cursor, null if it has not been taken.
+         * Only cursors loaded after a change notification have one, the first cursor
+         * is shown without waiting for it.
+         */
+        private ContactListSnapshot mSnapshot;
+        private int mCursorGeneration;
+        private CursorThread mCursorThread;
+
+        private static final int MESSAGE_CONTENT_CHANGE_REQUERY = 1;
+        private static final int MESSAGE_CURSOR_PREPARED = 2;
+
+        private final Handler mContentChangeHandler = new Handler() {
+            @Override
+            public void handleMessage(Message msg) {
+                switch (msg.what) {
+                    case MESSAGE_CONTENT_CHANGE_REQUERY:
+                        if (TextUtils.isEmpty(getTextFilter())) {
+                            requeryForContentChange();
+                        }
+                        break;
+                    case MESSAGE_CURSOR_PREPARED:
+                        onCursorPrepared((CursorRequest) msg.obj);
+                        break;
+                }
+            }
+        };
+
 
         public ContactItemListAdapter(Context context) {
             super(context, R.layout.contacts_list_item, null, false);
 
             mHandler = new ImageFetchHandler();
-            mAlphabet = context.getString(com.android.internal.R.string.fast_scroll_alphabet);
 
             mUnknownNameText = context.getText(android.R.string.unknownName);
             switch (mMode) {
@@ -3124,14 +3923,6 @@ public class ContactsListActivity extends ListActivity implements View.OnCreateC
             mSuggestionsCursorCount = cursor == null ? 0 : cursor.getCount();
         }
 
-        private SectionIndexer getNewIndexer(Cursor cursor) {
-            /* if (Locale.getDefault().getLanguage().equals(Locale.JAPAN.getLanguage())) {
-                return new JapaneseContactListIndexer(cursor, SORT_STRING_INDEX);
-            } else { */
-                return new AlphabetIndexer(cursor, getSummaryDisplayNameColumnIndex(), mAlphabet);
-            /* } */
-        }
-
         /**
          * Callback on the UI thread when the content observer on the backing cursor fires.
          * Instead of calling requery we need to do an async query so that the requery doesn't
@@ -3139,14 +3930,227 @@ public class ContactsListActivity extends ListActivity implements View.OnCreateC
          */
         @Override
         protected void onContentChanged() {
+            if (mContentChangesSuspended) {
+                mContentChangedWhileSuspended = true;
+                return;
+            }
+
             CharSequence constraint = getTextFilter();
             if (!TextUtils.isEmpty(constraint)) {
                 // Reset the filter state then start an async filter operation
                 Filter filter = getFilter();
                 filter.filter(constraint);
             } else {
-                // Start an async query
-                startQuery();
+                // Start an async query, unless we have just started one
+                mContentChangeHandler.removeMessages(MESSAGE_CONTENT_CHANGE_REQUERY);
+                long delay = mLastContentChangeRequery + CONTENT_CHANGE_REQUERY_INTERVAL_MS
+                        - SystemClock.uptimeMillis();
+                if (delay > 0) {
+                    mContentChangeHandler.sendEmptyMessageDelayed(
+                            MESSAGE_CONTENT_CHANGE_REQUERY, delay);
+                } else {
+                    requeryForContentChange();
+                }
+            }
+        }
+
+        /**
+         * Stops reloading the list on change notifications, until
+         * {@link #resumeContentChanges()} is called.  Used while making many changes
+         * in a row, which would otherwise reload the list again and again.
+         */
+        public void suspendContentChanges() {
+            mContentChangesSuspended = true;
+            mContentChangedWhileSuspended = false;
+            mContentChangeHandler.removeMessages(MESSAGE_CONTENT_CHANGE_REQUERY);
+        }
+
+        /**
+         * Reloads the list once if anything changed while change notifications
+         * were suspended.
+         */
+        public void resumeContentChanges() {
+            mContentChangesSuspended = false;
+            if (mContentChangedWhileSuspended) {
+                mContentChangedWhileSuspended = false;
+                onContentChanged();
+            }
+        }
+
+        private void requeryForContentChange() {
+            mLastContentChangeRequery = SystemClock.uptimeMillis();
+            startQuery();
+            mContentChangeRequery = true;
+        }
+
+        public void cancelContentChangeRequery() {
+            mContentChangeHandler.removeMessages(MESSAGE_CONTENT_CHANGE_REQUERY);
+            mContentChangeRequery = false;
+        }
+
+        /**
+         * Replaces the current cursor with one that was loaded after a change
+         * notification, but only if the list actually changed.  The rows of the new
+         * cursor are compared with the current ones on a background thread.
+         */
+        public void changeCursorIfChanged(Cursor cursor) {
+            if (cursor == null || getCursor() == null) {
+                changeCursor(cursor);
+                return;
+            }
+            prepareCursor(cursor, true);
+        }
+
+        /**
+         * Hands a new cursor to the background thread, which takes its snapshot if it
+         * is to be compared with the current one, and builds its section index if
+         * needed.
+         *
+         * @param keepIfUnchanged whether to keep the current cursor if the new one
+         *            has the same rows
+         */
+        private void prepareCursor(Cursor cursor, boolean keepIfUnchanged) {
+            if (mCursorThread == null) {
+                mCursorThread = new CursorThread();
+                mCursorThread.start();
+            }
+            CursorRequest request = new CursorRequest();
+            request.cursor = cursor;
+            request.keepIfUnchanged = keepIfUnchanged;
+            request.takeSnapshot = keepIfUnchanged;
+            request.previous = mSnapshot;
+            if (needsSectionIndexBuilt(cursor)) {
+                request.indexBuilder = new ContactsSectionIndexBuilder(Locale.getDefault());
+                request.sortKeyColumnIndex = getSortKeyColumnIndex(cursor);
+            }
+            request.generation = ++mCursorGeneration;
+            mCursorThread.prepare(request);
+        }
+
+        private void onCursorPrepared(CursorRequest request) {
+            if (request.generation != mCursorGeneration
+                    || (request.keepIfUnchanged && getCursor() == null)) {
+                // The list has been replaced in the meantime
+                request.cursor.close();
+                return;
+            }
+
+            if (!request.keepIfUnchanged) {
+                installCursor(request.cursor, true, request.indexer);
+                mSnapshot = request.snapshot;
+                return;
+            }
+
+            switch (request.snapshot.compare(request.previous)) {
+                case ContactListSnapshot.CHANGE_NONE:
+                    // Keep the current cursor, it has the same data
+                    request.cursor.close();
+                    setLoading(false);
+                    break;
+                case ContactListSnapshot.CHANGE_ROWS:
+                    installCursor(request.cursor, request.indexer != null
+                            || !hasSameSections(getCursor(), request.cursor), request.indexer);
+                    break;
+                default:
+                    installCursor(request.cursor, true, request.indexer);
+                    break;
+            }
+            mSnapshot = request.snapshot;
+        }
+
+        /**
+         * Whether the section headers are shown but the provider did not supply the
+         * section titles and counts with the cursor, so they have to be worked out
+         * from the rows.
+         */
+        private boolean needsSectionIndexBuilt(Cursor cursor) {
+            return cursor != null && mDisplaySectionHeaders
+                    && getSortKeyColumnIndex(cursor) != -1
+                    && !cursor.getExtras().containsKey(
+                            ContactCounts.EXTRA_ADDRESS_BOOK_INDEX_TITLES);
+        }
+
+        /**
+         * Returns the column of the sort key the rows are ordered by, or -1 if the
+         * cursor does not have it.
+         */
+        private int getSortKeyColumnIndex(Cursor cursor) {
+            if (mSortOrder == ContactsContract.Preferences.SORT_ORDER_PRIMARY) {
+                return cursor.getColumnIndex(Contacts.SORT_KEY_PRIMARY);
+            } else {
+                return cursor.getColumnIndex(Contacts.SORT_KEY_ALTERNATIVE);
+            }
+        }
+
+        private boolean hasSameSections(Cursor oldCursor, Cursor newCursor) {
+            Bundle oldExtras = oldCursor.getExtras();
+            Bundle newExtras = newCursor.getExtras();
+            return Arrays.equals(
+                    oldExtras.getStringArray(ContactCounts.EXTRA_ADDRESS_BOOK_INDEX_TITLES),
+                    newExtras.getStringArray(ContactCounts.EXTRA_ADDRESS_BOOK_INDEX_TITLES))
+                    && Arrays.equals(
+                    oldExtras.getIntArray(ContactCounts.EXTRA_ADDRESS_BOOK_INDEX_COUNTS),
+                    newExtras.getIntArray(ContactCounts.EXTRA_ADDRESS_BOOK_INDEX_COUNTS));
+        }
+
+        public void stopCursorThread() {
+            if (mCursorThread != null) {
+                mCursorThread.requestQuit();
+                mCursorThread = null;
+            }
+        }
+
+        /**
+         * Prepares new cursors before they are handed to the list.
+         */
+        private class CursorThread extends HandlerThread implements Handler.Callback {
+            private static final int MESSAGE_PREPARE_CURSOR = 1;
+            private static final int MESSAGE_QUIT = 2;
+
+            private Handler mCursorHandler;
+
+            public CursorThread() {
+                super("ContactListCursor", Process.THREAD_PRIORITY_BACKGROUND);
+            }
+
+            private Handler getHandler() {
+                if (mCursorHandler == null) {
+                    mCursorHandler = new Handler(getLooper(), this);
+                }
+                return mCursorHandler;
+            }
+
+            public void prepare(CursorRequest request) {
+                getHandler().obtainMessage(MESSAGE_PREPARE_CURSOR, request).sendToTarget();
+            }
+
+            /**
+             * Quits after the pending requests have been handled, so that their cursors
+             * make it back to the main thread to be closed.
+             */
+            public void requestQuit() {
+                getHandler().sendEmptyMessage(MESSAGE_QUIT);
+            }
+
+            public boolean handleMessage(Message msg) {
+                switch (msg.what) {
+                    case MESSAGE_PREPARE_CURSOR:
+                        CursorRequest request = (CursorRequest) msg.obj;
+                        if (request.takeSnapshot) {
+                            request.snapshot = ContactListSnapshot.fromCursor(request.cursor);
+                        }
+                        if (request.indexBuilder != null) {
+                            request.indexer = request.indexBuilder.build(request.cursor,
+                                    request.sortKeyColumnIndex);
+                        }
+                        mContentChangeHandler.obtainMessage(MESSAGE_CURSOR_PREPARED, request)
+                                .sendToTarget();
+                        break;
+                    case MESSAGE_QUIT:
+                        getLooper().quit();
+                        break;
+                }
+                return true;
             }
         }
 
@@ -3259,12 +4263,6 @@ public class ContactsListActivity extends ListActivity implements View.OnCreateC
                 v = convertView;
             }
             bindView(v, mContext, cursor);
-            
-            //Wysie
-            if (mContacts) {
-                mDisplaySectionHeaders = showDisplayHeaders;                
-            }
-            
             bindSectionHeader(v, realPosition, mDisplaySectionHeaders && !showingSuggestion);
             return v;
         }
@@ -3330,152 +4328,222 @@ public class ContactsListActivity extends ListActivity implements View.OnCreateC
         public void bindView(View itemView, Context context, Cursor cursor) {
             final ContactListItemView view = (ContactListItemView)itemView;
             final ContactListItemCache cache = (ContactListItemCache) view.getTag();
+            getRowBinder(cursor).bind(view, cache, context, cursor);
+        }
 
-            int typeColumnIndex;
-            int dataColumnIndex;
-            int labelColumnIndex;
-            int defaultType;
-            int nameColumnIndex;
-            int phoneticNameColumnIndex;
-            boolean displayAdditionalData = mDisplayAdditionalData;
-            boolean highlightingEnabled = false;
-            switch(mMode) {
-                case MODE_PICK_PHONE:
-                case MODE_LEGACY_PICK_PHONE:
-                case MODE_QUERY_PICK_PHONE: {
-                    nameColumnIndex = PHONE_DISPLAY_NAME_COLUMN_INDEX;
-                    phoneticNameColumnIndex = -1;
-                    dataColumnIndex = PHONE_NUMBER_COLUMN_INDEX;
-                    typeColumnIndex = PHONE_TYPE_COLUMN_INDEX;
-                    labelColumnIndex = PHONE_LABEL_COLUMN_INDEX;
-                    defaultType = Phone.TYPE_HOME;
-                    break;
-                }
-                case MODE_PICK_POSTAL:
-                case MODE_LEGACY_PICK_POSTAL: {
-                    nameColumnIndex = POSTAL_DISPLAY_NAME_COLUMN_INDEX;
-                    phoneticNameColumnIndex = -1;
-                    dataColumnIndex = POSTAL_ADDRESS_COLUMN_INDEX;
-                    typeColumnIndex = POSTAL_TYPE_COLUMN_INDEX;
-                    labelColumnIndex = POSTAL_LABEL_COLUMN_INDEX;
-                    defaultType = StructuredPostal.TYPE_HOME;
-                    break;
+        /**
+         * Returns the binder for the current mode and preferences, resolving it if
+         * the cursor or any of them changed since it was last used.
+         */
+        private RowBinder getRowBinder(Cursor cursor) {
+            if (mRowBinder == null) {
+                //Wysie: Contacts or Favourites mode, check preferences
+                if (mContacts || mFavs) {
+                    mDisplayCallButton = (mContacts && showContactsDialButton)
+                            || (mFavs && showFavsDialButton);
+                    mDisplayPhotos = (mContacts && showContactsPic) || (mFavs && showFavsPic);
                 }
-                default: {
-                    nameColumnIndex = getSummaryDisplayNameColumnIndex();
-                    if (mMode == MODE_LEGACY_PICK_PERSON
-                            || mMode == MODE_LEGACY_PICK_OR_CREATE_PERSON) {
-                        phoneticNameColumnIndex = -1;
-                    } else {
-                        phoneticNameColumnIndex = SUMMARY_PHONETIC_NAME_COLUMN_INDEX;
-                    }
-                    dataColumnIndex = -1;
-                    typeColumnIndex = -1;
-                    labelColumnIndex = -1;
-                    defaultType = Phone.TYPE_HOME;
-                    displayAdditionalData = false;
-                    highlightingEnabled = mHighlightWhenScrolling && mMode != MODE_STREQUENT;
-                }
-            }
-
-            // Set the name
-            cursor.copyStringToBuffer(nameColumnIndex, cache.nameBuffer);
-            TextView nameView = view.getNameTextView();
-            int size = cache.nameBuffer.sizeCopied;
-            if (size != 0) {
-                if (highlightingEnabled) {
-                    if (cache.textWithHighlighting == null) {
-                        cache.textWithHighlighting =
-                                mHighlightingAnimation.createTextWithHighlighting();
-                    }
-                    buildDisplayNameWithHighlighting(nameView, cursor, cache.nameBuffer,
-                            cache.highlightedTextBuffer, cache.textWithHighlighting);
-                } else {
-                    nameView.setText(cache.nameBuffer.data, 0, size);
+                if (mContacts) {
+                    mDisplaySectionHeaders = showDisplayHeaders;
                 }
-            } else {
-                nameView.setText(mUnknownNameText);
+                mRowBinder = new RowBinder(cursor);
             }
+            return mRowBinder;
+        }
 
-            boolean hasPhone = cursor.getColumnCount() > SUMMARY_HAS_PHONE_COLUMN_INDEX
-                    && cursor.getInt(SUMMARY_HAS_PHONE_COLUMN_INDEX) != 0;
-
+        /**
+         * Makes the next bound row resolve the binder again.
+         */
+        public void invalidateRowBinder() {
+            mRowBinder = null;
+        }
 
-            //Wysie: Contacts or Favourites mode, check preferences
-            if (mContacts || mFavs) {
-                if ((mContacts && showContactsDialButton) || (mFavs && showFavsDialButton)) {
-                    mDisplayCallButton = true;
-                }
-                else {
-                    mDisplayCallButton = false;
+        /**
+         * Binds the rows of the list.  Everything that only depends on the mode and the
+         * preferences, such as the columns to read and the parts of the item to show,
+         * is resolved once when the binder is created, so that binding a row does not
+         * have to work it out again.
+         */
+        private final class RowBinder {
+            private final int mNameColumnIndex;
+            private final int mPhoneticNameColumnIndex;
+            private final int mDataColumnIndex;
+            private final int mTypeColumnIndex;
+            private final int mLabelColumnIndex;
+            private final int mHasPhoneColumnIndex;
+            private final boolean mPostalLabels;
+            private final boolean mDisplayData;
+            private final boolean mHighlightingEnabled;
+            private final boolean mShowCallButton;
+            private final boolean mShowPhotos;
+            private final boolean mUseQuickContact;
+            private final int mQuickContactTabIndex;
+            private final boolean mShowPresence;
+            private final boolean mShowSnippets;
+
+            public RowBinder(Cursor cursor) {
+                int phoneticNameColumnIndex = -1;
+                int dataColumnIndex = -1;
+                int typeColumnIndex = -1;
+                int labelColumnIndex = -1;
+                boolean displayData = mDisplayAdditionalData;
+                boolean highlightingEnabled = false;
+                switch(mMode) {
+                    case MODE_PICK_PHONE:
+                    case MODE_LEGACY_PICK_PHONE:
+                    case MODE_QUERY_PICK_PHONE: {
+                        mNameColumnIndex = PHONE_DISPLAY_NAME_COLUMN_INDEX;
+                        dataColumnIndex = PHONE_NUMBER_COLUMN_INDEX;
+                        typeColumnIndex = PHONE_TYPE_COLUMN_INDEX;
+                        labelColumnIndex = PHONE_LABEL_COLUMN_INDEX;
+                        break;
+                    }
+                    case MODE_PICK_POSTAL:
+                    case MODE_LEGACY_PICK_POSTAL: {
+                        mNameColumnIndex = POSTAL_DISPLAY_NAME_COLUMN_INDEX;
+                        dataColumnIndex = POSTAL_ADDRESS_COLUMN_INDEX;
+                        typeColumnIndex = POSTAL_TYPE_COLUMN_INDEX;
+                        labelColumnIndex = POSTAL_LABEL_COLUMN_INDEX;
+                        break;
+                    }
+                    default: {
+                        mNameColumnIndex = getSummaryDisplayNameColumnIndex();
+                        if (mMode != MODE_LEGACY_PICK_PERSON
+                                && mMode != MODE_LEGACY_PICK_OR_CREATE_PERSON) {
+                            phoneticNameColumnIndex = SUMMARY_PHONETIC_NAME_COLUMN_INDEX;
+                        }
+                        displayData = false;
+                        highlightingEnabled = mHighlightWhenScrolling && mMode != MODE_STREQUENT;
+                    }
                 }
-                if ((mContacts && showContactsPic) || (mFavs && showFavsPic)) {
-                    mDisplayPhotos = true;
+                mPhoneticNameColumnIndex = phoneticNameColumnIndex;
+                mDataColumnIndex = dataColumnIndex;
+                mTypeColumnIndex = typeColumnIndex;
+                mLabelColumnIndex = labelColumnIndex;
+                // Not all projections have it, and not always in the same column
+                mHasPhoneColumnIndex = cursor.getColumnIndex(Contacts.HAS_PHONE_NUMBER);
+                mPostalLabels = mMode == MODE_LEGACY_PICK_POSTAL || mMode == MODE_PICK_POSTAL;
+                mDisplayData = displayData;
+                mHighlightingEnabled = highlightingEnabled;
+                mShowCallButton = mDisplayCallButton;
+                mShowPhotos = mDisplayPhotos;
+                mUseQuickContact = (mMode & MODE_MASK_DISABLE_QUIKCCONTACT) == 0;
+                mQuickContactTabIndex = StickyTabs.getTab(getIntent());
+                mShowPresence = (mMode & MODE_MASK_NO_PRESENCE) == 0;
+                mShowSnippets = mShowSearchSnippets;
+            }
+
+            public void bind(ContactListItemView view, ContactListItemCache cache,
+                    Context context, Cursor cursor) {
+                // Set the name
+                cursor.copyStringToBuffer(mNameColumnIndex, cache.nameBuffer);
+                TextView nameView = view.getNameTextView();
+                int size = cache.nameBuffer.sizeCopied;
+                if (size != 0) {
+                    if (mHighlightingEnabled) {
+                        if (cache.textWithHighlighting == null) {
+                            cache.textWithHighlighting =
+                                    mHighlightingAnimation.createTextWithHighlighting();
+                        }
+                        buildDisplayNameWithHighlighting(nameView, cursor, cache.nameBuffer,
+                                cache.highlightedTextBuffer, cache.textWithHighlighting);
+                    } else {
+                        nameView.setText(cache.nameBuffer.data, 0, size);
+                    }
+                } else {
+                    nameView.setText(mUnknownNameText);
                 }
-                else {
-                    mDisplayPhotos = false;
+
+                // Make the call button visible if requested.
+                if (mShowCallButton && mHasPhoneColumnIndex != -1
+                        && cursor.getInt(mHasPhoneColumnIndex) != 0) {
+                    view.showCallButton(android.R.id.button1, cursor.getPosition());
+                } else {
+                    view.hideCallButton();
                 }
-            }
 
-            // Make the call button visible if requested.
-            if (mDisplayCallButton && hasPhone) {
-                int pos = cursor.getPosition();
-                view.showCallButton(android.R.id.button1, pos);
-            } else {
-                view.hideCallButton();
-            }
+                // Set the photo, if requested
+                if (mShowPhotos) {
+                    long photoId = 0;
+                    if (!cursor.isNull(SUMMARY_PHOTO_ID_COLUMN_INDEX)) {
+                        photoId = cursor.getLong(SUMMARY_PHOTO_ID_COLUMN_INDEX);
+                    }
 
-            // Set the photo, if requested
-            if (mDisplayPhotos) {
-                boolean useQuickContact = (mMode & MODE_MASK_DISABLE_QUIKCCONTACT) == 0;
+                    ImageView viewToUse;
+                    if (mUseQuickContact) {
+                        // Build soft lookup reference
+                        final long contactId = cursor.getLong(SUMMARY_ID_COLUMN_INDEX);
+                        final String lookupKey = cursor.getString(SUMMARY_LOOKUP_KEY_COLUMN_INDEX);
+                        QuickContactBadge quickContact = view.getQuickContact();
+                        quickContact.assignContactUri(Contacts.getLookupUri(contactId, lookupKey));
+                        quickContact.setSelectedContactsAppTabIndex(mQuickContactTabIndex);
+                        viewToUse = quickContact;
+                    } else {
+                        viewToUse = view.getPhotoView();
+                    }
 
-                long photoId = 0;
-                if (!cursor.isNull(SUMMARY_PHOTO_ID_COLUMN_INDEX)) {
-                    photoId = cursor.getLong(SUMMARY_PHOTO_ID_COLUMN_INDEX);
+                    mPhotoLoader.loadPhoto(viewToUse, photoId);
+                } else {
+                    if (cache.photoView != null)
+                        cache.photoView.setVisibility(View.GONE);
+                    if (cache.nonQuickContactPhotoView != null)
+                        cache.nonQuickContactPhotoView.setVisibility(View.GONE);
                 }
 
-                ImageView viewToUse;
-                if (useQuickContact) {
-                    // Build soft lookup reference
-                    final long contactId = cursor.getLong(SUMMARY_ID_COLUMN_INDEX);
-                    final String lookupKey = cursor.getString(SUMMARY_LOOKUP_KEY_COLUMN_INDEX);
-                    QuickContactBadge quickContact = view.getQuickContact();
-                    quickContact.assignContactUri(Contacts.getLookupUri(contactId, lookupKey));
-                    quickContact.setSelectedContactsAppTabIndex(StickyTabs.getTab(getIntent()));
-                    viewToUse = quickContact;
+                // Set the proper icon (star or presence or nothing)
+                if (mShowPresence && !cursor.isNull(SUMMARY_PRESENCE_STATUS_COLUMN_INDEX)) {
+                    int serverStatus = cursor.getInt(SUMMARY_PRESENCE_STATUS_COLUMN_INDEX);
+                    view.setPresence(ContactPresenceIconUtil.getPresenceIcon(mContext, serverStatus));
                 } else {
-                    viewToUse = view.getPhotoView();
+                    view.setPresence(null);
                 }
 
-                final int position = cursor.getPosition();
-                mPhotoLoader.loadPhoto(viewToUse, photoId);
-            }
-            else {
-                if (cache.photoView != null)
-                    cache.photoView.setVisibility(View.GONE);
-                if (cache.nonQuickContactPhotoView != null)
-                    cache.nonQuickContactPhotoView.setVisibility(View.GONE);
-            }
+                if (mShowSnippets) {
+                    bindSnippet(view, cursor);
+                }
 
-            if ((mMode & MODE_MASK_NO_PRESENCE) == 0) {
-                // Set the proper icon (star or presence or nothing)
-                int serverStatus;
-                if (!cursor.isNull(SUMMARY_PRESENCE_STATUS_COLUMN_INDEX)) {
-                    serverStatus = cursor.getInt(SUMMARY_PRESENCE_STATUS_COLUMN_INDEX);
-                    Drawable icon = ContactPresenceIconUtil.getPresenceIcon(mContext, serverStatus);
-                    if (icon != null) {
-                        view.setPresence(icon);
+                if (!mDisplayData) {
+                    if (mPhoneticNameColumnIndex != -1) {
+                        // Set the phonetic name
+                        cursor.copyStringToBuffer(mPhoneticNameColumnIndex,
+                                cache.phoneticNameBuffer);
+                        int phoneticNameSize = cache.phoneticNameBuffer.sizeCopied;
+                        if (phoneticNameSize != 0) {
+                            view.setLabel(cache.phoneticNameBuffer.data, phoneticNameSize);
+                        } else {
+                            view.setLabel(null);
+                        }
                     } else {
-                        view.setPresence(null);
+                        view.setLabel(null);
+                    }
+                    return;
+                }
+
+                // Set the data.
+                cursor.copyStringToBuffer(mDataColumnIndex, cache.dataBuffer);
+
+                size = cache.dataBuffer.sizeCopied;
+                view.setData(cache.dataBuffer.data, size);
+
+                // Set the label.
+                if (!cursor.isNull(mTypeColumnIndex)) {
+                    final int type = cursor.getInt(mTypeColumnIndex);
+                    final String label = cursor.getString(mLabelColumnIndex);
+
+                    if (mPostalLabels) {
+                        // TODO cache
+                        view.setLabel(StructuredPostal.getTypeLabel(context.getResources(), type,
+                                label));
+                    } else {
+                        // TODO cache
+                        view.setLabel(Phone.getTypeLabel(context.getResources(), type, label));
                     }
                 } else {
-                    view.setPresence(null);
+                    view.setLabel(null);
                 }
-            } else {
-                view.setPresence(null);
             }
 
-            if (mShowSearchSnippets) {
+            private void bindSnippet(ContactListItemView view, Cursor cursor) {
                 boolean showSnippet = false;
                 String snippetMimeType = cursor.getString(SUMMARY_SNIPPET_MIMETYPE_COLUMN_INDEX);
                 if (Email.CONTENT_ITEM_TYPE.equals(snippetMimeType)) {
@@ -3510,46 +4578,6 @@ public class ContactsListActivity extends ListActivity implements View.OnCreateC
                     view.setSnippet(null);
                 }
             }
-
-            if (!displayAdditionalData) {
-                if (phoneticNameColumnIndex != -1) {
-
-                    // Set the name
-                    cursor.copyStringToBuffer(phoneticNameColumnIndex, cache.phoneticNameBuffer);
-                    int phoneticNameSize = cache.phoneticNameBuffer.sizeCopied;
-                    if (phoneticNameSize != 0) {
-                        view.setLabel(cache.phoneticNameBuffer.data, phoneticNameSize);
-                    } else {
-                        view.setLabel(null);
-                    }
-                } else {
-                    view.setLabel(null);
-                }
-                return;
-            }
-
-            // Set the data.
-            cursor.copyStringToBuffer(dataColumnIndex, cache.dataBuffer);
-
-            size = cache.dataBuffer.sizeCopied;
-            view.setData(cache.dataBuffer.data, size);
-
-            // Set the label.
-            if (!cursor.isNull(typeColumnIndex)) {
-                final int type = cursor.getInt(typeColumnIndex);
-                final String label = cursor.getString(labelColumnIndex);
-
-                if (mMode == MODE_LEGACY_PICK_POSTAL || mMode == MODE_PICK_POSTAL) {
-                    // TODO cache
-                    view.setLabel(StructuredPostal.getTypeLabel(context.getResources(), type,
-                            label));
-                } else {
-                    // TODO cache
-                    view.setLabel(Phone.getTypeLabel(context.getResources(), type, label));
-                }
-            } else {
-                view.setLabel(null);
-            }
         }
 
         /**
@@ -3596,11 +4624,42 @@ public class ContactsListActivity extends ListActivity implements View.OnCreateC
             }
         }
 
+        /**
+         * Shows a new cursor.  A cursor that needs a section index built is installed
+         * once it has been prepared on the background thread, until then
+         * {@link #getCursor()} returns the cursor that is still shown.  Any other
+         * cursor is installed right away, its snapshot is not taken.  The first change
+         * notification then updates the list without comparing, and later ones are
+         * compared with the snapshot of the cursor it loaded.
+         */
         @Override
         public void changeCursor(Cursor cursor) {
+            // Any cursor being prepared is out of date, and so is the snapshot
+            mSnapshot = null;
+            mCursorGeneration++;
+            if (needsSectionIndexBuilt(cursor)) {
+                prepareCursor(cursor, false);
+            } else {
+                installCursor(cursor, true, null);
+            }
+        }
+
+        /**
+         * Shows a new cursor.
+         *
+         * @param updateIndexer whether the sections may have changed
+         * @param builtIndexer the section index built for the cursor, if the provider
+         *            did not supply one
+         */
+        private void installCursor(Cursor cursor, boolean updateIndexer,
+                SectionIndexer builtIndexer) {
             if (cursor != null) {
                 setLoading(false);
             }
+            mRowBinder = null;
+            mCursorFilter = cursor instanceof FilterResultCursor
+                    ? ((FilterResultCursor) cursor).getFilter()
+                    : null;
 
             // Get the split between starred and frequent items, if the mode is strequent
             mFrequentSeparatorPos = ListView.INVALID_POSITION;
@@ -3629,36 +4688,23 @@ public class ContactsListActivity extends ListActivity implements View.OnCreateC
 
             super.changeCursor(cursor);
             // Update the indexer for the fast scroll widget
-            updateIndexer(cursor);
+            if (updateIndexer) {
+                updateIndexer(cursor, builtIndexer);
+            }
+
+            // Now that the list is populated again, it's possible to restore its state
+            if (cursor != null && mListState != null) {
+                mList.onRestoreInstanceState(mListState);
+                mListState = null;
+            }
         }
 
-        private void updateIndexer(Cursor cursor) {
+        private void updateIndexer(Cursor cursor, SectionIndexer builtIndexer) {
             if (cursor == null) {
                 mIndexer = null;
                 return;
             }
 
-            if (mIndexer == null) {
-                mIndexer = getNewIndexer(cursor);
-            } else {
-                /*
-                if (Locale.getDefault().equals(Locale.JAPAN)) {
-                    if (mIndexer instanceof JapaneseContactListIndexer) {
-                        ((JapaneseContactListIndexer)mIndexer).setCursor(cursor);
-                    } else {
-                        mIndexer = getNewIndexer(cursor);
-                    }
-                } else {
-                // This code leads to acore crash when searching a contact and clearing the query quickly.
-                // Things seem to work without it, so I'm reverting to the original method for froyo
-                    if (mIndexer instanceof AlphabetIndexer) {
-                        ((AlphabetIndexer)mIndexer).setCursor(cursor);
-                    } else {
-                        mIndexer = getNewIndexer(cursor);
-                    }
-                }
-            */
-            }
             Bundle bundle = cursor.getExtras();
             if (bundle.containsKey(ContactCounts.EXTRA_ADDRESS_BOOK_INDEX_TITLES)) {
                 String sections[] =
@@ -3666,9 +4712,8 @@ public class ContactsListActivity extends ListActivity implements View.OnCreateC
                 int counts[] = bundle.getIntArray(ContactCounts.EXTRA_ADDRESS_BOOK_INDEX_COUNTS);
                 mIndexer = new ContactsSectionIndexer(sections, counts);
             } else {
-                mIndexer = null;
+                mIndexer = builtIndexer;
             }
-            
         }
 
         /**
@@ -3677,7 +4722,88 @@ public class ContactsListActivity extends ListActivity implements View.OnCreateC
          */
         @Override
         public Cursor runQueryOnBackgroundThread(CharSequence constraint) {
-            return doFilter(constraint.toString());
+            String filter = constraint.toString();
+
+            // The provider queries cannot be interrupted, but at least skip the ones
+            // that are out of date before they start and before their results are read.
+            // The list keeps its cursor when the filter returns null.
+            if (isFilterSuperseded(filter)) {
+                return null;
+            }
+            Cursor cursor = doFilter(filter);
+            if (cursor == null) {
+                return null;
+            }
+            if (isFilterSuperseded(filter)) {
+                cursor.close();
+                return null;
+            }
+            if (isLocalFilteringSupported()) {
+                cursor = new FilterResultCursor(cursor, filter);
+            }
+            return cursor;
+        }
+
+        /**
+         * Whether filter results can be narrowed down in memory.  Only the display names
+         * are matched in memory, so the list must not depend on anything else, such
+         * as the section index.
+         */
+        private boolean isLocalFilteringSupported() {
+            if (mDisplaySectionHeaders) {
+                return false;
+            }
+            switch (mMode) {
+                case MODE_DEFAULT:
+                case MODE_CUSTOM:
+                case MODE_STARRED:
+                case MODE_PICK_CONTACT:
+                case MODE_PICK_OR_CREATE_CONTACT:
+                case MODE_INSERT_OR_EDIT_CONTACT:
+                    return true;
+            }
+            return false;
+        }
+
+        /**
+         * Replaces the results of a filter with the rows matching a longer filter, if
+         * there are few enough of them.  The rows are picked by position from the
+         * current results rather than copied.  The provider may match contacts on more than
+         * their names, so the results have to be requeried anyway, but the user gets
+         * to see most of them without waiting.
+         *
+         * @return true if the list was updated
+         */
+        public boolean refineFilter(String filter) {
+            Cursor cursor = getCursor();
+            if (mCursorFilter == null || cursor == null || TextUtils.isEmpty(filter)
+                    || filter.length() <= mCursorFilter.length()
+                    || !filter.regionMatches(true, 0, mCursorFilter, 0, mCursorFilter.length())
+                    || cursor.getCount() > LOCAL_FILTER_MAX_ROWS) {
+                return false;
+            }
+
+            int[] positions = new int[cursor.getCount()];
+            int count = 0;
+            cursor.moveToPosition(-1);
+            while (cursor.moveToNext()) {
+                if (containsWordPrefix(cursor.getString(SUMMARY_DISPLAY_NAME_PRIMARY_COLUMN_INDEX),
+                        filter)
+                        || containsWordPrefix(
+                                cursor.getString(SUMMARY_DISPLAY_NAME_ALTERNATIVE_COLUMN_INDEX),
+                                filter)
+                        || containsWordPrefix(
+                                cursor.getString(SUMMARY_PHONETIC_NAME_COLUMN_INDEX), filter)) {
+                    positions[count++] = cursor.getPosition();
+                }
+            }
+
+            // The refined results show the rows of the same provider cursor, which keeps
+            // its notification URI and extras, so it must outlive the current results
+            Cursor rows = ((FilterResultCursor) cursor).release();
+            changeCursor(new FilterResultCursor(
+                    PositionMapCursor.create(rows, Arrays.copyOf(positions, count)), filter));
+            return true;
         }
 
         public Object [] getSections() {
@@ -3933,17 +5059,101 @@ public class ContactsListActivity extends ListActivity implements View.OnCreateC
         }
     };
     
-    //Wysie: Method to clear frequently called                 
+    //Wysie: Method to clear frequently called
     private void clearFrequentlyCalled() {
-	    ContentValues values = new ContentValues();
-	    values.put(Contacts.TIMES_CONTACTED, "0");
-	    final String[] PROJECTION = new String[] { Contacts._ID };
-	
-    	Cursor c = getContentResolver().query(Contacts.CONTENT_URI, PROJECTION, Contacts.TIMES_CONTACTED + " > 0", null, null); 	
-        if(c.moveToFirst()) {
-    		do {
-                getContentResolver().update(ContentUris.withAppendedId(Contacts.CONTENT_URI, c.getLong(0)), values, null, null);
-            } while(c.moveToNext());
+        new ClearFrequentTask(this).execute();
+    }
+
+    /**
+     * Background task that resets {@link Contacts#TIMES_CONTACTED} of all contacts,
+     * in batches of {@link #CLEAR_FREQUENT_BATCH_SIZE}, showing the progress to the
+     * user.  The list is not reloaded for every batch, only once at the end.
+     */
+    private static class ClearFrequentTask extends
+            WeakAsyncTask<Void, Integer, Void, ContactsListActivity> {
+        private static final int CLEAR_FREQUENT_BATCH_SIZE = 100;
+
+        private WeakReference<ProgressDialog> mProgress;
+
+        public ClearFrequentTask(ContactsListActivity target) {
+            super(target);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        protected void onPreExecute(ContactsListActivity target) {
+            ProgressDialog progress = new ProgressDialog(target);
+            progress.setMessage(target.getText(R.string.clearing_freq_called));
+            progress.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+            progress.setIndeterminate(true);
+            progress.setCancelable(false);
+            progress.show();
+            mProgress = new WeakReference<ProgressDialog>(progress);
+
+            target.mAdapter.suspendContentChanges();
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        protected Void doInBackground(ContactsListActivity target, Void... params) {
+            final ContentResolver resolver = target.getContentResolver();
+            final Cursor cursor = resolver.query(Contacts.CONTENT_URI,
+                    new String[] { Contacts._ID }, Contacts.TIMES_CONTACTED + " > 0", null, null);
+            if (cursor == null) {
+                return null;
+            }
+
+            try {
+                final int count = cursor.getCount();
+                final ArrayList<ContentProviderOperation> operations =
+                        new ArrayList<ContentProviderOperation>(CLEAR_FREQUENT_BATCH_SIZE);
+                int done = 0;
+                publishProgress(done, count);
+                while (cursor.moveToNext()) {
+                    operations.add(ContentProviderOperation.newUpdate(
+                            ContentUris.withAppendedId(Contacts.CONTENT_URI, cursor.getLong(0)))
+                            .withValue(Contacts.TIMES_CONTACTED, 0)
+                            .build());
+                    if (operations.size() == CLEAR_FREQUENT_BATCH_SIZE || cursor.isLast()) {
+                        resolver.applyBatch(ContactsContract.AUTHORITY, operations);
+                        done += operations.size();
+                        operations.clear();
+                        publishProgress(done, count);
+                    }
+                }
+            } catch (RemoteException e) {
+                Log.e(TAG, "Problem clearing frequently called contacts", e);
+            } catch (OperationApplicationException e) {
+                Log.e(TAG, "Problem clearing frequently called contacts", e);
+            } finally {
+                cursor.close();
+            }
+            return null;
+        }
+
+        @Override
+        protected void onProgressUpdate(Integer... values) {
+            final ProgressDialog progress = mProgress.get();
+            if (progress != null) {
+                progress.setIndeterminate(false);
+                progress.setMax(values[1]);
+                progress.setProgress(values[0]);
+            }
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        protected void onPostExecute(ContactsListActivity target, Void result) {
+            final ProgressDialog progress = mProgress.get();
+            if (progress != null) {
+                try {
+                    progress.dismiss();
+                } catch (Exception e) {
+                    Log.e(TAG, "Error dismissing progress dialog", e);
+                }
+            }
+
+            target.mAdapter.resumeContentChanges();
         }
     }
 }
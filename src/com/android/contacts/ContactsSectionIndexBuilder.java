@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts;
+
+import android.database.Cursor;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * Builds a {@link ContactsSectionIndexer} for a contact list that the provider did
+ * not supply the section titles and counts of.  The sort keys are read in a single
+ * pass and every run of rows with the same title becomes a section, so the cursor
+ * has to be sorted by the keys.  This can be done on any thread, as long as the
+ * cursor is not used by another one in the meantime.
+ * <p>
+ * The titles follow the conventions of the locale: accented letters are grouped
+ * with their base letter, except the ones that the alphabet of the language treats
+ * as letters of their own.  Japanese kana are grouped by the row of the syllabary,
+ * and Korean syllables by their initial consonant.
+ */
+final class ContactsSectionIndexBuilder {
+
+    /**
+     * Title of the section of names that do not start with a letter.
+     */
+    static final String OTHER_TITLE = "#";
+
+    /**
+     * The letters with diacritics that the alphabets of some languages treat as
+     * letters of their own, and so get sections of their own.  Other accented
+     * letters are grouped with their base letter.
+     */
+    private static final HashMap<String, String> SEPARATE_ACCENTED_LETTERS =
+            new HashMap<String, String>();
+    static {
+        SEPARATE_ACCENTED_LETTERS.put("cs", "\u010c\u0158\u0160\u017d");
+        SEPARATE_ACCENTED_LETTERS.put("da", "\u00c5");
+        SEPARATE_ACCENTED_LETTERS.put("es", "\u00d1");
+        SEPARATE_ACCENTED_LETTERS.put("et", "\u0160\u017d\u00d5\u00c4\u00d6\u00dc");
+        SEPARATE_ACCENTED_LETTERS.put("fi", "\u00c5\u00c4\u00d6");
+        SEPARATE_ACCENTED_LETTERS.put("hr", "\u010c\u0106\u0160\u017d");
+        SEPARATE_ACCENTED_LETTERS.put("hu", "\u00d6\u0150\u00dc\u0170");
+        SEPARATE_ACCENTED_LETTERS.put("is", "\u00c1\u00c9\u00cd\u00d3\u00da\u00dd\u00d6");
+        SEPARATE_ACCENTED_LETTERS.put("lt",
+                "\u0104\u010c\u0118\u0116\u012e\u0160\u0172\u016a\u017d");
+        SEPARATE_ACCENTED_LETTERS.put("lv",
+                "\u0100\u010c\u0112\u0122\u012a\u0136\u013b\u0145\u0160\u016a\u017d");
+        SEPARATE_ACCENTED_LETTERS.put("nb", "\u00c5");
+        SEPARATE_ACCENTED_LETTERS.put("nn", "\u00c5");
+        SEPARATE_ACCENTED_LETTERS.put("no", "\u00c5");
+        SEPARATE_ACCENTED_LETTERS.put("pl", "\u0104\u0106\u0118\u0143\u00d3\u015a\u0179\u017b");
+        SEPARATE_ACCENTED_LETTERS.put("ro", "\u0102\u00c2\u00ce\u0218\u021a");
+        SEPARATE_ACCENTED_LETTERS.put("sk", "\u00c4\u010c\u00d4\u0160\u017d");
+        SEPARATE_ACCENTED_LETTERS.put("sl", "\u010c\u0160\u017d");
+        SEPARATE_ACCENTED_LETTERS.put("sv", "\u00c5\u00c4\u00d6");
+        SEPARATE_ACCENTED_LETTERS.put("tr", "\u00c7\u011e\u0130\u00d6\u015e\u00dc");
+    }
+
+    /**
+     * The first hiragana of each row of the syllabary, and the titles of the rows.
+     */
+    private static final String KANA_ROWS =
+            "\u3041\u304b\u3055\u305f\u306a\u306f\u307e\u3083\u3089\u308e";
+    private static final String KANA_ROW_TITLES =
+            "\u3042\u304b\u3055\u305f\u306a\u306f\u307e\u3084\u3089\u308f";
+
+    private static final char HIRAGANA_FIRST = '\u3041';
+    private static final char HIRAGANA_LAST = '\u3096';
+    private static final char KATAKANA_FIRST = '\u30a1';
+    private static final char KATAKANA_LAST = '\u30f6';
+    private static final int KATAKANA_TO_HIRAGANA = KATAKANA_FIRST - HIRAGANA_FIRST;
+
+    /**
+     * The initial consonants of Hangul syllables, in the order they are encoded in,
+     * with the doubled consonants grouped with the plain ones.
+     */
+    private static final String HANGUL_INITIALS = "\u3131\u3131\u3134\u3137\u3137\u3139"
+            + "\u3141\u3142\u3142\u3145\u3145\u3147\u3148\u3148\u314a\u314b\u314c\u314d\u314e";
+    private static final char HANGUL_FIRST = '\uac00';
+    private static final char HANGUL_LAST = '\ud7a3';
+    private static final int HANGUL_SYLLABLES_PER_INITIAL = 21 * 28;
+
+    private final Locale mLocale;
+    private final String mSeparateAccentedLetters;
+
+    public ContactsSectionIndexBuilder(Locale locale) {
+        mLocale = locale;
+        mSeparateAccentedLetters = SEPARATE_ACCENTED_LETTERS.get(locale.getLanguage());
+    }
+
+    /**
+     * Returns the title of the section of a sort key.
+     */
+    public String getSectionTitle(String sortKey) {
+        if (sortKey == null) {
+            return OTHER_TITLE;
+        }
+        sortKey = sortKey.trim();
+        if (sortKey.length() == 0) {
+            return OTHER_TITLE;
+        }
+
+        final char c = sortKey.charAt(0);
+        if (c >= HANGUL_FIRST && c <= HANGUL_LAST) {
+            return String.valueOf(
+                    HANGUL_INITIALS.charAt((c - HANGUL_FIRST) / HANGUL_SYLLABLES_PER_INITIAL));
+        }
+        if (c >= KATAKANA_FIRST && c <= KATAKANA_LAST) {
+            return getKanaRow((char) (c - KATAKANA_TO_HIRAGANA));
+        }
+        if (c >= HIRAGANA_FIRST && c <= HIRAGANA_LAST) {
+            return getKanaRow(c);
+        }
+        if (!Character.isLetter(c)) {
+            return OTHER_TITLE;
+        }
+
+        final String letter = sortKey.substring(0, Character.charCount(sortKey.codePointAt(0)));
+        if (mSeparateAccentedLetters != null) {
+            // The letter may be followed by a combining accent
+            String accentedLetter = Normalizer.normalize(
+                    letter + getCombiningMarks(sortKey, letter.length()), Normalizer.Form.NFC)
+                    .toUpperCase(mLocale);
+            if (accentedLetter.length() == 1
+                    && mSeparateAccentedLetters.indexOf(accentedLetter.charAt(0)) != -1) {
+                return accentedLetter;
+            }
+        }
+        return Normalizer.normalize(letter, Normalizer.Form.NFD).substring(0, 1)
+                .toUpperCase(mLocale);
+    }
+
+    private static String getCombiningMarks(String s, int start) {
+        int end = start;
+        while (end < s.length()
+                && Character.getType(s.charAt(end)) == Character.NON_SPACING_MARK) {
+            end++;
+        }
+        return s.substring(start, end);
+    }
+
+    private static String getKanaRow(char hiragana) {
+        int row = KANA_ROWS.length() - 1;
+        while (KANA_ROWS.charAt(row) > hiragana) {
+            row--;
+        }
+        return String.valueOf(KANA_ROW_TITLES.charAt(row));
+    }
+
+    /**
+     * Builds the indexer of a cursor sorted by the given column.
+     */
+    public ContactsSectionIndexer build(Cursor cursor, int sortKeyColumnIndex) {
+        final ArrayList<String> titles = new ArrayList<String>();
+        int[] counts = new int[16];
+        String title = null;
+        int section = -1;
+
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            String rowTitle = getSectionTitle(cursor.getString(sortKeyColumnIndex));
+            if (!rowTitle.equals(title)) {
+                title = rowTitle;
+                titles.add(title);
+                section++;
+                if (section == counts.length) {
+                    counts = Arrays.copyOf(counts, counts.length * 2);
+                }
+            }
+            counts[section]++;
+        }
+
+        return new ContactsSectionIndexer(titles.toArray(new String[titles.size()]),
+                Arrays.copyOf(counts, titles.size()));
+    }
+}
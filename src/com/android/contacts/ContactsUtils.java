@@ -52,6 +52,12 @@ import java.util.ArrayList;
 public class ContactsUtils {
     private static final String TAG = "ContactsUtils";
     private static final String WAIT_SYMBOL_AS_STRING = String.valueOf(PhoneNumberUtils.WAIT);
+
+    /**
+     * Number of trailing digits that {@link PhoneNumberUtils#compare(Context, String, String)}
+     * requires to match for numbers it considers equal, unless both are shorter.
+     */
+    private static final int PHONE_NUMBER_MIN_MATCH = 7;
     /**
      * Build the display title for the {@link Data#CONTENT_URI} entry in the
      * provided cursor, assuming the given mimeType.
@@ -298,6 +304,12 @@ public class ContactsUtils {
     }
 
     public static String querySuperPrimaryPhone(ContentResolver cr, long contactId) {
+        PrimaryPhoneCache cache = PrimaryPhoneCache.peekInstance();
+        PrimaryPhoneCache.Entry entry = cache != null ? cache.get(contactId) : null;
+        if (entry != null) {
+            return entry.superPrimaryNumber;
+        }
+
         Cursor c = null;
         String phone = null;
         try {
@@ -478,6 +490,59 @@ public class ContactsUtils {
         }
     }
 
+    /**
+     * Returns a key for data with a mimetype, which is equal for any two data that
+     * {@link #shouldCollapse(Context, CharSequence, CharSequence, CharSequence, CharSequence)}
+     * considers equal.  Data with equal keys do not necessarily collapse, so they still have
+     * to be compared.
+     */
+    public static final String getCollapseKey(CharSequence mimetype, CharSequence data) {
+        final StringBuilder key = new StringBuilder();
+        key.append(mimetype).append('\n');
+        if (data == null) {
+            return key.toString();
+        }
+        if (TextUtils.equals(Phone.CONTENT_ITEM_TYPE, mimetype)) {
+            // Every segment is compared separately, see shouldCollapse()
+            final String[] dataParts = data.toString().split(WAIT_SYMBOL_AS_STRING);
+            for (int i = 0; i < dataParts.length; i++) {
+                key.append(i == 0 ? '#' : PhoneNumberUtils.WAIT);
+                appendPhoneNumberKey(key, dataParts[i]);
+            }
+        } else {
+            key.append('#').append(data);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Returns a key for a phone number, which is equal for any two numbers that
+     * {@link PhoneNumberUtils#compare(Context, String, String)} considers equal.
+     */
+    public static final String getPhoneNumberCollapseKey(String number) {
+        final StringBuilder key = new StringBuilder(PHONE_NUMBER_MIN_MATCH);
+        if (number != null) {
+            // Only the part before a wait is compared
+            final int wait = number.indexOf(PhoneNumberUtils.WAIT);
+            appendPhoneNumberKey(key, wait == -1 ? number : number.substring(0, wait));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Appends the last digits of a number, the ones that have to match for numbers to be equal.
+     */
+    private static void appendPhoneNumberKey(StringBuilder key, String number) {
+        final int start = key.length();
+        for (int i = number.length() - 1; i >= 0 && key.length() - start < PHONE_NUMBER_MIN_MATCH;
+                i--) {
+            final char c = number.charAt(i);
+            if (c >= '0' && c <= '9') {
+                key.insert(start, c);
+            }
+        }
+    }
+
     /**
      * Returns true if two {@link Intent}s are both null, or have the same action.
      */
@@ -496,6 +561,23 @@ public class ContactsUtils {
      * @return true if the call was initiated, false otherwise
      */
     public static boolean callOrSmsContact(long contactId, Context context, boolean sendSms, int stickyTab) {
+        PrimaryPhoneCache.Entry entry = PrimaryPhoneCache.getInstance(context).get(contactId);
+        if (entry != null) {
+            if (entry.numberCount == 0) {
+                return false;
+            }
+            String number = entry.getNumberToUse();
+            if (number != null) {
+                if (sendSms) {
+                    ContactsUtils.initiateSms(context, number);
+                } else {
+                    StickyTabs.saveTab(context, stickyTab);
+                    ContactsUtils.initiateCall(context, number);
+                }
+                return true;
+            }
+        }
+
         String phone = null;
         Cursor phonesCursor = null;
         phonesCursor = queryPhoneNumbers(context.getContentResolver(), contactId);
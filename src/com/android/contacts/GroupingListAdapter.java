@@ -21,9 +21,14 @@ import com.android.internal.util.ArrayUtils;
 import android.content.Context;
 import android.database.ContentObserver;
 import android.database.Cursor;
+import android.database.CursorWrapper;
 import android.database.DataSetObserver;
+import android.database.MergeCursor;
 import android.os.Handler;
-import android.util.SparseIntArray;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.Handler.Callback;
+import android.os.Process;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.BaseAdapter;
@@ -32,6 +37,13 @@ import android.widget.BaseAdapter;
  * Maintains a list that groups adjacent items sharing the same value of
  * a "group-by" field.  The list has three types of elements: stand-alone, group header and group
  * child. Groups are collapsible and collapsed by default.
+ * <p>
+ * With {@link #setIncrementalGrouping} turned on, cursors passed to
+ * {@link #changeCursorInBackground} are grouped on a background thread, and when
+ * the new cursor only adds rows at the top of the previous one, only the head of
+ * the list is regrouped.  Pages of rows passed to {@link #appendCursorInBackground}
+ * are added below the current ones, and only the rows from
+ * {@link #getAppendPosition} on are grouped again along with them.
  */
 public abstract class GroupingListAdapter extends BaseAdapter {
 
@@ -41,6 +53,34 @@ public abstract class GroupingListAdapter extends BaseAdapter {
     private static final long GROUP_SIZE_MASK     = 0x7FFFFFFF00000000L;
     private static final long EXPANDED_GROUP_MASK = 0x8000000000000000L;
 
+    private static final String GROUPING_THREAD_NAME = "GroupingListAdapter";
+
+    /**
+     * Number of row ids remembered from the bottom of the last grouped cursor, which
+     * limits how many rows may drop off the bottom for its groups to be reused.
+     */
+    private static final int BASE_TAIL_ROW_ID_COUNT = 64;
+
+    /**
+     * Message sent to the grouping thread to group a new cursor.
+     */
+    private static final int MESSAGE_GROUP_CURSOR = 1;
+
+    /**
+     * Message sent to the grouping thread to forget the previously grouped cursor.
+     */
+    private static final int MESSAGE_RESET_BASELINE = 2;
+
+    /**
+     * Message sent to the grouping thread to shut down once pending work is done.
+     */
+    private static final int MESSAGE_QUIT = 3;
+
+    /**
+     * Message sent to the main thread when a cursor has been grouped.
+     */
+    private static final int MESSAGE_GROUPS_COMPUTED = 4;
+
     public static final int ITEM_TYPE_STANDALONE = 0;
     public static final int ITEM_TYPE_GROUP_HEADER = 1;
     public static final int ITEM_TYPE_IN_GROUP = 2;
@@ -79,16 +119,59 @@ public abstract class GroupingListAdapter extends BaseAdapter {
      */
     private long[] mGroupMetadata;
 
-    private SparseIntArray mPositionCache = new SparseIntArray();
-    private int mLastCachedListPosition;
-    private int mLastCachedCursorPosition;
-    private int mLastCachedGroup;
+    /**
+     * Fenwick tree (binary indexed tree) over the number of list items each group
+     * spans: the group itself (one item if collapsed, the header and all children if
+     * expanded) plus the stand-alone items following it up to the next group.
+     * Element {@code i} of the tree, 1-based, covers groups {@code (i - (i & -i), i]}.
+     * Allows mapping a list position to its group, and updating the tree after a
+     * group is expanded or collapsed, in logarithmic time.
+     */
+    private int[] mGroupSpanTree;
+
+    /**
+     * Highest power of two less than {@link #mGroupCount}, where the descent
+     * through {@link #mGroupSpanTree} starts.
+     */
+    private int mGroupSpanTreeMask;
+
+    /**
+     * Position of the row of the current cursor that the next appended page has to
+     * start with, see {@link #getAppendPosition}.
+     */
+    private int mAppendPosition;
 
     /**
      * A reusable temporary instance of PositionMetadata
      */
     private PositionMetadata mPositionMetadata = new PositionMetadata();
 
+    /**
+     * Collects the groups reported by {@link #addGroup} while {@link #addGroups} runs.
+     * Guarded by {@link #mGroupingLock}, which also keeps subclasses from being asked
+     * to group two cursors at the same time.
+     */
+    private GroupMetadataBuilder mGroupBuilder;
+    private final Object mGroupingLock = new Object();
+
+    private GroupingThread mGroupingThread;
+
+    /**
+     * Incremented whenever the cursor changes, so that results of background
+     * grouping requests that have since been superseded can be dropped.
+     */
+    private int mCursorGeneration;
+
+    private final Handler mMainThreadHandler = new Handler(new Callback() {
+        public boolean handleMessage(Message msg) {
+            if (msg.what == MESSAGE_GROUPS_COMPUTED) {
+                onGroupsComputed((GroupingResult) msg.obj);
+                return true;
+            }
+            return false;
+        }
+    });
+
     protected ContentObserver mChangeObserver = new ContentObserver(new Handler()) {
 
         @Override
@@ -141,11 +224,58 @@ public abstract class GroupingListAdapter extends BaseAdapter {
      */
     private void resetCache() {
         mCount = -1;
-        mLastCachedListPosition = -1;
-        mLastCachedCursorPosition = -1;
-        mLastCachedGroup = -1;
         mPositionMetadata.listPosition = -1;
-        mPositionCache.clear();
+    }
+
+    /**
+     * Returns the number of list items taken by the group with the supplied descriptor:
+     * the header and its children if it is expanded, just the header otherwise.
+     */
+    private static int getGroupItemCount(long descriptor) {
+        if ((descriptor & EXPANDED_GROUP_MASK) != 0) {
+            return (int)((descriptor & GROUP_SIZE_MASK) >> 32) + 1;
+        }
+        return 1;
+    }
+
+    /**
+     * Builds {@link #mGroupSpanTree} from {@link #mGroupMetadata} in linear time.
+     */
+    private void buildGroupSpanTree() {
+        int groupCount = mGroupCount;
+        if (mGroupSpanTree == null || mGroupSpanTree.length < groupCount + 1) {
+            mGroupSpanTree = new int[ArrayUtils.idealIntArraySize(groupCount + 1)];
+        }
+        int[] tree = mGroupSpanTree;
+        int cursorCount = mCursor != null ? mCursor.getCount() : 0;
+        for (int i = 0; i < groupCount; i++) {
+            long descriptor = mGroupMetadata[i];
+            int offset = (int)(descriptor & GROUP_OFFSET_MASK);
+            int size = (int)((descriptor & GROUP_SIZE_MASK) >> 32);
+            int next = i + 1 < groupCount
+                    ? (int)(mGroupMetadata[i + 1] & GROUP_OFFSET_MASK)
+                    : cursorCount;
+            tree[i + 1] = getGroupItemCount(descriptor) + (next - offset - size);
+        }
+        for (int i = 1; i <= groupCount; i++) {
+            int parent = i + (i & -i);
+            if (parent <= groupCount) {
+                tree[parent] += tree[i];
+            }
+        }
+
+        // The descent never needs to skip all groups, the last one is always a candidate
+        mGroupSpanTreeMask = groupCount > 1 ? Integer.highestOneBit(groupCount - 1) : 0;
+    }
+
+    /**
+     * Adds {@code delta} to the span of the group at the supplied index.
+     */
+    private void updateGroupSpan(int group, int delta) {
+        int[] tree = mGroupSpanTree;
+        for (int i = group + 1; i <= mGroupCount; i += i & -i) {
+            tree[i] += delta;
+        }
     }
 
     protected void onContentChanged() {
@@ -156,25 +286,235 @@ public abstract class GroupingListAdapter extends BaseAdapter {
             return;
         }
 
+        // Anything still being grouped in the background is out of date now
+        mCursorGeneration++;
+
+        GroupMetadataBuilder builder = new GroupMetadataBuilder();
+        int appendPosition = 0;
+        if (cursor != null) {
+            synchronized (mGroupingLock) {
+                mGroupBuilder = builder;
+                try {
+                    addGroups(cursor);
+                } finally {
+                    mGroupBuilder = null;
+                }
+                appendPosition = findAppendPosition(cursor);
+            }
+        }
+        installCursor(cursor, builder.metadata, builder.count, appendPosition);
+    }
+
+    /**
+     * Adds a page of rows below the current ones.  The page has to start with the row
+     * of the current cursor at {@link #getAppendPosition}, followed by the rest of the
+     * current rows and then the new ones.  The current rows above that position, and
+     * their groups, are kept; the page is grouped on its own.
+     */
+    public void appendCursor(Cursor cursor) {
+        if (mCursor == null) {
+            changeCursor(cursor);
+            return;
+        }
+
+        GroupMetadataBuilder builder = new GroupMetadataBuilder();
+        int appendPosition;
+        synchronized (mGroupingLock) {
+            mGroupBuilder = builder;
+            try {
+                addGroups(cursor);
+            } finally {
+                mGroupBuilder = null;
+            }
+            appendPosition = findAppendPosition(cursor);
+        }
+        int start = mAppendPosition;
+        shiftGroups(builder.metadata, builder.count, start);
+        installPage(cursor, start, builder.metadata, builder.count, start + appendPosition);
+    }
+
+    /**
+     * Like {@link #appendCursor}, but groups the page on a background thread if
+     * incremental grouping is enabled.  The page is dropped if the cursor is replaced
+     * before grouping completes.
+     */
+    public void appendCursorInBackground(Cursor cursor) {
+        if (mGroupingThread == null || mCursor == null || cursor == null) {
+            appendCursor(cursor);
+            return;
+        }
+
+        GroupingResult request = new GroupingResult();
+        request.cursor = cursor;
+        request.generation = mCursorGeneration;
+        request.baseCursor = mCursor;
+        request.startPosition = mAppendPosition;
+        request.baseGroupCount = getGroupCountBefore(mAppendPosition);
+        request.baseMetadata = new long[request.baseGroupCount];
+        for (int i = 0; i < request.baseGroupCount; i++) {
+            request.baseMetadata[i] = mGroupMetadata[i] & ~EXPANDED_GROUP_MASK;
+        }
+        if (mCursor.moveToFirst()) {
+            request.baseFirstRowId = mCursor.getLong(mRowIdColumnIndex);
+        }
+        mGroupingThread.requestGrouping(request);
+    }
+
+    /**
+     * Returns the position of the first row of the current cursor whose grouping may
+     * change when more rows are added below it.  A page passed to
+     * {@link #appendCursor} has to start with that row.
+     */
+    public int getAppendPosition() {
+        return mAppendPosition;
+    }
+
+    /**
+     * Like {@link #changeCursor}, but groups the cursor on a background thread if
+     * incremental grouping is enabled.  The previous cursor stays in place until
+     * grouping completes.
+     */
+    public void changeCursorInBackground(Cursor cursor) {
+        if (mGroupingThread == null || cursor == null) {
+            changeCursor(cursor);
+            return;
+        }
+
+        GroupingResult request = new GroupingResult();
+        request.cursor = cursor;
+        request.generation = ++mCursorGeneration;
+        mGroupingThread.requestGrouping(request);
+    }
+
+    /**
+     * Turns background, incremental grouping on or off.
+     */
+    public void setIncrementalGrouping(boolean enabled) {
+        if (enabled && mGroupingThread == null) {
+            mGroupingThread = new GroupingThread();
+            mGroupingThread.start();
+        } else if (!enabled && mGroupingThread != null) {
+            mGroupingThread.requestQuit();
+            mGroupingThread = null;
+        }
+    }
+
+    /**
+     * Makes the next background grouping request regroup the whole cursor.  Should be
+     * called whenever something other than the cursor contents affects grouping.
+     */
+    public void resetIncrementalGrouping() {
+        if (mGroupingThread != null) {
+            mGroupingThread.requestReset();
+        }
+    }
+
+    private void onGroupsComputed(GroupingResult result) {
+        if (result.generation != mCursorGeneration
+                || (result.baseCursor != null && result.baseCursor != mCursor)) {
+            // Superseded by a later cursor
+            result.cursor.close();
+            return;
+        }
+        if (result.baseCursor != null) {
+            installPage(result.cursor, result.startPosition, result.metadata,
+                    result.groupCount, result.appendPosition);
+        } else {
+            installCursor(result.cursor, result.metadata, result.groupCount,
+                    result.appendPosition);
+        }
+    }
+
+    /**
+     * Returns the number of groups that start above the supplied cursor position.
+     */
+    private int getGroupCountBefore(int cursorPosition) {
+        int count = mGroupCount;
+        while (count > 0
+                && (int)(mGroupMetadata[count - 1] & GROUP_OFFSET_MASK) >= cursorPosition) {
+            count--;
+        }
+        return count;
+    }
+
+    private static void shiftGroups(long[] groupMetadata, int groupCount, int delta) {
+        for (int i = 0; i < groupCount; i++) {
+            groupMetadata[i] += delta;
+        }
+    }
+
+    /**
+     * Puts a grouped page in place of the current rows from {@code start} on.  The
+     * groups of the page are already shifted to where the page goes.
+     */
+    private void installPage(Cursor page, int start, long[] pageMetadata, int pageGroupCount,
+            int appendPosition) {
+        if (start == 0) {
+            installCursor(page, pageMetadata, pageGroupCount, appendPosition);
+            return;
+        }
+
+        int keptGroupCount = getGroupCountBefore(start);
+        long[] groupMetadata = new long[ArrayUtils.idealLongArraySize(
+                keptGroupCount + pageGroupCount)];
+        System.arraycopy(mGroupMetadata, 0, groupMetadata, 0, keptGroupCount);
+        System.arraycopy(pageMetadata, 0, groupMetadata, keptGroupCount, pageGroupCount);
+
+        // Groups that were grouped again keep their expanded state
+        for (int i = keptGroupCount; i < mGroupCount; i++) {
+            long descriptor = mGroupMetadata[i];
+            if ((descriptor & EXPANDED_GROUP_MASK) == 0) {
+                continue;
+            }
+            long offset = descriptor & GROUP_OFFSET_MASK;
+            for (int j = keptGroupCount; j < keptGroupCount + pageGroupCount; j++) {
+                if ((groupMetadata[j] & GROUP_OFFSET_MASK) == offset) {
+                    groupMetadata[j] |= EXPANDED_GROUP_MASK;
+                }
+            }
+        }
+
+        // The current cursor lives on as the top part of the new one
+        Cursor cursor = new MergeCursor(new Cursor[] {
+                new TruncatedCursor(mCursor, start), page });
+        mCursor.unregisterContentObserver(mChangeObserver);
+        mCursor.unregisterDataSetObserver(mDataSetObserver);
+        mCursor = null;
+        installCursor(cursor, groupMetadata, keptGroupCount + pageGroupCount, appendPosition);
+    }
+
+    private void installCursor(Cursor cursor, long[] groupMetadata, int groupCount,
+            int appendPosition) {
         if (mCursor != null) {
             mCursor.unregisterContentObserver(mChangeObserver);
             mCursor.unregisterDataSetObserver(mDataSetObserver);
             mCursor.close();
         }
         mCursor = cursor;
+        mGroupMetadata = groupMetadata;
+        mGroupCount = groupCount;
+        mAppendPosition = appendPosition;
+        buildGroupSpanTree();
         resetCache();
-        findGroups();
 
         if (cursor != null) {
             cursor.registerContentObserver(mChangeObserver);
             cursor.registerDataSetObserver(mDataSetObserver);
             mRowIdColumnIndex = cursor.getColumnIndexOrThrow("_id");
+            onCursorChanged(cursor);
             notifyDataSetChanged();
         } else {
+            onCursorChanged(null);
             // notify the observers about the lack of a data set
             notifyDataSetInvalidated();
         }
+    }
 
+    /**
+     * Called on the main thread after a new cursor and its groups have been installed,
+     * right before the observers are notified.
+     */
+    protected void onCursorChanged(Cursor cursor) {
     }
 
     public Cursor getCursor() {
@@ -182,18 +522,28 @@ public abstract class GroupingListAdapter extends BaseAdapter {
     }
 
     /**
-     * Scans over the entire cursor looking for duplicate phone numbers that need
-     * to be collapsed.
+     * Incremental version of {@link #addGroups(Cursor)}.  Looks for groups starting at
+     * the top of the cursor and stops at the first row at or after {@code minRowCount}
+     * where grouping no longer depends on any of the rows above it, e.g. because it
+     * does not belong to the same group as the previous row.
+     *
+     * @return the number of rows examined, i.e. the position of the row the scan
+     *         stopped at, or the row count if it reached the end of the cursor; -1
+     *         if incremental grouping is not supported.
      */
-    private void findGroups() {
-        mGroupCount = 0;
-        mGroupMetadata = new long[GROUP_METADATA_ARRAY_INITIAL_SIZE];
-
-        if (mCursor == null) {
-            return;
-        }
+    protected int addGroups(Cursor cursor, int minRowCount) {
+        return -1;
+    }
 
-        addGroups(mCursor);
+    /**
+     * Returns the position of the last row of the cursor from which on grouping does
+     * not depend on any of the rows above it, so that grouping the rows from there on
+     * along with rows added below them gives the same groups as grouping the whole
+     * cursor.  Called on the thread that groups the cursor.  The default of 0 has the
+     * whole cursor grouped again.
+     */
+    protected int findAppendPosition(Cursor cursor) {
+        return 0;
     }
 
     /**
@@ -201,19 +551,11 @@ public abstract class GroupingListAdapter extends BaseAdapter {
      * {@link #addGroups} method.
      */
     protected void addGroup(int cursorPosition, int size, boolean expanded) {
-        if (mGroupCount >= mGroupMetadata.length) {
-            int newSize = ArrayUtils.idealLongArraySize(
-                    mGroupMetadata.length + GROUP_METADATA_ARRAY_INCREMENT);
-            long[] array = new long[newSize];
-            System.arraycopy(mGroupMetadata, 0, array, 0, mGroupCount);
-            mGroupMetadata = array;
-        }
-
         long metadata = ((long)size << 32) | cursorPosition;
         if (expanded) {
             metadata |= EXPANDED_GROUP_MASK;
         }
-        mGroupMetadata[mGroupCount++] = metadata;
+        mGroupBuilder.add(metadata);
     }
 
     public int getCount() {
@@ -225,26 +567,16 @@ public abstract class GroupingListAdapter extends BaseAdapter {
             return mCount;
         }
 
-        int cursorPosition = 0;
-        int count = 0;
-        for (int i = 0; i < mGroupCount; i++) {
-            long metadata = mGroupMetadata[i];
-            int offset = (int)(metadata & GROUP_OFFSET_MASK);
-            boolean expanded = (metadata & EXPANDED_GROUP_MASK) != 0;
-            int size = (int)((metadata & GROUP_SIZE_MASK) >> 32);
-
-            count += (offset - cursorPosition);
-
-            if (expanded) {
-                count += size + 1;
-            } else {
-                count++;
+        int count = mCursor.getCount();
+        if (mGroupCount != 0) {
+            // The stand-alone items before the first group plus the spans of all groups
+            count = (int)(mGroupMetadata[0] & GROUP_OFFSET_MASK);
+            for (int i = mGroupCount; i > 0; i -= i & -i) {
+                count += mGroupSpanTree[i];
             }
-
-            cursorPosition = offset + size;
         }
 
-        mCount = count + mCursor.getCount() - cursorPosition;
+        mCount = count;
         return mCount;
     }
 
@@ -260,113 +592,60 @@ public abstract class GroupingListAdapter extends BaseAdapter {
             return;
         }
 
-        int listPosition = 0;
-        int cursorPosition = 0;
-        int firstGroupToCheck = 0;
-
-        // Check cache for the supplied position.  What we are looking for is
-        // the group descriptor immediately preceding the supplied position.
-        // Once we have that, we will be able to tell whether the position
-        // is the header of the group, a member of the group or a standalone item.
-        if (mLastCachedListPosition != -1) {
-            if (position <= mLastCachedListPosition) {
-
-                // Have SparceIntArray do a binary search for us.
-                int index = mPositionCache.indexOfKey(position);
-
-                // If we get back a positive number, the position corresponds to
-                // a group header.
-                if (index < 0) {
-
-                    // We had a cache miss, but we did obtain valuable information anyway.
-                    // The negative number will allow us to compute the location of
-                    // the group header immediately preceding the supplied position.
-                    index = ~index - 1;
-
-                    if (index >= mPositionCache.size()) {
-                        index--;
-                    }
-                }
-
-                // A non-negative index gives us the position of the group header
-                // corresponding or preceding the position, so we can
-                // search for the group information at the supplied position
-                // starting with the cached group we just found
-                if (index >= 0) {
-                    listPosition = mPositionCache.keyAt(index);
-                    firstGroupToCheck = mPositionCache.valueAt(index);
-                    long descriptor = mGroupMetadata[firstGroupToCheck];
-                    cursorPosition = (int)(descriptor & GROUP_OFFSET_MASK);
-                }
-            } else {
-
-                // If we haven't examined groups beyond the supplied position,
-                // we will start where we left off previously
-                firstGroupToCheck = mLastCachedGroup;
-                listPosition = mLastCachedListPosition;
-                cursorPosition = mLastCachedCursorPosition;
-            }
+        // A) The requested position precedes the first group
+        int firstGroupOffset = mGroupCount != 0
+                ? (int)(mGroupMetadata[0] & GROUP_OFFSET_MASK)
+                : Integer.MAX_VALUE;
+        if (position < firstGroupOffset) {
+            metadata.itemType = ITEM_TYPE_STANDALONE;
+            metadata.cursorPosition = position;
+            return;
         }
 
-        for (int i = firstGroupToCheck; i < mGroupCount; i++) {
-            long group = mGroupMetadata[i];
-            int offset = (int)(group & GROUP_OFFSET_MASK);
-
-            // Move pointers to the beginning of the group
-            listPosition += (offset - cursorPosition);
-            cursorPosition = offset;
-
-            if (i > mLastCachedGroup) {
-                mPositionCache.append(listPosition, i);
-                mLastCachedListPosition = listPosition;
-                mLastCachedCursorPosition = cursorPosition;
-                mLastCachedGroup = i;
+        // Descend the tree to find the number of leading groups whose spans add up to
+        // no more than the distance from the first group.  The position belongs to the
+        // span of the group that follows them.
+        int target = position - firstGroupOffset;
+        int groupsBefore = 0;
+        int listPosition = firstGroupOffset;
+        int[] tree = mGroupSpanTree;
+        for (int bit = mGroupSpanTreeMask; bit != 0; bit >>= 1) {
+            int next = groupsBefore + bit;
+            if (next < mGroupCount && tree[next] <= target) {
+                groupsBefore = next;
+                target -= tree[next];
+                listPosition += tree[next];
             }
+        }
 
-            // Now we have several possibilities:
-            // A) The requested position precedes the group
-            if (position < listPosition) {
-                metadata.itemType = ITEM_TYPE_STANDALONE;
-                metadata.cursorPosition = cursorPosition - (listPosition - position);
-                return;
-            }
-
-            boolean expanded = (group & EXPANDED_GROUP_MASK) != 0;
-            int size = (int) ((group & GROUP_SIZE_MASK) >> 32);
-
-            // B) The requested position is a group header
-            if (position == listPosition) {
-                metadata.itemType = ITEM_TYPE_GROUP_HEADER;
-                metadata.groupPosition = i;
-                metadata.isExpanded = expanded;
-                metadata.childCount = size;
-                metadata.cursorPosition = offset;
-                return;
-            }
-
-            if (expanded) {
-                // C) The requested position is an element in the expanded group
-                if (position < listPosition + size + 1) {
-                    metadata.itemType = ITEM_TYPE_IN_GROUP;
-                    metadata.cursorPosition = cursorPosition + (position - listPosition) - 1;
-                    return;
-                }
-
-                // D) The element is past the expanded group
-                listPosition += size + 1;
-            } else {
-
-                // E) The element is past the collapsed group
-                listPosition++;
-            }
+        // The header of that group is at listPosition
+        int i = groupsBefore;
+        long group = mGroupMetadata[i];
+        int offset = (int)(group & GROUP_OFFSET_MASK);
+        boolean expanded = (group & EXPANDED_GROUP_MASK) != 0;
+        int size = (int)((group & GROUP_SIZE_MASK) >> 32);
+
+        // B) The requested position is a group header
+        if (position == listPosition) {
+            metadata.itemType = ITEM_TYPE_GROUP_HEADER;
+            metadata.groupPosition = i;
+            metadata.isExpanded = expanded;
+            metadata.childCount = size;
+            metadata.cursorPosition = offset;
+            return;
+        }
 
-            // Move cursor past the group
-            cursorPosition += size;
+        // C) The requested position is an element in the expanded group
+        if (expanded && position < listPosition + size + 1) {
+            metadata.itemType = ITEM_TYPE_IN_GROUP;
+            metadata.cursorPosition = offset + (position - listPosition) - 1;
+            return;
         }
 
-        // The required item is past the last group
+        // D) The requested position is a stand-alone item following the group
         metadata.itemType = ITEM_TYPE_STANDALONE;
-        metadata.cursorPosition = cursorPosition + (position - listPosition);
+        metadata.cursorPosition = offset + size
+                + (position - listPosition - getGroupItemCount(group));
     }
 
     /**
@@ -397,10 +676,14 @@ public abstract class GroupingListAdapter extends BaseAdapter {
         }
 
 
+        int group = mPositionMetadata.groupPosition;
+        int size = mPositionMetadata.childCount;
         if (mPositionMetadata.isExpanded) {
-            mGroupMetadata[mPositionMetadata.groupPosition] &= ~EXPANDED_GROUP_MASK;
+            mGroupMetadata[group] &= ~EXPANDED_GROUP_MASK;
+            updateGroupSpan(group, -size);
         } else {
-            mGroupMetadata[mPositionMetadata.groupPosition] |= EXPANDED_GROUP_MASK;
+            mGroupMetadata[group] |= EXPANDED_GROUP_MASK;
+            updateGroupSpan(group, size);
         }
         resetCache();
         notifyDataSetChanged();
@@ -472,4 +755,290 @@ public abstract class GroupingListAdapter extends BaseAdapter {
         }
         return view;
     }
+
+    /**
+     * Growable array of group descriptors.
+     */
+    private static class GroupMetadataBuilder {
+        long[] metadata = new long[GROUP_METADATA_ARRAY_INITIAL_SIZE];
+        int count;
+
+        void add(long descriptor) {
+            if (count >= metadata.length) {
+                int newSize = ArrayUtils.idealLongArraySize(
+                        metadata.length + GROUP_METADATA_ARRAY_INCREMENT);
+                long[] array = new long[newSize];
+                System.arraycopy(metadata, 0, array, 0, count);
+                metadata = array;
+            }
+            metadata[count++] = descriptor;
+        }
+    }
+
+    /**
+     * A cursor handed to the grouping thread, and the groups found in it.  For a page
+     * to be appended to {@link #baseCursor}, the groups are those of the page, shifted
+     * to where the page starts, and the base fields describe the rows kept above it.
+     */
+    private static class GroupingResult {
+        Cursor cursor;
+        int generation;
+        long[] metadata;
+        int groupCount;
+        int appendPosition;
+
+        Cursor baseCursor;
+        int startPosition;
+        long[] baseMetadata;
+        int baseGroupCount;
+        long baseFirstRowId;
+    }
+
+    /**
+     * Shows only the first rows of a cursor, for use as part of a {@link MergeCursor}.
+     */
+    private static class TruncatedCursor extends CursorWrapper {
+        private final int mCount;
+
+        public TruncatedCursor(Cursor cursor, int count) {
+            super(cursor);
+            mCount = count;
+        }
+
+        @Override
+        public int getCount() {
+            return mCount;
+        }
+    }
+
+    /**
+     * The thread that groups cursors in the background.  Remembers the groups of the
+     * last cursor it has grouped, along with the id of its top row and the ids of the
+     * rows at its bottom, so that when the next cursor only has new rows at the top,
+     * the groups below them can be reused.  Rows may also have dropped off the bottom,
+     * as happens when the cursor is a fixed size window over the most recent rows.
+     */
+    private class GroupingThread extends HandlerThread implements Callback {
+        private Handler mGroupingThreadHandler;
+
+        private int mBaseCount;
+        private long mBaseFirstRowId;
+
+        /**
+         * Ids of the last {@link #mBaseTailCount} rows of the last grouped cursor.
+         */
+        private final long[] mBaseTailRowIds = new long[BASE_TAIL_ROW_ID_COUNT];
+        private int mBaseTailCount;
+
+        private long[] mBaseMetadata;
+        private int mBaseGroupCount;
+
+        public GroupingThread() {
+            super(GROUPING_THREAD_NAME, Process.THREAD_PRIORITY_BACKGROUND);
+        }
+
+        private Handler getHandler() {
+            if (mGroupingThreadHandler == null) {
+                mGroupingThreadHandler = new Handler(getLooper(), this);
+            }
+            return mGroupingThreadHandler;
+        }
+
+        public void requestGrouping(GroupingResult request) {
+            getHandler().obtainMessage(MESSAGE_GROUP_CURSOR, request).sendToTarget();
+        }
+
+        public void requestReset() {
+            getHandler().sendEmptyMessage(MESSAGE_RESET_BASELINE);
+        }
+
+        /**
+         * Quits after the pending requests have been handled, so that their cursors
+         * make it back to the main thread to be closed.
+         */
+        public void requestQuit() {
+            getHandler().sendEmptyMessage(MESSAGE_QUIT);
+        }
+
+        public boolean handleMessage(Message msg) {
+            switch (msg.what) {
+                case MESSAGE_GROUP_CURSOR:
+                    GroupingResult result = (GroupingResult) msg.obj;
+                    if (result.baseCursor != null) {
+                        groupPage(result);
+                    } else {
+                        groupCursor(result);
+                    }
+                    mMainThreadHandler.obtainMessage(MESSAGE_GROUPS_COMPUTED, result)
+                            .sendToTarget();
+                    break;
+                case MESSAGE_RESET_BASELINE:
+                    mBaseMetadata = null;
+                    break;
+                case MESSAGE_QUIT:
+                    getLooper().quit();
+                    break;
+            }
+            return true;
+        }
+
+        private void groupCursor(GroupingResult result) {
+            Cursor cursor = result.cursor;
+            int count = cursor.getCount();
+            int idColumnIndex = cursor.getColumnIndexOrThrow("_id");
+
+            GroupMetadataBuilder builder = new GroupMetadataBuilder();
+            int examined = -1;
+            int newRowCount = findNewRowCount(cursor, count, idColumnIndex);
+            if (newRowCount == 0) {
+                // No new rows at the top
+                examined = 0;
+            } else if (newRowCount > 0) {
+                synchronized (mGroupingLock) {
+                    mGroupBuilder = builder;
+                    try {
+                        examined = addGroups(cursor, newRowCount + 1);
+                    } finally {
+                        mGroupBuilder = null;
+                    }
+                }
+            }
+
+            if (examined != -1) {
+                // Grouping from the row the scan stopped at onwards is the same as
+                // before, only shifted down by the number of new rows.  Groups that
+                // reach past the end of the cursor are cut short.
+                int baseStart = examined - newRowCount;
+                int baseEnd = count - newRowCount;
+                for (int i = 0; i < mBaseGroupCount; i++) {
+                    long descriptor = mBaseMetadata[i];
+                    int offset = (int)(descriptor & GROUP_OFFSET_MASK);
+                    int size = (int)((descriptor & GROUP_SIZE_MASK) >> 32);
+                    if (offset < baseStart) {
+                        continue;
+                    }
+                    size = Math.min(size, baseEnd - offset);
+                    if (size < 2) {
+                        break;
+                    }
+                    builder.add(((long)size << 32) | (offset + newRowCount));
+                }
+            } else {
+                builder = new GroupMetadataBuilder();
+                synchronized (mGroupingLock) {
+                    mGroupBuilder = builder;
+                    try {
+                        addGroups(cursor);
+                    } finally {
+                        mGroupBuilder = null;
+                    }
+                }
+            }
+            synchronized (mGroupingLock) {
+                result.appendPosition = findAppendPosition(cursor);
+            }
+
+            result.metadata = builder.metadata;
+            result.groupCount = builder.count;
+
+            // The main thread toggles expansion in its own copy of the metadata
+            mBaseMetadata = new long[builder.count];
+            System.arraycopy(builder.metadata, 0, mBaseMetadata, 0, builder.count);
+            mBaseGroupCount = builder.count;
+            mBaseCount = count;
+            if (cursor.moveToFirst()) {
+                mBaseFirstRowId = cursor.getLong(idColumnIndex);
+            }
+            rememberTailRowIds(cursor, count, idColumnIndex);
+        }
+
+        /**
+         * Groups a page of rows to be appended below the rows of the base cursor.  The
+         * base cursor belongs to the main thread, so the rows and groups above the page
+         * come with the request.
+         */
+        private void groupPage(GroupingResult result) {
+            Cursor cursor = result.cursor;
+            int count = cursor.getCount();
+            int idColumnIndex = cursor.getColumnIndexOrThrow("_id");
+            int start = result.startPosition;
+
+            GroupMetadataBuilder builder = new GroupMetadataBuilder();
+            synchronized (mGroupingLock) {
+                mGroupBuilder = builder;
+                try {
+                    addGroups(cursor);
+                } finally {
+                    mGroupBuilder = null;
+                }
+                result.appendPosition = start + findAppendPosition(cursor);
+            }
+            shiftGroups(builder.metadata, builder.count, start);
+            result.metadata = builder.metadata;
+            result.groupCount = builder.count;
+
+            // The next cursor is compared with all rows loaded so far
+            mBaseGroupCount = result.baseGroupCount + builder.count;
+            mBaseMetadata = new long[mBaseGroupCount];
+            System.arraycopy(result.baseMetadata, 0, mBaseMetadata, 0, result.baseGroupCount);
+            System.arraycopy(builder.metadata, 0, mBaseMetadata, result.baseGroupCount,
+                    builder.count);
+            mBaseCount = start + count;
+            if (start > 0) {
+                mBaseFirstRowId = result.baseFirstRowId;
+            } else if (cursor.moveToFirst()) {
+                mBaseFirstRowId = cursor.getLong(idColumnIndex);
+            }
+            rememberTailRowIds(cursor, count, idColumnIndex);
+        }
+
+        /**
+         * Remembers the ids of the last rows of the cursor, which are the last rows of
+         * the base cursor.
+         */
+        private void rememberTailRowIds(Cursor cursor, int count, int idColumnIndex) {
+            mBaseTailCount = Math.min(count, BASE_TAIL_ROW_ID_COUNT);
+            cursor.moveToPosition(count - mBaseTailCount - 1);
+            for (int i = 0; cursor.moveToNext(); i++) {
+                mBaseTailRowIds[i] = cursor.getLong(idColumnIndex);
+            }
+        }
+
+        /**
+         * Returns the number of rows added at the top of the cursor since the
+         * previously grouped one, or -1 if the cursor differs in any other way
+         * than having lost rows at the bottom.
+         */
+        private int findNewRowCount(Cursor cursor, int count, int idColumnIndex) {
+            if (mBaseMetadata == null || mBaseCount == 0 || count == 0) {
+                return -1;
+            }
+
+            // Look for the previous top row, no further down than the rows that can
+            // be verified against the remembered bottom rows
+            int maxNewRowCount = Math.min(count - 1, count - mBaseCount + mBaseTailCount - 1);
+            int newRowCount = -1;
+            cursor.moveToPosition(-1);
+            while (cursor.moveToNext() && cursor.getPosition() <= maxNewRowCount) {
+                if (cursor.getLong(idColumnIndex) == mBaseFirstRowId) {
+                    newRowCount = cursor.getPosition();
+                    break;
+                }
+            }
+            if (newRowCount == -1) {
+                return -1;
+            }
+
+            // The rows that follow have to be the previous ones in the same order,
+            // which we verify by checking where they end
+            int keptRowCount = count - newRowCount;
+            int tailIndex = keptRowCount - 1 - (mBaseCount - mBaseTailCount);
+            if (keptRowCount > mBaseCount || tailIndex < 0
+                    || !cursor.moveToPosition(count - 1)
+                    || cursor.getLong(idColumnIndex) != mBaseTailRowIds[tailIndex]) {
+                return -1;
+            }
+            return newRowCount;
+        }
+    }
 }
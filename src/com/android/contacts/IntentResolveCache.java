@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts;
+
+import com.android.contacts.util.Constants;
+import com.google.android.collect.Sets;
+
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.provider.ContactsContract.CommonDataKinds.Email;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+
+import java.lang.ref.SoftReference;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Process-wide cache of the activities that handle the actions on contact data, so
+ * that the detail screen and the QuickContact window do not have to ask
+ * {@link PackageManager} every time they show a contact.  Entries are keyed on the
+ * action, MIME-type, scheme and target of the intent, and hold the best
+ * {@link ResolveInfo} with its label and icon.
+ * <p>
+ * The intents of the most common actions are resolved on a background thread when
+ * the cache is created.  The cache is cleared whenever packages are added, removed or
+ * changed.  Lookups can be made on any thread.
+ */
+public final class IntentResolveCache {
+    private static final String TAG = "IntentResolveCache";
+
+    /**
+     * Specific list {@link ApplicationInfo#packageName} of apps that are
+     * prefered <strong>only</strong> for the purposes of default icons when
+     * multiple {@link ResolveInfo} are found to match. This only happens when
+     * the user has not selected a default app yet, and they will still be
+     * presented with the system disambiguation dialog.
+     */
+    private static final HashSet<String> sPreferResolve = Sets.newHashSet(
+            "com.android.email",
+            "com.android.calendar",
+            "com.android.contacts",
+            "com.android.mms",
+            "com.android.phone",
+            "com.android.browser");
+
+    /**
+     * Cached entry holding the best {@link ResolveInfo} for an intent, along with its
+     * label and a {@link SoftReference} to its icon, both loaded when first needed.
+     */
+    public static final class Entry {
+        private static final Entry NONE = new Entry(null);
+
+        public final ResolveInfo bestResolve;
+        private CharSequence mLabel;
+        private SoftReference<Drawable> mIcon;
+
+        private Entry(ResolveInfo bestResolve) {
+            this.bestResolve = bestResolve;
+        }
+    }
+
+    private static IntentResolveCache sInstance;
+
+    private final PackageManager mPackageManager;
+    private final Handler mHandler;
+    private final HashMap<String, Entry> mCache = new HashMap<String, Entry>();
+
+    /**
+     * Incremented whenever packages change, so that a resolution that overlaps a
+     * change is not cached.
+     */
+    private final AtomicInteger mGeneration = new AtomicInteger();
+
+    private final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            mGeneration.incrementAndGet();
+            synchronized (mCache) {
+                mCache.clear();
+            }
+        }
+    };
+
+    /**
+     * Returns the cache, creating and prewarming it if this is the first call.
+     */
+    public static synchronized IntentResolveCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new IntentResolveCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private IntentResolveCache(Context context) {
+        mPackageManager = context.getPackageManager();
+
+        final IntentFilter packageFilter = new IntentFilter();
+        packageFilter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        packageFilter.addDataScheme("package");
+        context.registerReceiver(mPackageReceiver, packageFilter);
+
+        // Apps on external storage come and go without package broadcasts
+        final IntentFilter externalFilter = new IntentFilter();
+        externalFilter.addAction(Intent.ACTION_EXTERNAL_APPLICATIONS_AVAILABLE);
+        externalFilter.addAction(Intent.ACTION_EXTERNAL_APPLICATIONS_UNAVAILABLE);
+        context.registerReceiver(mPackageReceiver, externalFilter);
+
+        HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+
+        prewarm(Phone.CONTENT_ITEM_TYPE, new Intent(Intent.ACTION_CALL_PRIVILEGED,
+                Uri.fromParts(Constants.SCHEME_TEL, "", null)));
+        prewarm(Constants.MIME_SMS_ADDRESS, new Intent(Intent.ACTION_SENDTO,
+                Uri.fromParts(Constants.SCHEME_SMSTO, "", null)));
+        prewarm(Email.CONTENT_ITEM_TYPE, new Intent(Intent.ACTION_SENDTO,
+                Uri.fromParts(Constants.SCHEME_MAILTO, "", null)));
+    }
+
+    /**
+     * Resolves the given intent on the background thread, if it is not cached yet.
+     */
+    public void prewarm(final String mimeType, final Intent intent) {
+        mHandler.post(new Runnable() {
+            public void run() {
+                getEntry(mimeType, intent);
+            }
+        });
+    }
+
+    /**
+     * Returns the {@link Entry} best associated with the given intent, resolving it if
+     * it is not cached yet.
+     *
+     * @param mimeType the MIME-type of the data the intent acts on, if the intent does
+     *            not have one itself
+     */
+    public Entry getEntry(String mimeType, Intent intent) {
+        if (intent == null) {
+            return Entry.NONE;
+        }
+
+        final String key = getKey(mimeType, intent);
+        synchronized (mCache) {
+            final Entry entry = mCache.get(key);
+            if (entry != null) return entry;
+        }
+
+        final int generation = mGeneration.get();
+        final List<ResolveInfo> matches = mPackageManager.queryIntentActivities(intent,
+                PackageManager.MATCH_DEFAULT_ONLY);
+
+        // Pick first match, otherwise best found
+        ResolveInfo bestResolve = null;
+        final int size = matches.size();
+        if (size == 1) {
+            bestResolve = matches.get(0);
+        } else if (size > 1) {
+            bestResolve = getBestResolve(intent, matches);
+        }
+
+        final Entry entry = bestResolve != null ? new Entry(bestResolve) : Entry.NONE;
+        synchronized (mCache) {
+            if (generation == mGeneration.get()) {
+                mCache.put(key, entry);
+            }
+        }
+        return entry;
+    }
+
+    private static String getKey(String mimeType, Intent intent) {
+        final StringBuilder key = new StringBuilder();
+        key.append(intent.getAction());
+        key.append('|').append(intent.getType() != null ? intent.getType() : mimeType);
+
+        final Uri data = intent.getData();
+        if (data != null) {
+            key.append('|').append(data.getScheme());
+            key.append('|').append(data.getAuthority());
+        }
+
+        final ComponentName component = intent.getComponent();
+        if (component != null) {
+            key.append('|').append(component.flattenToShortString());
+        }
+        return key.toString();
+    }
+
+    /**
+     * Best {@link ResolveInfo} when multiple found. Ties are broken by
+     * selecting first from the {@link #sPreferResolve} list of
+     * preferred packages, second by apps that live on the system partition,
+     * otherwise the app from the top of the list. This is
+     * <strong>only</strong> used for selecting a default icon for
+     * displaying in the track, and does not shortcut the system
+     * {@link Intent} disambiguation dialog.
+     */
+    private ResolveInfo getBestResolve(Intent intent, List<ResolveInfo> matches) {
+        // Try finding preferred activity, otherwise detect disambig
+        final ResolveInfo foundResolve = mPackageManager.resolveActivity(intent,
+                PackageManager.MATCH_DEFAULT_ONLY);
+        final boolean foundDisambig = (foundResolve.match &
+                IntentFilter.MATCH_CATEGORY_MASK) == 0;
+
+        if (!foundDisambig) {
+            // Found concrete match, so return directly
+            return foundResolve;
+        }
+
+        // Accept any package from prefer list, otherwise first system app
+        ResolveInfo firstSystem = null;
+        for (ResolveInfo info : matches) {
+            final boolean isSystem = (info.activityInfo.applicationInfo.flags
+                    & ApplicationInfo.FLAG_SYSTEM) != 0;
+            final boolean isPrefer = sPreferResolve
+                    .contains(info.activityInfo.applicationInfo.packageName);
+
+            if (isPrefer) return info;
+            if (isSystem && firstSystem == null) firstSystem = info;
+        }
+
+        // Return first system found, otherwise first from list
+        return firstSystem != null ? firstSystem : matches.get(0);
+    }
+
+    /**
+     * Check {@link PackageManager} to see if any apps offer to handle the
+     * given intent.
+     */
+    public boolean hasResolve(String mimeType, Intent intent) {
+        return getEntry(mimeType, intent).bestResolve != null;
+    }
+
+    /**
+     * Returns the label of the app that best handles the given intent, or null if
+     * there is none.
+     */
+    public CharSequence getLabel(String mimeType, Intent intent) {
+        final Entry entry = getEntry(mimeType, intent);
+        if (entry.bestResolve == null) {
+            return null;
+        }
+        synchronized (entry) {
+            if (entry.mLabel == null) {
+                entry.mLabel = entry.bestResolve.loadLabel(mPackageManager);
+            }
+            return entry.mLabel;
+        }
+    }
+
+    /**
+     * Returns the icon of the app that best handles the given intent, or null if
+     * there is none.  Every call returns a new drawable, as the same icon may be
+     * shown by several views.
+     */
+    public Drawable getIcon(String mimeType, Intent intent) {
+        final Entry entry = getEntry(mimeType, intent);
+        if (entry.bestResolve == null) {
+            return null;
+        }
+        synchronized (entry) {
+            Drawable icon = entry.mIcon != null ? entry.mIcon.get() : null;
+            if (icon == null) {
+                icon = entry.bestResolve.loadIcon(mPackageManager);
+                entry.mIcon = new SoftReference<Drawable>(icon);
+            }
+            final Drawable.ConstantState state = icon.getConstantState();
+            return state != null ? state.newDrawable() : icon;
+        }
+    }
+}
@@ -16,7 +16,7 @@
 
 package com.android.contacts;
 
-import com.android.contacts.Collapser.Collapsible;
+import com.android.contacts.Collapser.KeyedCollapsible;
 import com.android.contacts.model.ContactsSource;
 import com.android.contacts.model.Sources;
 import com.android.contacts.model.ContactsSource.DataKind;
@@ -170,7 +170,7 @@ public class PhoneDisambigDialog implements DialogInterface.OnClickListener,
         }
     }
 
-    private class PhoneItem implements Collapsible<PhoneItem> {
+    private class PhoneItem implements KeyedCollapsible<PhoneItem> {
 
         final long id;
         final String phoneNumber;
@@ -202,6 +202,10 @@ public class PhoneDisambigDialog implements DialogInterface.OnClickListener,
             return false;
         }
 
+        public Object getCollapseKey() {
+            return ContactsUtils.getPhoneNumberCollapseKey(phoneNumber);
+        }
+
         @Override
         public String toString() {
             return phoneNumber;
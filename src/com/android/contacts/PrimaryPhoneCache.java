@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.provider.ContactsContract.Contacts;
+import android.telephony.PhoneNumberUtils;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Process-wide cache of the phone numbers of all contacts, reduced to what the call
+ * and SMS buttons need to know: which number to use without asking, and how many
+ * different numbers there are to choose from otherwise.
+ * <p>
+ * The cache is loaded on a background thread, and reloaded a little while after
+ * the contacts change.  Until it is loaded, and right after a change, lookups
+ * return null and callers have to query the numbers themselves.
+ */
+final class PrimaryPhoneCache {
+    private static final String TAG = "PrimaryPhoneCache";
+
+    /**
+     * Delay before the cache is reloaded after a change, so that a burst of
+     * changes only causes one reload.
+     */
+    private static final long RELOAD_DELAY_MS = 2000;
+
+    private static final String[] PHONES_PROJECTION = new String[] {
+        Phone.CONTACT_ID,
+        Phone.NUMBER,
+        Phone.IS_SUPER_PRIMARY,
+    };
+
+    private static final int CONTACT_ID_COLUMN_INDEX = 0;
+    private static final int NUMBER_COLUMN_INDEX = 1;
+    private static final int IS_SUPER_PRIMARY_COLUMN_INDEX = 2;
+
+    /**
+     * The phone numbers of one contact.
+     */
+    public static final class Entry {
+        /**
+         * Entry of the contacts without phone numbers.
+         */
+        public static final Entry NONE = new Entry(null, null, 0);
+
+        /**
+         * The default number of the contact, or null.
+         */
+        public final String superPrimaryNumber;
+
+        /**
+         * The number of different phone numbers the contact has.
+         */
+        public final int numberCount;
+
+        private final String mFirstNumber;
+
+        Entry(String superPrimaryNumber, String firstNumber, int numberCount) {
+            this.superPrimaryNumber = superPrimaryNumber;
+            this.numberCount = numberCount;
+            mFirstNumber = firstNumber;
+        }
+
+        /**
+         * Returns the number to call or text without asking the user, or null if the
+         * user has to pick one.
+         */
+        public String getNumberToUse() {
+            if (superPrimaryNumber != null) {
+                return superPrimaryNumber;
+            }
+            return numberCount == 1 ? mFirstNumber : null;
+        }
+    }
+
+    private static PrimaryPhoneCache sInstance;
+
+    private final Context mContext;
+    private final Handler mHandler;
+    private volatile HashMap<Long, Entry> mEntries;
+
+    /**
+     * Incremented on every change, so that a load that overlaps a change does not
+     * publish what it loaded.
+     */
+    private final AtomicInteger mGeneration = new AtomicInteger();
+
+    private final Runnable mLoadRunnable = new Runnable() {
+        public void run() {
+            int generation = mGeneration.get();
+            HashMap<Long, Entry> entries = load();
+            if (generation == mGeneration.get()) {
+                mEntries = entries;
+            }
+        }
+    };
+
+    private final ContentObserver mObserver = new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange) {
+            // Called on a binder thread, as soon as possible after the change
+            mGeneration.incrementAndGet();
+            mEntries = null;
+            mHandler.removeCallbacks(mLoadRunnable);
+            mHandler.postDelayed(mLoadRunnable, RELOAD_DELAY_MS);
+        }
+    };
+
+    /**
+     * Returns the cache, starting to load it if this is the first call.
+     */
+    public static synchronized PrimaryPhoneCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PrimaryPhoneCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the cache if it has been created, without creating it.
+     */
+    public static synchronized PrimaryPhoneCache peekInstance() {
+        return sInstance;
+    }
+
+    private PrimaryPhoneCache(Context context) {
+        mContext = context;
+        HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+        context.getContentResolver().registerContentObserver(Contacts.CONTENT_URI, true,
+                mObserver);
+        mHandler.post(mLoadRunnable);
+    }
+
+    /**
+     * Returns the phone numbers of a contact, {@link Entry#NONE} if it has none, or
+     * null if the cache is not loaded.
+     */
+    public Entry get(long contactId) {
+        HashMap<Long, Entry> entries = mEntries;
+        if (entries == null) {
+            return null;
+        }
+        Entry entry = entries.get(contactId);
+        return entry != null ? entry : Entry.NONE;
+    }
+
+    private HashMap<Long, Entry> load() {
+        Cursor cursor = null;
+        try {
+            cursor = mContext.getContentResolver().query(Phone.CONTENT_URI, PHONES_PROJECTION,
+                    null, null, Phone.CONTACT_ID);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Cannot load phone numbers", e);
+        }
+        if (cursor == null) {
+            return null;
+        }
+
+        HashMap<Long, Entry> entries = new HashMap<Long, Entry>(cursor.getCount());
+        ArrayList<String> numbers = new ArrayList<String>();
+        try {
+            long contactId = -1;
+            String superPrimaryNumber = null;
+            while (cursor.moveToNext()) {
+                long id = cursor.getLong(CONTACT_ID_COLUMN_INDEX);
+                if (id != contactId) {
+                    addEntry(entries, contactId, superPrimaryNumber, numbers);
+                    contactId = id;
+                    superPrimaryNumber = null;
+                    numbers.clear();
+                }
+
+                String number = cursor.getString(NUMBER_COLUMN_INDEX);
+                if (number == null) {
+                    continue;
+                }
+                if (cursor.getInt(IS_SUPER_PRIMARY_COLUMN_INDEX) != 0) {
+                    superPrimaryNumber = number;
+                }
+
+                // Numbers that only differ in formatting are offered only once
+                boolean duplicate = false;
+                for (String other : numbers) {
+                    if (PhoneNumberUtils.compare(mContext, number, other)) {
+                        duplicate = true;
+                        break;
+                    }
+                }
+                if (!duplicate) {
+                    numbers.add(number);
+                }
+            }
+            addEntry(entries, contactId, superPrimaryNumber, numbers);
+        } finally {
+            cursor.close();
+        }
+        return entries;
+    }
+
+    private static void addEntry(HashMap<Long, Entry> entries, long contactId,
+            String superPrimaryNumber, ArrayList<String> numbers) {
+        if (contactId == -1 || numbers.isEmpty()) {
+            return;
+        }
+        entries.put(contactId, new Entry(superPrimaryNumber, numbers.get(0), numbers.size()));
+    }
+}
@@ -16,6 +16,8 @@
 
 package com.android.contacts;
 
+import com.android.contacts.util.PhoneNumberComparator;
+import com.android.contacts.util.WeakAsyncTask;
 import com.android.internal.telephony.CallerInfo;
 import com.android.internal.telephony.ITelephony;
 
@@ -24,12 +26,14 @@ import android.app.Dialog;
 import android.app.ListActivity;
 import android.content.ActivityNotFoundException;
 import android.content.AsyncQueryHandler;
+import android.content.ContentProviderOperation;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.DialogInterface.OnClickListener;
+import android.content.OperationApplicationException;
 import android.database.CharArrayBuffer;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabaseCorruptException;
@@ -58,7 +62,9 @@ import android.telephony.TelephonyManager;
 import android.text.SpannableStringBuilder;
 import android.text.TextUtils;
 import android.text.format.DateUtils;
+import android.text.format.Time;
 import android.util.Log;
+import android.util.LongSparseArray;
 import android.view.ContextMenu;
 import android.view.KeyEvent;
 import android.view.LayoutInflater;
@@ -77,9 +83,17 @@ import android.widget.ResourceCursorAdapter;
 import android.widget.TextView;
 
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 //Wysie
 import android.app.AlertDialog;
@@ -168,14 +182,128 @@ public class RecentCallsListActivity extends ListActivity
 
     private static final int QUERY_TOKEN = 53;
     private static final int UPDATE_TOKEN = 54;
+    private static final int PAGE_QUERY_TOKEN = 55;
+
+    /**
+     * Order of the calls in the list.  Calls made at the same time are ordered by id,
+     * so that a page can start right at a given call.
+     */
+    private static final String CALL_LOG_SORT_ORDER =
+            Calls.DEFAULT_SORT_ORDER + ", " + Calls._ID + " DESC";
 
     private static final int DIALOG_CONFIRM_DELETE_ALL = 1;
 
+    /**
+     * Minimum interval between two flushes of the cached caller info write-behind queue.
+     */
+    private static final long CALL_LOG_UPDATE_INTERVAL_MS = 2000;
+
+    /**
+     * Number of pending cached caller info updates that forces an early flush.
+     */
+    private static final int CALL_LOG_UPDATE_BATCH_SIZE = 50;
+
+    /**
+     * Minimum interval between two requeries caused by change notifications, so
+     * that the notifications of one batch of cached caller info updates only
+     * cause one requery.
+     */
+    private static final long CONTENT_CHANGE_REQUERY_INTERVAL_MS = 1000;
+
+    /**
+     * Number of calls loaded at first, and added each time the user scrolls close
+     * to the end of the loaded part of the call log.
+     */
+    private static final int CALL_LOG_PAGE_SIZE = 200;
+
+    /**
+     * How close to the end of the list, in list items, the next page is requested.
+     */
+    private static final int CALL_LOG_PAGE_PREFETCH_DISTANCE = 30;
+
+    /**
+     * Number of threads resolving caller ids.
+     */
+    private static final int CALLER_ID_THREAD_COUNT = 3;
+
+    /**
+     * How long idle caller id threads are kept around.
+     */
+    private static final long CALLER_ID_THREAD_KEEP_ALIVE_MS = 5000;
+
+    /**
+     * Longest time resolved caller ids wait to be shown while more are being resolved.
+     */
+    private static final long CALLER_ID_REDRAW_DELAY_MS = 300;
+
+    private static final ThreadFactory sCallerIdThreadFactory = new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "CallerIdThread");
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    };
+
+    /**
+     * Builder used by each caller id thread to format numbers.
+     */
+    private static final ThreadLocal<SpannableStringBuilder> sFormatBuilder =
+            new ThreadLocal<SpannableStringBuilder>() {
+        @Override
+        protected SpannableStringBuilder initialValue() {
+            return new SpannableStringBuilder();
+        }
+    };
+
+    /**
+     * Work queue that hands out the most recently added task first.
+     */
+    private static final class LifoBlockingDeque<E> extends LinkedBlockingDeque<E> {
+        @Override
+        public boolean offer(E e) {
+            return offerFirst(e);
+        }
+
+        @Override
+        public boolean add(E e) {
+            addFirst(e);
+            return true;
+        }
+
+        @Override
+        public void put(E e) throws InterruptedException {
+            putFirst(e);
+        }
+    }
+
     RecentCallsAdapter mAdapter;
     private QueryHandler mQueryHandler;
     String mVoiceMailNumber;
     
+    /**
+     * Selection of the calls shown when the log is filtered by name or number, null
+     * for the whole log.
+     */
     private String query = null;
+    private String[] mQueryArgs;
+    private String mFilterName;
+    private String mFilterNumber;
+
+    /**
+     * Copy of the whole call log that filtered logs are loaded from, read in the
+     * background the first time one is shown.  Read by the caller id threads, which
+     * apply the caller info they write back to it.
+     */
+    volatile CallLogIndex mCallLogIndex;
+    private CallLogIndexLoader mCallLogIndexLoader;
+
+    /**
+     * Whether {@link #mCallLogIndex} is known to hold the current call log.  Cleared
+     * when the call log changes, until the index has been checked against it.
+     */
+    private boolean mCallLogIndexValid;
+    private boolean mCallLogIndexReloadPending;
+    private boolean mRequeryFromCallLogIndex;
 
     //Wysie
     private MenuItem mPreferences;    
@@ -197,6 +325,14 @@ public class RecentCallsListActivity extends ListActivity
     private static boolean showGroups;
 
     private boolean mScrollToTop;
+
+    /**
+     * The number of most recent calls that a requery loads, and whether the last query
+     * filled it, i.e. there may be older calls that have not been loaded yet.
+     */
+    private int mCallLogLimit = CALL_LOG_PAGE_SIZE;
+    private boolean mMoreCallsAvailable;
+    private boolean mLoadingMoreCalls;
     private static final String INSERT_BLACKLIST = "com.android.phone.INSERT_BLACKLIST";
 
     private ContactPhotoLoader mPhotoLoader;
@@ -234,17 +370,20 @@ public class RecentCallsListActivity extends ListActivity
 
     static final class CallerInfoQuery {
         String number;
-        int position;
         String name;
         int numberType;
         String numberLabel;
-    }
 
-    /**
-     * Shared builder used by {@link #formatPhoneNumber(String)} to minimize
-     * allocations when formatting phone numbers.
-     */
-    private static final SpannableStringBuilder sEditable = new SpannableStringBuilder();
+        /** Whether the contact of the number has to be looked up */
+        boolean lookup;
+
+        /**
+         * Cache to put the formatted number into, or null if the number does not
+         * have to be formatted, and the formatting type to use.
+         */
+        ConcurrentHashMap<String, String> formattedNumbers;
+        int formattingType;
+    }
 
     /**
      * Invalid formatting type constant for {@link #sFormattingType}.
@@ -274,16 +413,82 @@ public class RecentCallsListActivity extends ListActivity
 
     /** Adapter class to fill in data for the Call Log */
     final class RecentCallsAdapter extends GroupingListAdapter
-            implements Runnable, ViewTreeObserver.OnPreDrawListener, View.OnClickListener, OnScrollListener {
-        HashMap<String,ContactInfo> mContactInfo;
-        private final LinkedList<CallerInfoQuery> mRequests;
-        private volatile boolean mDone;
+            implements ViewTreeObserver.OnPreDrawListener, View.OnClickListener, OnScrollListener {
+        ConcurrentHashMap<String,ContactInfo> mContactInfo;
+
+        /**
+         * Caller id lookups that are queued or running, keyed by number, so that a
+         * number is looked up only once however often its rows are rebound.  Entries
+         * are added on the UI thread and removed by the lookup when it is done.
+         */
+        private final ConcurrentHashMap<String, Future<?>> mPendingLookups;
+
+        /**
+         * Runs the caller id requests.  Its queue hands out the most recent request
+         * first, so the rows bound last, which are the visible ones, are resolved
+         * before the ones that have been scrolled past.  Null until the list is first
+         * drawn.
+         */
+        private ThreadPoolExecutor mCallerIdExecutor;
+
+        /**
+         * Requests made while request processing is stopped, oldest first.  Only
+         * accessed from the UI thread.
+         */
+        private final ArrayList<Runnable> mSuspendedRequests;
+
+        /**
+         * Set by the caller id requests when rows have to be redrawn.
+         */
+        private final AtomicBoolean mRedrawNeeded = new AtomicBoolean();
+
+        /**
+         * Formatted versions of raw call log numbers, filled in by the caller id threads
+         * for the formatting type in {@link #mFormattedNumbersType}.  Replaced on the UI
+         * thread when the formatting type changes, so that numbers still being formatted
+         * for the old type do not end up in the new cache.
+         */
+        private volatile ConcurrentHashMap<String, String> mFormattedNumbers;
+        private int mFormattedNumbersType = FORMATTING_TYPE_INVALID;
+
+        /**
+         * Numbers for which formatting has been requested.  Only accessed from the
+         * UI thread.
+         */
+        private final HashSet<String> mFormattingRequested;
+
+        /**
+         * Date labels of the bound rows.  Relative labels for calls less than a day old
+         * are keyed by the age of the call in whole minutes at {@link #mDateLabelTime},
+         * and dropped every minute.  Older calls are labeled by their local day, which
+         * their labels are keyed by, and those are dropped when the local day
+         * {@link #mDateLabelDay} changes.  Exact labels are keyed by the time they show.
+         */
+        private final LongSparseArray<CharSequence> mRecentDateLabels;
+        private final LongSparseArray<CharSequence> mDateLabels;
+        private final Time mDateLabelCalendar;
+        private long mDateLabelTime;
+        private int mDateLabelDay;
+
+        /**
+         * Cached caller info that still has to be written back to the call log, keyed
+         * by number. Guarded by itself.
+         */
+        private final HashMap<String, ContentValues> mPendingCallLogUpdates;
+        private volatile long mLastCallLogFlush;
+
+        /**
+         * Time of the last requery caused by a change notification.
+         */
+        private long mLastContentChangeRequery;
+
         private boolean mLoading = true;
         ViewTreeObserver.OnPreDrawListener mPreDrawListener;
         private static final int REDRAW = 1;
         private static final int START_THREAD = 2;
+        private static final int CONTENT_CHANGE_REQUERY = 3;
+        private static final int UPDATE_DATE_LABELS = 4;
         private boolean mFirst;
-        private Thread mCallerIdThread;
 
         private CharSequence[] mLabelArray;
 
@@ -339,6 +544,12 @@ public class RecentCallsListActivity extends ListActivity
                     case START_THREAD:
                         startRequestProcessing();
                         break;
+                    case UPDATE_DATE_LABELS:
+                        updateDateLabels();
+                        break;
+                    case CONTENT_CHANGE_REQUERY:
+                        requeryForContentChange();
+                        break;
                 }
             }
         };
@@ -346,8 +557,17 @@ public class RecentCallsListActivity extends ListActivity
         public RecentCallsAdapter() {
             super(RecentCallsListActivity.this);
 
-            mContactInfo = new HashMap<String,ContactInfo>();
-            mRequests = new LinkedList<CallerInfoQuery>();
+            mContactInfo = new ConcurrentHashMap<String,ContactInfo>();
+            mPendingLookups = new ConcurrentHashMap<String, Future<?>>();
+            mSuspendedRequests = new ArrayList<Runnable>();
+            mPendingCallLogUpdates = new HashMap<String, ContentValues>();
+            mFormattedNumbers = new ConcurrentHashMap<String, String>();
+            mFormattingRequested = new HashSet<String>();
+            mRecentDateLabels = new LongSparseArray<CharSequence>();
+            mDateLabels = new LongSparseArray<CharSequence>();
+            mDateLabelCalendar = new Time();
+            mDateLabelTime = System.currentTimeMillis();
+            mDateLabelDay = getLocalJulianDay(mDateLabelTime);
             mPreDrawListener = null;
 
             mDrawableIncoming = getResources().getDrawable(
@@ -365,14 +585,48 @@ public class RecentCallsListActivity extends ListActivity
          */
         @Override
         protected void onContentChanged() {
-            // Start async requery
+            if (query != null) {
+                // Requeried from the index once it has been checked against the
+                // call log, see onCallLogIndexLoaded
+                reloadCallLogIndex();
+                return;
+            }
+
+            // Start async requery, unless we have just started one. Our own
+            // batched caller info updates notify once per operation, so this
+            // requeries at most twice per batch.
+            mHandler.removeMessages(CONTENT_CHANGE_REQUERY);
+            long delay = mLastContentChangeRequery + CONTENT_CHANGE_REQUERY_INTERVAL_MS
+                    - SystemClock.uptimeMillis();
+            if (delay > 0) {
+                mHandler.sendEmptyMessageDelayed(CONTENT_CHANGE_REQUERY, delay);
+            } else {
+                requeryForContentChange();
+            }
+        }
+
+        private void requeryForContentChange() {
+            mLastContentChangeRequery = SystemClock.uptimeMillis();
             startQuery();
         }
 
+        public void cancelContentChangeRequery() {
+            mHandler.removeMessages(CONTENT_CHANGE_REQUERY);
+        }
+
         void setLoading(boolean loading) {
             mLoading = loading;
         }
 
+        @Override
+        protected void onCursorChanged(Cursor cursor) {
+            setLoading(false);
+
+            // Only now does the list have the rows of the last page, so the scroll
+            // listener may ask for the next one
+            mLoadingMoreCalls = false;
+        }
+
         @Override
         public boolean isEmpty() {
             if (mLoading) {
@@ -388,21 +642,215 @@ public class RecentCallsListActivity extends ListActivity
         }
 
         public void startRequestProcessing() {
-            mDone = false;
-            mCallerIdThread = new Thread(this);
-            mCallerIdThread.setPriority(Thread.MIN_PRIORITY);
-            mCallerIdThread.start();
+            if (mCallerIdExecutor == null || mCallerIdExecutor.isShutdown()) {
+                mCallerIdExecutor = new ThreadPoolExecutor(CALLER_ID_THREAD_COUNT,
+                        CALLER_ID_THREAD_COUNT, CALLER_ID_THREAD_KEEP_ALIVE_MS,
+                        TimeUnit.MILLISECONDS, new LifoBlockingDeque<Runnable>(),
+                        sCallerIdThreadFactory);
+                mCallerIdExecutor.allowCoreThreadTimeOut(true);
+            }
+            mLastCallLogFlush = SystemClock.uptimeMillis();
+
+            for (Runnable request : mSuspendedRequests) {
+                mCallerIdExecutor.execute(request);
+            }
+            mSuspendedRequests.clear();
         }
 
+        /**
+         * Takes back the requests that have not started yet, to be run when processing
+         * is started again, and writes back what has been looked up so far.  The
+         * requests that are running are left to finish.
+         */
         public void stopRequestProcessing() {
-            mDone = true;
-            if (mCallerIdThread != null) mCallerIdThread.interrupt();
+            if (mCallerIdExecutor == null) {
+                return;
+            }
+
+            // The queue is drained newest first
+            ArrayList<Runnable> requests = new ArrayList<Runnable>();
+            mCallerIdExecutor.getQueue().drainTo(requests);
+            for (int i = requests.size() - 1; i >= 0; i--) {
+                mSuspendedRequests.add(requests.get(i));
+            }
+
+            // Don't lose what we have looked up so far
+            if (!mCallerIdExecutor.isShutdown()) {
+                mCallerIdExecutor.execute(mFlushCallLogUpdates);
+            }
+        }
+
+        /**
+         * Stops request processing for good, once the last write-back has been done.
+         */
+        public void shutdownRequestProcessing() {
+            stopRequestProcessing();
+            if (mCallerIdExecutor != null) {
+                mCallerIdExecutor.shutdown();
+            }
         }
 
         public void clearCache() {
             synchronized (mContactInfo) {
                 mContactInfo.clear();
             }
+            mFormattedNumbers = new ConcurrentHashMap<String, String>();
+            mFormattingRequested.clear();
+
+            // The date preferences or the time zone may have changed
+            mRecentDateLabels.clear();
+            mDateLabels.clear();
+            mDateLabelCalendar.timezone = Time.getCurrentTimezone();
+            mDateLabelTime = System.currentTimeMillis();
+            mDateLabelDay = getLocalJulianDay(mDateLabelTime);
+        }
+
+        /**
+         * Starts refreshing the relative date labels at the start of every minute.
+         */
+        public void startDateLabelUpdates() {
+            mHandler.removeMessages(UPDATE_DATE_LABELS);
+            updateDateLabels();
+        }
+
+        public void stopDateLabelUpdates() {
+            mHandler.removeMessages(UPDATE_DATE_LABELS);
+        }
+
+        /**
+         * Moves the relative date labels to the current time and schedules the next
+         * update. All visible rows are updated at once.
+         */
+        private void updateDateLabels() {
+            long now = System.currentTimeMillis();
+            int day = getLocalJulianDay(now);
+            boolean dayChanged = day != mDateLabelDay;
+            if (dayChanged) {
+                mDateLabels.clear();
+                mDateLabelDay = day;
+            }
+            if (dayChanged || mRecentDateLabels.size() > 0
+                    || now - mDateLabelTime >= DateUtils.MINUTE_IN_MILLIS) {
+                mRecentDateLabels.clear();
+                mDateLabelTime = now;
+                if (!exactTime) {
+                    notifyDataSetChanged();
+                }
+            }
+
+            mHandler.sendEmptyMessageDelayed(UPDATE_DATE_LABELS,
+                    DateUtils.MINUTE_IN_MILLIS - now % DateUtils.MINUTE_IN_MILLIS);
+        }
+
+        /**
+         * Returns the Julian day of the supplied time in the local time zone.
+         */
+        private int getLocalJulianDay(long time) {
+            mDateLabelCalendar.set(time);
+            return Time.getJulianDay(time, mDateLabelCalendar.gmtoff);
+        }
+
+        private CharSequence getDateLabel(long date) {
+            LongSparseArray<CharSequence> labels;
+            long key;
+            long age = mDateLabelTime - date;
+            if (exactTime) {
+                labels = mDateLabels;
+                key = date / (showSeconds
+                        ? DateUtils.SECOND_IN_MILLIS : DateUtils.MINUTE_IN_MILLIS);
+            } else if (age < 0) {
+                // A call from the future, after the clock was set back
+                return formatDateLabel(date);
+            } else if (age < DateUtils.DAY_IN_MILLIS) {
+                // Minutes or hours ago
+                labels = mRecentDateLabels;
+                key = age / DateUtils.MINUTE_IN_MILLIS;
+            } else {
+                // Days ago up to a week, the date after that
+                labels = mDateLabels;
+                key = getLocalJulianDay(date) * 2L
+                        + (age < DateUtils.WEEK_IN_MILLIS ? 0 : 1);
+            }
+
+            CharSequence label = labels.get(key);
+            if (label == null) {
+                label = formatDateLabel(date);
+                labels.put(key, label);
+            }
+            return label;
+        }
+
+        private CharSequence formatDateLabel(long date) {
+            CharSequence label;
+            if (!exactTime) {
+                // Set the date/time field by mixing relative and absolute times.
+                int flags = DateUtils.FORMAT_ABBREV_RELATIVE;
+
+                label = DateUtils.getRelativeTimeSpanString(date, mDateLabelTime,
+                        DateUtils.MINUTE_IN_MILLIS, flags);
+            } else {
+                String format = null;
+
+                if (is24hour) {
+                    if (showSeconds) {
+                        format = format24HourSeconds;
+                    } else {
+                        format = format24Hour;
+                    }
+                } else {
+                    if (showSeconds) {
+                        format = format12HourSeconds;
+                    } else {
+                        format = format12Hour;
+                    }
+                }
+
+                label = DateFormat.format(format, date);
+            }
+            return label;
+        }
+
+        /**
+         * Returns the formatted version of a raw call log number if it has already
+         * been formatted in the background. Otherwise queues up a request for it and
+         * returns the number as is, the list is redrawn once it is available.
+         */
+        private String getFormattedNumber(String number) {
+            if (TextUtils.isEmpty(number)) {
+                return "";
+            }
+            int formattingType = getFormattingType();
+            if (mFormattedNumbersType != formattingType) {
+                // Every number has to be formatted again
+                mFormattedNumbers = new ConcurrentHashMap<String, String>();
+                mFormattedNumbersType = formattingType;
+                mFormattingRequested.clear();
+            }
+            String formattedNumber = mFormattedNumbers.get(number);
+            if (formattedNumber != null) {
+                return formattedNumber;
+            }
+            if (mFormattingRequested.add(number)) {
+                enqueueFormatRequest(number);
+            }
+            return number;
+        }
+
+        /**
+         * Formats a raw call log number into the cache given by the request. Called on
+         * the caller id threads.
+         *
+         * @return true if the cache did not have the number yet
+         */
+        private boolean cacheFormattedNumber(CallerInfoQuery ciq,
+                SpannableStringBuilder builder) {
+            ConcurrentHashMap<String, String> formattedNumbers = ciq.formattedNumbers;
+            if (formattedNumbers == null || formattedNumbers.containsKey(ciq.number)) {
+                return false;
+            }
+            formattedNumbers.put(ciq.number,
+                    formatPhoneNumber(ciq.number, builder, ciq.formattingType));
+            return true;
         }
 
         private void updateCallLog(CallerInfoQuery ciq, ContactInfo ci) {
@@ -417,9 +865,53 @@ public class RecentCallsListActivity extends ListActivity
             values.put(Calls.CACHED_NUMBER_TYPE, ci.type);
             values.put(Calls.CACHED_NUMBER_LABEL, ci.label);
 
+            // Later lookups for the same number replace the earlier ones
+            boolean flush;
+            synchronized (mPendingCallLogUpdates) {
+                mPendingCallLogUpdates.put(ciq.number, values);
+                flush = mPendingCallLogUpdates.size() >= CALL_LOG_UPDATE_BATCH_SIZE;
+            }
+            if (flush) {
+                flushCallLogUpdates();
+            }
+        }
+
+        /**
+         * Writes all pending cached caller info to the call log in a single batch.
+         * Called on the caller id threads.
+         */
+        private void flushCallLogUpdates() {
+            ArrayList<ContentProviderOperation> ops;
+            synchronized (mPendingCallLogUpdates) {
+                mLastCallLogFlush = SystemClock.uptimeMillis();
+                if (mPendingCallLogUpdates.isEmpty()) {
+                    return;
+                }
+
+                ops = new ArrayList<ContentProviderOperation>(mPendingCallLogUpdates.size());
+                for (String number : mPendingCallLogUpdates.keySet()) {
+                    ops.add(ContentProviderOperation.newUpdate(Calls.CONTENT_URI)
+                            .withValues(mPendingCallLogUpdates.get(number))
+                            .withSelection(Calls.NUMBER + "=?", new String[] { number })
+                            .build());
+                }
+                // Our own updates do not make the index stale
+                CallLogIndex index = mCallLogIndex;
+                if (index != null) {
+                    for (String number : mPendingCallLogUpdates.keySet()) {
+                        index.updateCachedInfo(number, mPendingCallLogUpdates.get(number));
+                    }
+                }
+                mPendingCallLogUpdates.clear();
+            }
+
             try {
-                RecentCallsListActivity.this.getContentResolver().update(Calls.CONTENT_URI, values,
-                        Calls.NUMBER + "='" + ciq.number + "'", null);
+                RecentCallsListActivity.this.getContentResolver().applyBatch(CallLog.AUTHORITY,
+                        ops);
+            } catch (RemoteException e) {
+                Log.w(TAG, "Exception while updating call info", e);
+            } catch (OperationApplicationException e) {
+                Log.w(TAG, "Exception while updating call info", e);
             } catch (SQLiteDiskIOException e) {
                 Log.w(TAG, "Exception while updating call info", e);
             } catch (SQLiteFullException e) {
@@ -429,21 +921,81 @@ public class RecentCallsListActivity extends ListActivity
             }
         }
 
-        private void enqueueRequest(String number, int position,
+        /**
+         * Queues up looking up the contact of a number, unless a lookup of the number
+         * is already queued or running.  Called on the UI thread.
+         */
+        private void enqueueRequest(String number,
                 String name, int numberType, String numberLabel) {
+            if (mPendingLookups.containsKey(number)) {
+                return;
+            }
+
             CallerInfoQuery ciq = new CallerInfoQuery();
             ciq.number = number;
-            ciq.position = position;
+            ciq.lookup = true;
             ciq.name = name;
             ciq.numberType = numberType;
             ciq.numberLabel = numberLabel;
-            synchronized (mRequests) {
-                mRequests.add(ciq);
-                mRequests.notifyAll();
+
+            FutureTask<Void> lookup = new FutureTask<Void>(new CallerIdRequest(ciq), null);
+            mPendingLookups.put(number, lookup);
+            executeRequest(lookup);
+        }
+
+        /**
+         * Queues up formatting a raw call log number, without looking up its contact.
+         * Called on the UI thread, which only asks once per number.
+         */
+        private void enqueueFormatRequest(String number) {
+            CallerInfoQuery ciq = new CallerInfoQuery();
+            ciq.number = number;
+            ciq.formattedNumbers = mFormattedNumbers;
+            ciq.formattingType = mFormattedNumbersType;
+            executeRequest(new CallerIdRequest(ciq));
+        }
+
+        private void executeRequest(Runnable request) {
+            if (mCallerIdExecutor != null && !mCallerIdExecutor.isShutdown()
+                    && mSuspendedRequests.isEmpty()) {
+                mCallerIdExecutor.execute(request);
+            } else {
+                mSuspendedRequests.add(request);
+            }
+        }
+
+        private void requestRedraw() {
+            mHandler.removeMessages(REDRAW);
+            mHandler.sendEmptyMessage(REDRAW);
+        }
+
+        /**
+         * Called on the caller id threads after each request.  Redraws the list once
+         * no request is left, or after a little while if requests keep coming, and
+         * writes back cached caller info from time to time.
+         */
+        private void onRequestDone(boolean needNotify) {
+            if (needNotify) {
+                mRedrawNeeded.set(true);
+            }
+
+            boolean idle = mCallerIdExecutor.getQueue().isEmpty();
+            if (idle) {
+                if (mRedrawNeeded.getAndSet(false)) {
+                    requestRedraw();
+                }
+            } else if (mRedrawNeeded.get() && !mHandler.hasMessages(REDRAW)) {
+                mRedrawNeeded.set(false);
+                mHandler.sendEmptyMessageDelayed(REDRAW, CALLER_ID_REDRAW_DELAY_MS);
+            }
+
+            if (idle || SystemClock.uptimeMillis() - mLastCallLogFlush
+                    >= CALL_LOG_UPDATE_INTERVAL_MS) {
+                flushCallLogUpdates();
             }
         }
 
-        private boolean queryContactInfo(CallerInfoQuery ciq) {
+        boolean queryContactInfo(CallerInfoQuery ciq, SpannableStringBuilder builder) {
             // First check if there was a prior request for the same number
             // that was already satisfied
             ContactInfo info = mContactInfo.get(ciq.number);
@@ -552,9 +1104,9 @@ public class RecentCallsListActivity extends ListActivity
                 }
 
                 if (infoUpdated) {
-                    // New incoming phone number invalidates our formatted
-                    // cache. Any cache fills happen only on the GUI thread.
-                    info.formattedNumber = null;
+                    // Format the matched number here, rather than on the GUI thread
+                    info.formattedNumber = formatPhoneNumber(info.number, builder,
+                            getFormattingType());
 
                     mContactInfo.put(ciq.number, info);
 
@@ -568,41 +1120,84 @@ public class RecentCallsListActivity extends ListActivity
             return needNotify;
         }
 
-        /*
-         * Handles requests for contact name and number type
-         * @see java.lang.Runnable#run()
+        /**
+         * Looks up the contact of a number and formats it, as requested.
          */
-        public void run() {
-            boolean needNotify = false;
-            while (!mDone) {
-                CallerInfoQuery ciq = null;
-                synchronized (mRequests) {
-                    if (!mRequests.isEmpty()) {
-                        ciq = mRequests.removeFirst();
-                    } else {
-                        if (needNotify) {
-                            needNotify = false;
-                            mHandler.sendEmptyMessage(REDRAW);
-                        }
-                        try {
-                            mRequests.wait(1000);
-                        } catch (InterruptedException ie) {
-                            // Ignore and continue processing requests
-                        }
+        private final class CallerIdRequest implements Runnable {
+            private final CallerInfoQuery mQuery;
+
+            public CallerIdRequest(CallerInfoQuery ciq) {
+                mQuery = ciq;
+            }
+
+            public void run() {
+                SpannableStringBuilder builder = sFormatBuilder.get();
+                boolean needNotify = false;
+                try {
+                    if (mQuery.lookup && queryContactInfo(mQuery, builder)) {
+                        needNotify = true;
+                    }
+                    if (cacheFormattedNumber(mQuery, builder)) {
+                        needNotify = true;
+                    }
+                } finally {
+                    if (mQuery.lookup) {
+                        mPendingLookups.remove(mQuery.number);
                     }
                 }
-                if (ciq != null && queryContactInfo(ciq)) {
-                    needNotify = true;
-                }
+                onRequestDone(needNotify);
             }
         }
 
+        private final Runnable mFlushCallLogUpdates = new Runnable() {
+            public void run() {
+                flushCallLogUpdates();
+            }
+        };
+
         @Override
         protected void addGroups(Cursor cursor) {
+            addGroups(cursor, Integer.MAX_VALUE);
+        }
+
+        @Override
+        protected int findAppendPosition(Cursor cursor) {
+            int count = cursor.getCount();
+            if (count == 0) {
+                return 0;
+            }
+            if (query != null || !showGroups) {
+                // Nothing is grouped, the next page only has to repeat the last call
+                return count - 1;
+            }
+
+            // Grouping starts over with the first call of the last run of calls from
+            // the same number
+            CharArrayBuffer value = mBuffer1;
+            CharArrayBuffer previousValue = mBuffer2;
+            cursor.moveToPosition(count - 1);
+            cursor.copyStringToBuffer(NUMBER_COLUMN_INDEX, value);
+            for (int i = count - 2; i >= 0; i--) {
+                cursor.moveToPosition(i);
+                cursor.copyStringToBuffer(NUMBER_COLUMN_INDEX, previousValue);
+                if (!equalPhoneNumbers(previousValue, value)) {
+                    return i + 1;
+                }
+
+                // Swap buffers
+                CharArrayBuffer temp = value;
+                value = previousValue;
+                previousValue = temp;
+            }
+            return 0;
+        }
+
+        @Override
+        protected int addGroups(Cursor cursor, int minRowCount) {
 
             int count = cursor.getCount();
             if (count == 0 || query != null || !showGroups) {
-                return;
+                return count;
             }
 
             int groupItemCount = 1;
@@ -629,6 +1224,11 @@ public class RecentCallsListActivity extends ListActivity
 
                     groupItemCount = 1;
 
+                    // A new number starts a group regardless of the rows above it
+                    if (!sameNumber && i >= minRowCount) {
+                        return i;
+                    }
+
                     // Swap buffers
                     CharArrayBuffer temp = currentValue;
                     currentValue = value;
@@ -647,14 +1247,12 @@ public class RecentCallsListActivity extends ListActivity
             if (groupItemCount > 1) {
                 addGroup(count - groupItemCount, groupItemCount, false);
             }
+            return count;
         }
 
         protected boolean equalPhoneNumbers(CharArrayBuffer buffer1, CharArrayBuffer buffer2) {
-
-            // TODO add PhoneNumberUtils.compare(CharSequence, CharSequence) to avoid
-            // string allocation
-            return PhoneNumberUtils.compare(new String(buffer1.data, 0, buffer1.sizeCopied),
-                    new String(buffer2.data, 0, buffer2.sizeCopied));
+            // Compare in place, this is called for every adjacent pair of rows
+            return PhoneNumberComparator.compare(buffer1, buffer2);
         }
 
 
@@ -764,7 +1362,7 @@ public class RecentCallsListActivity extends ListActivity
                 // The db request should happen on a non-UI thread
                 info = ContactInfo.EMPTY;
                 mContactInfo.put(number, info);
-                enqueueRequest(number, c.getPosition(),
+                enqueueRequest(number,
                         callerName, callerNumberType, callerNumberLabel);
             } else if (info != ContactInfo.EMPTY) { // Has been queried
                 // Check if any data is different from the data cached in the
@@ -774,14 +1372,11 @@ public class RecentCallsListActivity extends ListActivity
                         || info.type != callerNumberType
                         || !TextUtils.equals(info.label, callerNumberLabel)) {
                     // Something is amiss, so sync up.
-                    enqueueRequest(number, c.getPosition(),
+                    enqueueRequest(number,
                             callerName, callerNumberType, callerNumberLabel);
                 }
 
-                // Format and cache phone number for found contact
-                if (info.formattedNumber == null) {
-                    info.formattedNumber = formatPhoneNumber(info.number);
-                }
+                // The number of a found contact is formatted when it is looked up
                 formattedNumber = info.formattedNumber;
             }
 
@@ -796,8 +1391,8 @@ public class RecentCallsListActivity extends ListActivity
                 ntype = callerNumberType;
                 label = callerNumberLabel;
 
-                // Format the cached call_log phone number
-                formattedNumber = formatPhoneNumber(number);
+                // Use the formatted cached call_log phone number
+                formattedNumber = getFormattedNumber(number);
             }
             // Set the text lines and call icon.
             // Assumes the call back feature is on most of the
@@ -861,7 +1456,7 @@ public class RecentCallsListActivity extends ListActivity
                     number = getString(R.string.voicemail);
                 } else {
                     // Just a raw number, and no cache, so format it nicely
-                    number = formatPhoneNumber(number);
+                    number = getFormattedNumber(number);
                 }
                 
                 //Wysie
@@ -904,34 +1499,7 @@ public class RecentCallsListActivity extends ListActivity
             }
 
             long date = c.getLong(DATE_COLUMN_INDEX);
-            
-            if (!exactTime) {
-                // Set the date/time field by mixing relative and absolute times.
-                int flags = DateUtils.FORMAT_ABBREV_RELATIVE;
-
-                views.dateView.setText(
-                        DateUtils.getRelativeTimeSpanString(date,
-                        System.currentTimeMillis(), DateUtils.MINUTE_IN_MILLIS,
-                        flags));
-            } else {
-                String format = null;
-
-                if (is24hour) {
-                    if (showSeconds) {
-                        format = format24HourSeconds;
-                    } else {
-                        format = format24Hour;
-                    }
-                } else {
-                    if (showSeconds) {
-                        format = format12HourSeconds;
-                    } else {
-                        format = format12Hour;
-                    }                  	
-                }
-                
-                views.dateView.setText(DateFormat.format(format, date));                         
-            }
+            views.dateView.setText(getDateLabel(date));
 
             if (showDialButton) {
                 views.dividerView.setVisibility(View.VISIBLE);
@@ -970,7 +1538,14 @@ public class RecentCallsListActivity extends ListActivity
         //Wysie: Contact pictures
         public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
                 int totalItemCount) {
-            // no op
+            if (mMoreCallsAvailable && !mLoadingMoreCalls && !mLoading && totalItemCount > 0
+                    && firstVisibleItem + visibleItemCount
+                            >= totalItemCount - CALL_LOG_PAGE_PREFETCH_DISTANCE) {
+                // Load the next page before the user hits the end
+                mLoadingMoreCalls = true;
+                mCallLogLimit += CALL_LOG_PAGE_SIZE;
+                startPageQuery();
+            }
         }
         
         public void onScrollStateChanged(AbsListView view, int scrollState) {
@@ -1027,8 +1602,18 @@ public class RecentCallsListActivity extends ListActivity
             final RecentCallsListActivity activity = mActivity.get();
             if (activity != null && !activity.isFinishing()) {
                 final RecentCallsListActivity.RecentCallsAdapter callsAdapter = activity.mAdapter;
-                callsAdapter.setLoading(false);
-                callsAdapter.changeCursor(cursor);
+                if (token == PAGE_QUERY_TOKEN) {
+                    activity.mMoreCallsAvailable = cursor.getCount() >= (Integer) cookie;
+                    callsAdapter.appendCursorInBackground(cursor);
+                    return;
+                }
+
+                // Read the count before the cursor is handed to the grouping thread
+                mRecordCount = cursor.getCount();
+                // Cursors from the index hold all calls of the filtered log
+                activity.mMoreCallsAvailable = cookie == null
+                        && mRecordCount >= activity.mCallLogLimit;
+                callsAdapter.changeCursorInBackground(cursor);
                 if (activity.mScrollToTop) {
                     if (activity.mList.getFirstVisiblePosition() > 5) {
                         activity.mList.setSelection(5);
@@ -1036,7 +1621,6 @@ public class RecentCallsListActivity extends ListActivity
                     activity.mList.smoothScrollToPosition(0);
                     activity.mScrollToTop = false;
                 }
-                mRecordCount = cursor.getCount();
             } else {
                 cursor.close();
             }
@@ -1059,7 +1643,9 @@ public class RecentCallsListActivity extends ListActivity
         setDefaultKeyMode(DEFAULT_KEYS_DIALER);
 
         mAdapter = new RecentCallsAdapter();
+        mAdapter.setIncrementalGrouping(true);
         getListView().setOnCreateContextMenuListener(this);
+        getListView().setOnScrollListener(mAdapter);
         setListAdapter(mAdapter);
 
         mVoiceMailNumber = ((TelephonyManager)getSystemService(Context.TELEPHONY_SERVICE))
@@ -1080,11 +1666,21 @@ public class RecentCallsListActivity extends ListActivity
         final String name = extras.getString(EXTRA_RECENT_CALLS_NAME);
         final String number = extras.getString(EXTRA_RECENT_CALLS_NUMBER);
 	
+        mFilterName = name;
+        mFilterNumber = name == null ? number : null;
         if (name != null) {
-            query = Calls.CACHED_NAME + "='" + name + "'";
+            query = Calls.CACHED_NAME + "=?";
+            mQueryArgs = new String[] { name };
         } else if (number != null) {
-            query = Calls.NUMBER + "='" + number + "'";
+            query = "PHONE_NUMBERS_EQUAL(" + Calls.NUMBER + ",?)";
+            mQueryArgs = new String[] { number };
         }
+
+        // Filtered lists are not grouped
+        if (mAdapter != null) {
+            mAdapter.resetIncrementalGrouping();
+        }
+        mCallLogLimit = CALL_LOG_PAGE_SIZE;
     }
 
     @Override
@@ -1111,7 +1707,10 @@ public class RecentCallsListActivity extends ListActivity
             mDisplayPhotos = ePrefs.getBoolean("cl_show_pic", true);
             showDialButton = ePrefs.getBoolean("cl_show_dial_button", false);
 	    showGroups = ePrefs.getBoolean("cl_show_groups", true);
-            
+
+            // The grouping preference may have changed
+            mAdapter.resetIncrementalGrouping();
+
             super.onResume();
 
             startQuery();
@@ -1120,6 +1719,7 @@ public class RecentCallsListActivity extends ListActivity
             mPhotoLoader.resume();
             mAdapter.mPreDrawListener = null; // Let it restart the thread after next draw
         }
+        mAdapter.startDateLabelUpdates();
     }
 
     @Override
@@ -1128,14 +1728,20 @@ public class RecentCallsListActivity extends ListActivity
 
         // Kill the requests thread
         mAdapter.stopRequestProcessing();
+        mAdapter.stopDateLabelUpdates();
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
         mPhotoLoader.stop();
-        mAdapter.stopRequestProcessing();
+        mAdapter.shutdownRequestProcessing();
+        mAdapter.cancelContentChangeRequery();
         mAdapter.changeCursor(null);
+        mAdapter.setIncrementalGrouping(false);
+        if (mCallLogIndexLoader != null) {
+            mCallLogIndexLoader.cancel(false);
+        }
     }
 
     @Override
@@ -1160,18 +1766,29 @@ public class RecentCallsListActivity extends ListActivity
         }
     }
 
+    /**
+     * Returns the formatting type for the current {@link Locale}, caching it in
+     * {@link #sFormattingType}.
+     */
+    private static int getFormattingType() {
+        int formattingType = sFormattingType;
+        if (formattingType == FORMATTING_TYPE_INVALID) {
+            formattingType = PhoneNumberUtils.getFormatTypeForLocale(Locale.getDefault());
+            sFormattingType = formattingType;
+        }
+        return formattingType;
+    }
+
     /**
      * Format the given phone number using
-     * {@link PhoneNumberUtils#formatNumber(android.text.Editable, int)}. This
-     * helper method uses {@link #sEditable} and {@link #sFormattingType} to
-     * prevent allocations between multiple calls.
-     * <p>
-     * Because of the shared {@link #sEditable} builder, <b>this method is not
-     * thread safe</b>, and should only be called from the GUI thread.
+     * {@link PhoneNumberUtils#formatNumber(android.text.Editable, int)}. The
+     * supplied builder is reused to prevent allocations between multiple calls,
+     * so callers on different threads need to pass in their own.
      * <p>
      * If the given String object is null or empty, return an empty String.
      */
-    private String formatPhoneNumber(String number) {
+    private static String formatPhoneNumber(String number, SpannableStringBuilder builder,
+            int formattingType) {
         if (TextUtils.isEmpty(number)) {
             return "";
         }
@@ -1181,16 +1798,11 @@ public class RecentCallsListActivity extends ListActivity
             return number;
         }
 
-        // Cache formatting type if not already present
-        if (sFormattingType == FORMATTING_TYPE_INVALID) {
-            sFormattingType = PhoneNumberUtils.getFormatTypeForLocale(Locale.getDefault());
-        }
-
-        sEditable.clear();
-        sEditable.append(number);
+        builder.clear();
+        builder.append(number);
 
-        PhoneNumberUtils.formatNumber(sEditable, sFormattingType);
-        return sEditable.toString();
+        PhoneNumberUtils.formatNumber(builder, formattingType);
+        return builder.toString();
     }
 
     private void resetNewCallsFlag() {
@@ -1210,8 +1822,157 @@ public class RecentCallsListActivity extends ListActivity
 
         // Cancel any pending queries
         mQueryHandler.cancelOperation(QUERY_TOKEN);
+        mQueryHandler.cancelOperation(PAGE_QUERY_TOKEN);
+        mLoadingMoreCalls = false;
+
+        if (query != null) {
+            if (mCallLogIndexValid) {
+                mQueryHandler.onQueryComplete(QUERY_TOKEN, mCallLogIndex, queryCallLogIndex());
+                return;
+            }
+            if (mCallLogIndex == null && mCallLogIndexLoader == null) {
+                loadCallLogIndex();
+            }
+        }
+
+        // Only load the most recent calls, and as many pages of older ones as the
+        // user has scrolled to
         mQueryHandler.startQuery(QUERY_TOKEN, null, Calls.CONTENT_URI,
-                CALL_LOG_PROJECTION, query, null, Calls.DEFAULT_SORT_ORDER);
+                CALL_LOG_PROJECTION, query, mQueryArgs,
+                CALL_LOG_SORT_ORDER + " LIMIT " + mCallLogLimit);
+    }
+
+    /**
+     * Loads the page of calls that follows the loaded ones.  It is selected by the
+     * date and id of the call it starts with rather than by an offset, so calls
+     * added in the meantime do not shift it.  The page starts with the calls whose
+     * grouping depends on the calls below them, which are grouped again along with
+     * the new ones, see {@link GroupingListAdapter#getAppendPosition}.
+     */
+    private void startPageQuery() {
+        Cursor cursor = mAdapter.getCursor();
+        int start = mAdapter.getAppendPosition();
+        if (cursor == null || !cursor.moveToPosition(start)) {
+            mLoadingMoreCalls = false;
+            return;
+        }
+
+        String date = String.valueOf(cursor.getLong(DATE_COLUMN_INDEX));
+        String selection = Calls.DATE + "<? OR (" + Calls.DATE + "=? AND "
+                + Calls._ID + "<=?)";
+        String[] selectionArgs = new String[] {
+                date, date, String.valueOf(cursor.getLong(ID_COLUMN_INDEX)) };
+        if (query != null) {
+            selection = query + " AND (" + selection + ")";
+            String[] args = new String[mQueryArgs.length + selectionArgs.length];
+            System.arraycopy(mQueryArgs, 0, args, 0, mQueryArgs.length);
+            System.arraycopy(selectionArgs, 0, args, mQueryArgs.length, selectionArgs.length);
+            selectionArgs = args;
+        }
+
+        Integer limit = cursor.getCount() - start + CALL_LOG_PAGE_SIZE;
+        mQueryHandler.startQuery(PAGE_QUERY_TOKEN, limit, Calls.CONTENT_URI,
+                CALL_LOG_PROJECTION, selection, selectionArgs,
+                CALL_LOG_SORT_ORDER + " LIMIT " + limit);
+    }
+
+    /**
+     * Returns the calls of the filtered log as found in the {@link CallLogIndex}.
+     */
+    private Cursor queryCallLogIndex() {
+        Cursor cursor = mFilterName != null
+                ? mCallLogIndex.queryByName(mFilterName)
+                : mCallLogIndex.queryByNumber(mFilterNumber);
+
+        // Check the index again as soon as the call log changes
+        cursor.setNotificationUri(getContentResolver(), Calls.CONTENT_URI);
+        return cursor;
+    }
+
+    /**
+     * Reads the whole call log in the background, into a new {@link CallLogIndex}
+     * unless the current one still matches it.
+     */
+    private void loadCallLogIndex() {
+        if (mCallLogIndexLoader != null) {
+            mCallLogIndexReloadPending = true;
+            return;
+        }
+        mCallLogIndexLoader = new CallLogIndexLoader(this, mCallLogIndex);
+        mCallLogIndexLoader.execute();
+    }
+
+    /**
+     * Called when the call log has changed, requeries the filtered log from the
+     * index once it has been checked against the call log.
+     */
+    void reloadCallLogIndex() {
+        mCallLogIndexValid = false;
+        mRequeryFromCallLogIndex = true;
+        loadCallLogIndex();
+    }
+
+    void onCallLogIndexLoaded(CallLogIndex index) {
+        mCallLogIndexLoader = null;
+        if (index != null) {
+            mCallLogIndex = index;
+        }
+        if (mCallLogIndexReloadPending) {
+            // The call log changed again while it was read
+            mCallLogIndexReloadPending = false;
+            loadCallLogIndex();
+            return;
+        }
+
+        mCallLogIndexValid = index != null;
+        if (mRequeryFromCallLogIndex) {
+            mRequeryFromCallLogIndex = false;
+            startQuery();
+        }
+    }
+
+    /**
+     * Reads the whole call log for {@link #mCallLogIndex}.  The filtered log is only
+     * loaded from the index when the index holds all of it, so the full log is read
+     * on its own rather than through the pages of the list.
+     */
+    private static final class CallLogIndexLoader
+            extends WeakAsyncTask<Void, Void, CallLogIndex, RecentCallsListActivity> {
+        private final CallLogIndex mPreviousIndex;
+
+        public CallLogIndexLoader(RecentCallsListActivity target, CallLogIndex previousIndex) {
+            super(target);
+            mPreviousIndex = previousIndex;
+        }
+
+        @Override
+        protected CallLogIndex doInBackground(RecentCallsListActivity target, Void... params) {
+            Cursor cursor;
+            try {
+                cursor = target.getContentResolver().query(Calls.CONTENT_URI,
+                        CALL_LOG_PROJECTION, null, null, CALL_LOG_SORT_ORDER);
+            } catch (SQLiteException e) {
+                Log.w(TAG, "Exception while reading the call log", e);
+                return null;
+            }
+            if (cursor == null) {
+                return null;
+            }
+
+            try {
+                if (mPreviousIndex != null && mPreviousIndex.matches(cursor)) {
+                    return mPreviousIndex;
+                }
+                return new CallLogIndex(cursor);
+            } finally {
+                cursor.close();
+            }
+        }
+
+        @Override
+        protected void onPostExecute(RecentCallsListActivity target, CallLogIndex index) {
+            target.onCallLogIndexLoaded(index);
+        }
     }
 
     @Override
@@ -1634,8 +2395,17 @@ public class RecentCallsListActivity extends ListActivity
         try {
 	    if (query != null && where != null) {
                 where = where + " AND " + query;
+                if (selArgs == null) {
+                    selArgs = mQueryArgs;
+                } else {
+                    String[] args = new String[selArgs.length + mQueryArgs.length];
+                    System.arraycopy(selArgs, 0, args, 0, selArgs.length);
+                    System.arraycopy(mQueryArgs, 0, args, selArgs.length, mQueryArgs.length);
+                    selArgs = args;
+                }
             } else if (query != null) {
                 where = query;
+                selArgs = mQueryArgs;
             }
             getContentResolver().delete(Calls.CONTENT_URI, where, selArgs);
             // TODO The change notification should do this automatically, but it isn't working
@@ -21,7 +21,6 @@ import android.content.DialogInterface;
 import android.app.Activity;
 import android.content.ContentValues;
 import android.content.Intent;
-import android.database.Cursor;
 import android.os.Bundle;
 import android.provider.ContactsContract;
 import android.provider.ContactsContract.CommonDataKinds.Photo;
@@ -45,8 +44,10 @@ public class SpeedDialGrid extends Activity {
 
     /* Key id pressed */
     private int mKeyIdClicked;
-    /* Database cursor  */
-    private Cursor mSpeeDialCursor = null;
+    /* Speed dial assignments, loaded in the background */
+    private SpeedDialRegistry mSpeedDials;
+    /* Whether the maps hold the assignments */
+    private boolean mSpeedDialsLoaded;
     /* speed dial grid */
     private GridView mGridMain;
     /* Dialog box */
@@ -57,6 +58,8 @@ public class SpeedDialGrid extends Activity {
     private Map<Integer, Integer> mKeyIdPhoneTypeDrawableIdHashMap;
     /* Map to hold key id and photo id.  */
     private Map<Integer, Long> mKeyIdPhotoIdHashMap;
+    /* Adapter of the speed dial grid */
+    private SpeedDialGridAdapter mGridAdapter;
     /* Data intent is send from view contact activity. */
     private Intent mDataIntent;
     /* PhotoLoader loads photos and maintain cache of photos. */
@@ -64,6 +67,14 @@ public class SpeedDialGrid extends Activity {
     /* Maximum entries supported in speed dial grid, 1-9 */
     private static final int SPEED_DIAL_MAX_ENTRIES = 8;
     private static final String EMPTY=" Empty ";
+
+    private final SpeedDialRegistry.Listener mSpeedDialListener =
+            new SpeedDialRegistry.Listener() {
+        public void onSpeedDialsLoaded(SpeedDialRegistry.Entries entries) {
+            updateHashMapWithData(entries);
+        }
+    };
+
     /**
      * Called when the Activity is created.
      * @param aSavedInstanceState Bundle which maintains the Activity state.
@@ -79,6 +90,13 @@ public class SpeedDialGrid extends Activity {
         mGridMain = (GridView) findViewById(R.id.GridView01);
         mDataIntent = getIntent();
 
+        mKeyIdContactNameHashMap = new HashMap<Integer, String>();
+        mKeyIdPhoneTypeDrawableIdHashMap = new HashMap<Integer, Integer>();
+        mKeyIdPhotoIdHashMap = new HashMap<Integer, Long>();
+        mGridAdapter = new SpeedDialGridAdapter();
+        mGridMain.setAdapter(mGridAdapter);
+        mSpeedDials = SpeedDialRegistry.getInstance(this);
+
         DialogInterface.OnClickListener proceedListener = new DialogInterface.OnClickListener() {
 
             public void onClick(DialogInterface dialog, int which) {
@@ -122,26 +140,22 @@ public class SpeedDialGrid extends Activity {
 
         mPhotoLoader.resume();
 
-        if (mSpeeDialCursor == null) {
-            mSpeeDialCursor =
-                    getContentResolver().query(ContactsContract.SpeedDial.CONTENT_URI,
-                    new String [] {ContactsContract.SpeedDial.KEY_ID,
-                    ContactsContract.SpeedDial.PHONE_ID,
-                    ContactsContract.Contacts.DISPLAY_NAME,
-                    ContactsContract.SpeedDial.PHONE_TYPE,
-                    ContactsContract.SpeedDial.PHONE_NUMBER,
-                    ContactsContract.Contacts.PHOTO_ID},
-                    null,
-                    null,
-                    ContactsContract.SpeedDial.KEY_ID);
-        }
-        else {
-            mSpeeDialCursor.requery();
+        // If the assignments are not loaded yet, the listener fills in the grid
+        mSpeedDials.addListener(mSpeedDialListener);
+        SpeedDialRegistry.Entries entries = mSpeedDials.getEntries();
+        if (entries != null) {
+            updateHashMapWithData(entries);
+        } else {
+            // The maps may be out of date until the listener is called
+            mSpeedDialsLoaded = false;
         }
-        updateHashMapWithData(mSpeeDialCursor);
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
 
-        SpeedDialGridAdapter gridAdapter = new SpeedDialGridAdapter();
-        mGridMain.setAdapter(gridAdapter);
+        mSpeedDials.removeListener(mSpeedDialListener);
     }
 
     private void showDialog() {
@@ -156,74 +170,26 @@ public class SpeedDialGrid extends Activity {
         super.onDestroy();
 
         mPhotoLoader.stop();
-        if (mSpeeDialCursor != null) {
-            mSpeeDialCursor.close();
-        }
     }
 
     /**
      * Maintains key id and Name in a KeyIdContactNameHashMap.
      * and also maintains key id and PhoneTypeDrawableId in a KeyIdPhoneTypeDrawableIdHashMap.
      */
-    private void updateHashMapWithData(Cursor cursor) {
-
-        if (cursor != null) {
-            if (null == mKeyIdContactNameHashMap) {
-                mKeyIdContactNameHashMap = new HashMap<Integer, String>();
-            } else {
-                mKeyIdContactNameHashMap.clear();
-            }
-
-            if (mKeyIdPhoneTypeDrawableIdHashMap == null) {
-                mKeyIdPhoneTypeDrawableIdHashMap = new HashMap<Integer, Integer>();
-            } else {
-                mKeyIdPhoneTypeDrawableIdHashMap.clear();
-            }
-
-            if(mKeyIdPhotoIdHashMap == null){
-                mKeyIdPhotoIdHashMap = new HashMap<Integer, Long>();
-            } else {
-                mKeyIdPhotoIdHashMap.clear();
-            }
-            startQueryAction(cursor);
-        }
-    }
-
-    /**
-    * Populate the map and ArrayList with data from Speed Dial database
-    */
-    private void startQueryAction(Cursor speedDialCursor) {
-
-        if(speedDialCursor != null) {
-            while(speedDialCursor.moveToNext()) {
-
-                int keyId = speedDialCursor.getInt(speedDialCursor
-                        .getColumnIndex(ContactsContract.SpeedDial.KEY_ID));
-
-                int phoneType = speedDialCursor.getInt(speedDialCursor
-                       .getColumnIndex(ContactsContract.SpeedDial.PHONE_TYPE));
-
-                int phoneTypeId = getPhoneTypeDrawableIdBasedOnPhoneType(phoneType);
-
-                String displayName = speedDialCursor.getString(speedDialCursor
-                        .getColumnIndex(ContactsContract.Contacts.DISPLAY_NAME));
-
-                Long photoId = speedDialCursor.getLong(speedDialCursor
-                        .getColumnIndex(ContactsContract.Contacts.PHOTO_ID));
-
-                if(photoId != null) {
-                    mKeyIdPhotoIdHashMap.put(keyId ,photoId);
-                } else {
-                    mKeyIdPhotoIdHashMap.put(keyId ,null);
-                }
-
-                mKeyIdContactNameHashMap.put(keyId, displayName);
-                mKeyIdPhoneTypeDrawableIdHashMap.put(keyId, phoneTypeId);
-            }
-
-            speedDialCursor.close();
+    private void updateHashMapWithData(SpeedDialRegistry.Entries entries) {
+        mKeyIdContactNameHashMap.clear();
+        mKeyIdPhoneTypeDrawableIdHashMap.clear();
+        mKeyIdPhotoIdHashMap.clear();
+
+        for (SpeedDialRegistry.Entry entry : entries.getAll()) {
+            mKeyIdPhotoIdHashMap.put(entry.keyId, entry.photoId);
+            mKeyIdContactNameHashMap.put(entry.keyId, entry.displayName);
+            mKeyIdPhoneTypeDrawableIdHashMap.put(entry.keyId,
+                    getPhoneTypeDrawableIdBasedOnPhoneType(entry.phoneType));
         }
 
+        mSpeedDialsLoaded = true;
+        mGridAdapter.notifyDataSetChanged();
     }
 
     /**
@@ -341,6 +307,11 @@ public class SpeedDialGrid extends Activity {
          */
         public void onClick(View view) {
 
+            if (!mSpeedDialsLoaded || mSpeedDials.getEntries() == null) {
+                // Cannot tell yet whether the key is assigned
+                return;
+            }
+
             int position = mGridMain.getPositionForView(view);
             mKeyIdClicked = position + 1;
             mKeyIdClicked++;
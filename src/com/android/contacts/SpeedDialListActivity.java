@@ -23,7 +23,6 @@ import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
-import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
 import android.provider.ContactsContract;
@@ -68,8 +67,10 @@ public class SpeedDialListActivity extends ListActivity implements
     protected Uri mLookupUri;
     //Layout inflater
     protected LayoutInflater mInflater;
-    // Cursor pointing to the result set from database
-    private Cursor mSpeeDialCursor;
+    // Speed dial assignments, loaded in the background
+    private SpeedDialRegistry mSpeedDials;
+    // Adapter of the speed dial list
+    private SpeedDialAdapter mAdapter;
     // Map to hold key id and contact name
     private HashMap<Integer, String> mKeydisplayName;
     // Map to hold key id and contact id
@@ -97,6 +98,13 @@ public class SpeedDialListActivity extends ListActivity implements
 
     private static final int VOICE_MAIL_POSITION = 0;
 
+    private final SpeedDialRegistry.Listener mSpeedDialListener =
+            new SpeedDialRegistry.Listener() {
+        public void onSpeedDialsLoaded(SpeedDialRegistry.Entries entries) {
+            initializeData(entries);
+        }
+    };
+
     /**
      * onDestroy called when the Activity is destroyed.
      */
@@ -104,9 +112,6 @@ public class SpeedDialListActivity extends ListActivity implements
 
         super.onDestroy();
         mPhotoLoader.stop();
-        if (mSpeeDialCursor != null) {
-            mSpeeDialCursor.close();
-        }
     }
 
     /**
@@ -123,6 +128,17 @@ public class SpeedDialListActivity extends ListActivity implements
         mPhotoLoader = new ContactPhotoLoader(this,
                 R.drawable.ic_contact_list_picture);
 
+        mKeydisplayName = new HashMap<Integer, String>();
+        mKeyId = new ArrayList<Integer>();
+        mKeyContactId = new HashMap<Integer, Long>();
+        mKeyIdPhoneTypeDrawableIdHashMap = new HashMap<Integer, Integer>();
+        mKeyIdPhoneNumberMap = new HashMap<Integer, String>();
+        mKeyIdPhotoIdHashMap = new HashMap<Integer, Long>();
+        addVoicemail();
+        mAdapter = new SpeedDialAdapter(this);
+        setListAdapter(mAdapter);
+        mSpeedDials = SpeedDialRegistry.getInstance(this);
+
         DialogInterface.OnClickListener proceedListener = new DialogInterface.OnClickListener() {
             public void onClick(DialogInterface dialog, int which) {
                 getContentResolver().delete(ContactsContract.SpeedDial.CONTENT_URI,
@@ -159,12 +175,13 @@ public class SpeedDialListActivity extends ListActivity implements
 
         mPhotoLoader.resume();
 
-        speedDialListQuery();
-        initializeData(mSpeeDialCursor);
+        // If the assignments are not loaded yet, the listener fills in the list
+        mSpeedDials.addListener(mSpeedDialListener);
+        SpeedDialRegistry.Entries entries = mSpeedDials.getEntries();
+        if (entries != null) {
+            initializeData(entries);
+        }
         setTitle(R.string.speed_dial_list_title);
-        SpeedDialListActivity.SpeedDialAdapter speedAdapter;
-        speedAdapter = new SpeedDialListActivity.SpeedDialAdapter(this);
-        setListAdapter(speedAdapter);
 
         SharedPreferences prefs = getSharedPreferences(
                 getString(R.string.speed_dial), MODE_WORLD_READABLE);
@@ -177,104 +194,50 @@ public class SpeedDialListActivity extends ListActivity implements
         }
     }
 
-    private void speedDialListQuery() {
-            mSpeeDialCursor = getContentResolver().query(
-                    ContactsContract.SpeedDial.CONTENT_URI,
-                    new String[] { ContactsContract.SpeedDial.KEY_ID,
-                    ContactsContract.Contacts.DISPLAY_NAME,
-                    ContactsContract.SpeedDial.PHONE_TYPE,
-                    ContactsContract.Contacts.PHOTO_ID,
-                    ContactsContract.Data.CONTACT_ID,
-                    ContactsContract.SpeedDial.PHONE_NUMBER},
-                    null, null, ContactsContract.SpeedDial.KEY_ID);
+    /**
+     * onPause called when the SpeedDialListActivity goes in the background.
+     */
+    protected void onPause() {
+        super.onPause();
+
+        mSpeedDials.removeListener(mSpeedDialListener);
     }
 
     /**
      * method to initialize the map and ArrayList
      */
-    private void initializeData(Cursor cursor) {
+    private void initializeData(SpeedDialRegistry.Entries entries) {
         Log.i(TAG, "initializeData");
-        if (cursor != null) {
-
-            if (mKeydisplayName == null && mKeyId == null) {
-                mKeydisplayName = new HashMap<Integer, String>();
-                mKeyId = new ArrayList<Integer>();
-            } else {
-                mKeydisplayName.clear();
-                mKeyId.clear();
-            }
-
-            if (mKeyContactId == null) {
-                mKeyContactId = new HashMap<Integer, Long>();
-            } else {
-                mKeyContactId.clear();
-            }
-
-            if (mKeyIdPhoneTypeDrawableIdHashMap == null && mKeyIdPhoneNumberMap == null) {
-                mKeyIdPhoneTypeDrawableIdHashMap = new HashMap<Integer, Integer>();
-                mKeyIdPhoneNumberMap=new HashMap<Integer, String>();
-            } else {
-                mKeyIdPhoneTypeDrawableIdHashMap.clear();
-                mKeyIdPhoneNumberMap.clear();
-            }
-
-            if (mKeyIdPhotoIdHashMap == null) {
-                mKeyIdPhotoIdHashMap = new HashMap<Integer, Long>();
-            } else {
-                mKeyIdPhotoIdHashMap.clear();
-            }
-
-            mKeydisplayName.put(VOICE_MAIL_GRID, VOICE_MAIL);
-            mKeyId.add(VOICE_MAIL_GRID);
-            mKeyIdPhoneTypeDrawableIdHashMap.put(VOICE_MAIL_GRID, VOICE_MAIL_POSITION);
-            mKeyIdPhotoIdHashMap.put(VOICE_MAIL_GRID, null);
-            mKeyContactId.put(VOICE_MAIL_GRID, null);
+        mKeydisplayName.clear();
+        mKeyId.clear();
+        mKeyContactId.clear();
+        mKeyIdPhoneTypeDrawableIdHashMap.clear();
+        mKeyIdPhoneNumberMap.clear();
+        mKeyIdPhotoIdHashMap.clear();
+        addVoicemail();
+
+        for (SpeedDialRegistry.Entry entry : entries.getAll()) {
+            int keyId = entry.keyId;
+            mKeyId.add(keyId);
+            mKeydisplayName.put(keyId, entry.displayName);
+            mKeyIdPhoneTypeDrawableIdHashMap.put(keyId,
+                    getPhoneTypeDrawableIdBasedOnPhoneType(entry.phoneType));
+            mKeyIdPhotoIdHashMap.put(keyId, entry.photoId);
+            mKeyContactId.put(keyId, entry.contactId);
+            mKeyIdPhoneNumberMap.put(keyId, entry.phoneNumber);
         }
-        startQueryAction(cursor);
+        mAdapter.notifyDataSetChanged();
     }
 
     /**
-     * populate the map and ArrayList with data from database
+     * Adds the voicemail row, which is always first
      */
-    private void startQueryAction(Cursor cursor) {
-        Log.i(TAG, "startQueryAction");
-        if (cursor != null) {
-            while (cursor.moveToNext()) {
-
-                int keyId = cursor.getInt(cursor
-                        .getColumnIndex(ContactsContract.SpeedDial.KEY_ID));
-
-                String displayname = cursor.getString(cursor
-                        .getColumnIndex(ContactsContract.Contacts.DISPLAY_NAME));
-
-                int phoneType = cursor.getInt(cursor
-                        .getColumnIndex(ContactsContract.SpeedDial.PHONE_TYPE));
-
-                Long photoId = cursor.getLong(cursor
-                        .getColumnIndex(ContactsContract.Contacts.PHOTO_ID));
-
-                Long contactId = cursor.getLong(cursor
-                        .getColumnIndex(ContactsContract.Data.CONTACT_ID));
-
-                String phoneNumber = cursor.getString(cursor
-                        .getColumnIndex(ContactsContract.SpeedDial.PHONE_NUMBER));
-
-                if (photoId != null) {
-                    mKeyIdPhotoIdHashMap.put(keyId, photoId);
-                } else {
-                    mKeyIdPhotoIdHashMap.put(keyId, null);
-                }
-                int lStringId = getPhoneTypeDrawableIdBasedOnPhoneType(phoneType);
-                mKeyId.add(keyId);
-                mKeydisplayName.put(keyId, displayname);
-                mKeyIdPhoneTypeDrawableIdHashMap.put(keyId, lStringId);
-                mKeyContactId.put(keyId, contactId);
-                mKeyIdPhoneNumberMap.put(keyId,phoneNumber);
-            }
-
-            //Close the cursor after reading the data
-            cursor.close();
-        }
+    private void addVoicemail() {
+        mKeydisplayName.put(VOICE_MAIL_GRID, VOICE_MAIL);
+        mKeyId.add(VOICE_MAIL_GRID);
+        mKeyIdPhoneTypeDrawableIdHashMap.put(VOICE_MAIL_GRID, VOICE_MAIL_POSITION);
+        mKeyIdPhotoIdHashMap.put(VOICE_MAIL_GRID, null);
+        mKeyContactId.put(VOICE_MAIL_GRID, null);
     }
 
     /**
@@ -582,19 +545,20 @@ public class SpeedDialListActivity extends ListActivity implements
      * Deletes selected speed dial from the context menu .
      */
     private void deleteFromSpeedDail(int position) {
+        int keyId = mKeyId.get(position);
         getContentResolver().delete(ContactsContract.SpeedDial.CONTENT_URI,
                 ContactsContract.SpeedDial.KEY_ID + "= ?",
-                new String[] { Integer.toString(mKeyId.get(position)) });
-        //((BaseAdapter) getListAdapter()).notifyDataSetChanged();
-
-        mPhotoLoader.resume();
-
-        speedDialListQuery();
-        initializeData(mSpeeDialCursor);
-
-        SpeedDialListActivity.SpeedDialAdapter speedAdapter;
-        speedAdapter = new SpeedDialListActivity.SpeedDialAdapter(this);
-        setListAdapter(speedAdapter);
+                new String[] { Integer.toString(keyId) });
+
+        // Remove the row right away, the listener is called again once the
+        // assignments are loaded again
+        mKeyId.remove(position);
+        mKeydisplayName.remove(keyId);
+        mKeyContactId.remove(keyId);
+        mKeyIdPhoneTypeDrawableIdHashMap.remove(keyId);
+        mKeyIdPhoneNumberMap.remove(keyId);
+        mKeyIdPhotoIdHashMap.remove(keyId);
+        mAdapter.notifyDataSetChanged();
     }
 
     /*
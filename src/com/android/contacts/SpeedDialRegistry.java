@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.provider.ContactsContract.Contacts;
+import android.provider.ContactsContract.Data;
+import android.provider.ContactsContract.SpeedDial;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Process-wide registry of the speed dial assignments, so that the screens showing
+ * them do not have to query them one phone number or key at a time.
+ * <p>
+ * The assignments are loaded on a background thread, and loaded again as soon as
+ * they, or the names and photos of the contacts they belong to, change.  Until
+ * they are first loaded, lookups return null and callers have to query the
+ * assignments themselves, or wait for the {@link Listener} to be called.  While
+ * they are loaded again, the previous ones are returned.
+ */
+final class SpeedDialRegistry {
+    private static final String TAG = "SpeedDialRegistry";
+
+    /**
+     * Delay before the assignments are loaded again after a change, so that the
+     * changes made by one action only cause one load.
+     */
+    private static final long RELOAD_DELAY_MS = 100;
+
+    private static final String[] SPEED_DIAL_PROJECTION = new String[] {
+        SpeedDial.KEY_ID,
+        SpeedDial.PHONE_ID,
+        Data.CONTACT_ID,
+        Contacts.DISPLAY_NAME,
+        SpeedDial.PHONE_TYPE,
+        SpeedDial.PHONE_NUMBER,
+        Contacts.PHOTO_ID,
+    };
+
+    private static final int KEY_ID_COLUMN_INDEX = 0;
+    private static final int PHONE_ID_COLUMN_INDEX = 1;
+    private static final int CONTACT_ID_COLUMN_INDEX = 2;
+    private static final int DISPLAY_NAME_COLUMN_INDEX = 3;
+    private static final int PHONE_TYPE_COLUMN_INDEX = 4;
+    private static final int PHONE_NUMBER_COLUMN_INDEX = 5;
+    private static final int PHOTO_ID_COLUMN_INDEX = 6;
+
+    /**
+     * The assignment of one key.
+     */
+    public static final class Entry {
+        public final int keyId;
+        public final long phoneId;
+        public final long contactId;
+        public final String displayName;
+        public final int phoneType;
+        public final String phoneNumber;
+        /** The id of the photo of the contact, 0 if it has none */
+        public final long photoId;
+
+        Entry(int keyId, long phoneId, long contactId, String displayName, int phoneType,
+                String phoneNumber, long photoId) {
+            this.keyId = keyId;
+            this.phoneId = phoneId;
+            this.contactId = contactId;
+            this.displayName = displayName;
+            this.phoneType = phoneType;
+            this.phoneNumber = phoneNumber;
+            this.photoId = photoId;
+        }
+    }
+
+    /**
+     * All assignments, as they were when they were loaded.
+     */
+    public static final class Entries {
+        private final List<Entry> mEntries;
+        private final HashMap<Integer, Entry> mByKeyId;
+        private final HashMap<Long, Entry> mByPhoneId;
+
+        Entries(ArrayList<Entry> entries) {
+            mEntries = Collections.unmodifiableList(entries);
+            mByKeyId = new HashMap<Integer, Entry>(entries.size() * 2);
+            mByPhoneId = new HashMap<Long, Entry>(entries.size() * 2);
+            for (Entry entry : entries) {
+                mByKeyId.put(entry.keyId, entry);
+                mByPhoneId.put(entry.phoneId, entry);
+            }
+        }
+
+        /**
+         * Returns the assignments ordered by key.
+         */
+        public List<Entry> getAll() {
+            return mEntries;
+        }
+
+        /**
+         * Returns the assignment of a key, or null if it has none.
+         */
+        public Entry getByKeyId(int keyId) {
+            return mByKeyId.get(keyId);
+        }
+
+        /**
+         * Returns the assignment of a phone number, or null if it has none.
+         */
+        public Entry getByPhoneId(long phoneId) {
+            return mByPhoneId.get(phoneId);
+        }
+    }
+
+    /**
+     * Called on the main thread whenever the assignments have been loaded.
+     */
+    public interface Listener {
+        void onSpeedDialsLoaded(Entries entries);
+    }
+
+    private static SpeedDialRegistry sInstance;
+
+    private final Context mContext;
+    private final Handler mHandler;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final ArrayList<Listener> mListeners = new ArrayList<Listener>();
+    private volatile Entries mEntries;
+
+    /**
+     * Incremented on every change, so that a load that overlaps a change does not
+     * publish what it loaded; the load that follows the change does.  Guarded by
+     * mLock, along with the writes to mEntries, so that a change cannot slip in
+     * between the check and the publication.
+     */
+    private int mGeneration;
+    private final Object mLock = new Object();
+
+    private final Runnable mLoadRunnable = new Runnable() {
+        public void run() {
+            final int generation;
+            synchronized (mLock) {
+                generation = mGeneration;
+            }
+            final Entries entries = load();
+            if (entries == null) {
+                return;
+            }
+            synchronized (mLock) {
+                if (generation != mGeneration) {
+                    return;
+                }
+                mEntries = entries;
+            }
+            mMainHandler.post(new Runnable() {
+                public void run() {
+                    notifyListeners(entries);
+                }
+            });
+        }
+    };
+
+    private final ContentObserver mObserver = new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange) {
+            // Called on a binder thread, as soon as possible after the change
+            // The previous entries are served until the new ones are loaded
+            synchronized (mLock) {
+                mGeneration++;
+            }
+            mHandler.removeCallbacks(mLoadRunnable);
+            mHandler.postDelayed(mLoadRunnable, RELOAD_DELAY_MS);
+        }
+    };
+
+    /**
+     * Returns the registry, starting to load it if this is the first call.
+     */
+    public static synchronized SpeedDialRegistry getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SpeedDialRegistry(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private SpeedDialRegistry(Context context) {
+        mContext = context;
+        HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+        context.getContentResolver().registerContentObserver(SpeedDial.CONTENT_URI, true,
+                mObserver);
+        // The entries carry the names and photos of the contacts as well
+        context.getContentResolver().registerContentObserver(Contacts.CONTENT_URI, true,
+                mObserver);
+        mHandler.post(mLoadRunnable);
+    }
+
+    /**
+     * Returns the assignments as last loaded, or null if they are not loaded yet.
+     */
+    public Entries getEntries() {
+        return mEntries;
+    }
+
+    /**
+     * Adds a listener to be called whenever the assignments have been loaded.  Must
+     * be called on the main thread.
+     */
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    /**
+     * Must be called on the main thread.
+     */
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    private void notifyListeners(Entries entries) {
+        if (entries != mEntries) {
+            // Out of date already, the next load will call the listeners again
+            return;
+        }
+        // Listeners may remove themselves
+        for (Listener listener : new ArrayList<Listener>(mListeners)) {
+            listener.onSpeedDialsLoaded(entries);
+        }
+    }
+
+    private Entries load() {
+        Cursor cursor = null;
+        try {
+            cursor = mContext.getContentResolver().query(SpeedDial.CONTENT_URI,
+                    SPEED_DIAL_PROJECTION, null, null, SpeedDial.KEY_ID);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Cannot load speed dials", e);
+        }
+        if (cursor == null) {
+            return null;
+        }
+
+        try {
+            ArrayList<Entry> entries = new ArrayList<Entry>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                entries.add(new Entry(cursor.getInt(KEY_ID_COLUMN_INDEX),
+                        cursor.getLong(PHONE_ID_COLUMN_INDEX),
+                        cursor.getLong(CONTACT_ID_COLUMN_INDEX),
+                        cursor.getString(DISPLAY_NAME_COLUMN_INDEX),
+                        cursor.getInt(PHONE_TYPE_COLUMN_INDEX),
+                        cursor.getString(PHONE_NUMBER_COLUMN_INDEX),
+                        cursor.getLong(PHOTO_ID_COLUMN_INDEX)));
+            }
+            return new Entries(entries);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -27,7 +27,6 @@ import android.net.Uri;
 import android.os.Bundle;
 import android.provider.ContactsContract;
 import android.provider.ContactsContract.Contacts;
-import android.provider.ContactsContract.SpeedDial;
 import android.provider.ContactsContract.Intents.UI;
 import android.util.Log;
 import android.view.KeyEvent;
@@ -74,6 +73,21 @@ public class SpeedDialViewContactActivity extends Activity {
     protected Uri mLookupUri;
 
     private ListView mListView;
+
+    private SpeedDialAdapter mAdapter;
+
+    // Speed dial assignments, loaded in the background
+    private SpeedDialRegistry mSpeedDials;
+
+    private final SpeedDialRegistry.Listener mSpeedDialListener =
+            new SpeedDialRegistry.Listener() {
+        public void onSpeedDialsLoaded(SpeedDialRegistry.Entries entries) {
+            if (mAdapter != null) {
+                mAdapter.notifyDataSetChanged();
+            }
+        }
+    };
+
     /**
      * onCreate called when the Activity is created.
      * @param aSavedInstanceState Bundle which maintains the Activity state.
@@ -86,7 +100,7 @@ public class SpeedDialViewContactActivity extends Activity {
         mContactHeaderWidget = (ContactHeaderWidget) findViewById(R.id.contact_header_widget);
 
         mListView = (ListView) findViewById(R.id.contact_data);
-
+        mSpeedDials = SpeedDialRegistry.getInstance(this);
     }
     /**
      * onResume called when the SpeedDialGrid activity comes in the foreground.
@@ -95,6 +109,8 @@ public class SpeedDialViewContactActivity extends Activity {
 
         super.onResume();
 
+        mSpeedDials.addListener(mSpeedDialListener);
+
         Intent intent = getIntent();
         String contactId = intent.getStringExtra(UI.SPEED_DIAL_CONTACT_ID);
 
@@ -108,8 +124,8 @@ public class SpeedDialViewContactActivity extends Activity {
         //Get phone number and phone type for a given contact id
         getPhoneTypeAndNumber(contactId);
 
-        SpeedDialViewContactActivity.SpeedDialAdapter viewNumberAdapter = new SpeedDialAdapter();
-        mListView.setAdapter(viewNumberAdapter);
+        mAdapter = new SpeedDialAdapter();
+        mListView.setAdapter(mAdapter);
 
         //Listener for list item is clicked.
         mListView.setOnItemClickListener(new OnItemClickListener() {
@@ -272,25 +288,13 @@ private class SpeedDialAdapter extends BaseAdapter {
             holder.phoneType.setText(mPhoneType.get(position));
             holder.phoneNumber.setText(mPhoneNumber.get(position));
 
-            String phoneId = mPhoneId.get(position);
-            String whereClause = ContactsContract.SpeedDial.PHONE_ID + "= '" + phoneId + "'" ;
-
-            Cursor speeDialCursor = getContentResolver().query(SpeedDial.CONTENT_URI,
-                    new String[]{ContactsContract.SpeedDial.PHONE_ID}, whereClause, null, null);
-
-            if (speeDialCursor != null) {
-
-                if(speeDialCursor.moveToFirst()) {
-                    holder.speedDialIcon.setVisibility(View.VISIBLE);
-                }
-                else {
-                    holder.speedDialIcon.setVisibility(View.GONE);
-                }
-                speeDialCursor.close();
-            }
-            else {
+            // The listener binds again once the speed dials are loaded
+            SpeedDialRegistry.Entries speedDials = mSpeedDials.getEntries();
+            long phoneId = Long.parseLong(mPhoneId.get(position));
+            if (speedDials != null && speedDials.getByPhoneId(phoneId) != null) {
+                holder.speedDialIcon.setVisibility(View.VISIBLE);
+            } else {
                 holder.speedDialIcon.setVisibility(View.GONE);
-                speeDialCursor.close();
             }
 
             int primaryId = mIsPrimary.get(position);
@@ -312,6 +316,12 @@ private class SpeedDialAdapter extends BaseAdapter {
         public ImageView primaryIcon;
     }
 
+    protected void onPause() {
+        super.onPause();
+
+        mSpeedDials.removeListener(mSpeedDialListener);
+    }
+
     protected void onDestroy() {
         super.onDestroy();
 
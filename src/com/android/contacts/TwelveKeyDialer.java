@@ -600,6 +600,10 @@ public class TwelveKeyDialer extends Activity implements View.OnClickListener,
         // the DB is 'slow'. This call is asynchronous.
         queryLastOutgoingCall();
 
+        // Start loading the speed dials, if they are not loaded yet, so that the
+        // keys can be looked up without a query
+        SpeedDialRegistry.getInstance(this);
+
         // retrieve the DTMF tone play back setting.
         mDTMFToneEnabled = Settings.System.getInt(getContentResolver(),
                 Settings.System.DTMF_TONE_WHEN_DIALING, 1) == 1;
@@ -975,17 +979,22 @@ public class TwelveKeyDialer extends Activity implements View.OnClickListener,
      * @return Returns the Phone Number for the speed dial key.
      */
     private String getSpeedDialPhoneNumber(String keyId) {
-           String number = null;
-           String whereClause = ContactsContract.SpeedDial.KEY_ID +" = '"+keyId+"'";
-           Cursor speeDialCursor = getContentResolver().query(ContactsContract.SpeedDial.CONTENT_URI,
-                      new String[]{ContactsContract.SpeedDial.KEY_ID,
-                   ContactsContract.SpeedDial.PHONE_NUMBER}, whereClause, null, null);
-	
-           if (speeDialCursor != null) {
-               if (speeDialCursor.moveToFirst()) {
-                   number = speeDialCursor.getString(speeDialCursor.getColumnIndex(ContactsContract.SpeedDial.PHONE_NUMBER));
-            }
-               speeDialCursor.close();
+        SpeedDialRegistry.Entries speedDials = SpeedDialRegistry.getInstance(this).getEntries();
+        if (speedDials != null && TextUtils.isDigitsOnly(keyId)) {
+            SpeedDialRegistry.Entry entry = speedDials.getByKeyId(Integer.parseInt(keyId));
+            return entry != null ? entry.phoneNumber : null;
+        }
+
+        // Not loaded yet
+        String number = null;
+        Cursor speeDialCursor = getContentResolver().query(ContactsContract.SpeedDial.CONTENT_URI,
+                new String[] { ContactsContract.SpeedDial.PHONE_NUMBER },
+                ContactsContract.SpeedDial.KEY_ID + "=?", new String[] { keyId }, null);
+        if (speeDialCursor != null) {
+            if (speeDialCursor.moveToFirst()) {
+                number = speeDialCursor.getString(0);
+            }
+            speeDialCursor.close();
         }
         return number;
     }
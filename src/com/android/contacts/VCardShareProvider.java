@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.provider.ContactsContract.Contacts;
+import android.provider.OpenableColumns;
+import android.text.format.DateUtils;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Serves the vCard files written when the visible contacts are shared.  Each share
+ * gets a file of its own, so a new share does not change the file an earlier one
+ * is still reading.  The files live in the private cache directory, and the
+ * provider is not exported, so only the activity a share is sent to can read its
+ * file, through a URI permission grant.
+ */
+public class VCardShareProvider extends ContentProvider {
+
+    public static final String AUTHORITY = "com.android.contacts.vcardshare";
+
+    /**
+     * The name receivers label the attachment with.
+     */
+    private static final String DISPLAY_NAME = "contacts.vcf";
+
+    private static final String DIRECTORY_NAME = "vcard_shares";
+    private static final String FILE_PREFIX = "contacts";
+    private static final String FILE_SUFFIX = ".vcf";
+
+    /**
+     * Age after which the file of a share is deleted when the next share starts.
+     * Receivers such as mail drafts may read the file long after it was shared.
+     */
+    private static final long FILE_MAX_AGE_MS = DateUtils.DAY_IN_MILLIS;
+
+    private static final Uri CONTENT_URI = new Uri.Builder()
+            .scheme("content")
+            .authority(AUTHORITY)
+            .build();
+
+    /**
+     * Creates the file for a new share, and deletes the files of old shares.  Call
+     * from a background thread.
+     */
+    public static File createFile(Context context) throws IOException {
+        File directory = getDirectory(context);
+        File[] files = directory.listFiles();
+        if (files != null) {
+            long oldest = System.currentTimeMillis() - FILE_MAX_AGE_MS;
+            for (File file : files) {
+                if (file.lastModified() < oldest) {
+                    file.delete();
+                }
+            }
+        }
+        directory.mkdirs();
+        return File.createTempFile(FILE_PREFIX, FILE_SUFFIX, directory);
+    }
+
+    /**
+     * Returns the URI of the file of a share, to be sent with
+     * {@link android.content.Intent#FLAG_GRANT_READ_URI_PERMISSION}.
+     */
+    public static Uri getUri(File file) {
+        return Uri.withAppendedPath(CONTENT_URI, file.getName());
+    }
+
+    private static File getDirectory(Context context) {
+        return new File(context.getCacheDir(), DIRECTORY_NAME);
+    }
+
+    /**
+     * Returns the file a URI of this provider refers to, or null if it does not
+     * refer to a file of a share.
+     */
+    private File getFile(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() != 1) {
+            return null;
+        }
+        String name = segments.get(0);
+        if (!name.startsWith(FILE_PREFIX) || !name.endsWith(FILE_SUFFIX)) {
+            return null;
+        }
+        File file = new File(getDirectory(getContext()), name);
+        return file.isFile() ? file : null;
+    }
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        return Contacts.CONTENT_VCARD_TYPE;
+    }
+
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        File file = getFile(uri);
+        if (file == null || !"r".equals(mode)) {
+            throw new FileNotFoundException(uri.toString());
+        }
+        return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+    }
+
+    /**
+     * Returns the name and size of a file, which receivers use to label the
+     * attachment.
+     */
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection,
+            String[] selectionArgs, String sortOrder) {
+        File file = getFile(uri);
+        if (file == null) {
+            return null;
+        }
+        if (projection == null) {
+            projection = new String[] { OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE };
+        }
+        MatrixCursor cursor = new MatrixCursor(projection, 1);
+        Object[] row = new Object[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            if (OpenableColumns.DISPLAY_NAME.equals(projection[i])) {
+                row[i] = DISPLAY_NAME;
+            } else if (OpenableColumns.SIZE.equals(projection[i])) {
+                row[i] = file.length();
+            }
+        }
+        cursor.addRow(row);
+        return cursor;
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection,
+            String[] selectionArgs) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException();
+    }
+}
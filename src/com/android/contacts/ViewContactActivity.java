@@ -15,14 +15,14 @@
  */
 
 package com.android.contacts;
-import com.android.contacts.Collapser.Collapsible;
+import com.android.contacts.Collapser.KeyedCollapsible;
 import com.android.contacts.model.ContactsSource;
 import com.android.contacts.model.Sources;
 import com.android.contacts.model.ContactsSource.DataKind;
 import com.android.contacts.ui.EditContactActivity;
 import com.android.contacts.util.Constants;
 import com.android.contacts.util.DataStatus;
-import com.android.contacts.util.NotifyingAsyncQueryHandler;
+import com.android.contacts.util.WeakAsyncTask;
 import com.android.internal.telephony.ITelephony;
 import com.android.internal.widget.ContactHeaderWidget;
 import com.google.android.collect.Lists;
@@ -48,7 +48,6 @@ import android.graphics.drawable.Drawable;
 import android.net.ParseException;
 import android.net.Uri;
 import android.net.WebAddress;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.RemoteException;
@@ -72,7 +71,6 @@ import android.provider.ContactsContract.CommonDataKinds.SipAddress;
 import android.provider.ContactsContract.CommonDataKinds.StructuredPostal;
 import android.provider.ContactsContract.CommonDataKinds.Website;
 import android.provider.ContactsContract.Intents.UI;
-import android.provider.ContactsContract.SpeedDial;
 import android.provider.Settings;
 import android.telephony.PhoneNumberUtils;
 import android.text.TextUtils;
@@ -99,8 +97,6 @@ import java.util.HashMap;
 import java.util.List;
 
 //Wysie
-import android.content.pm.PackageManager;
-import android.content.pm.ResolveInfo;
 import android.content.SharedPreferences;
 import android.preference.PreferenceManager;
 
@@ -114,7 +110,7 @@ import com.android.contacts.util.EarDetector.EarDetectorListener;
  */
 public class ViewContactActivity extends Activity
         implements View.OnCreateContextMenuListener, DialogInterface.OnClickListener,
-        AdapterView.OnItemClickListener, NotifyingAsyncQueryHandler.AsyncQueryListener, EarDetectorListener {
+        AdapterView.OnItemClickListener, EarDetectorListener {
     private static final String TAG = "ViewContact";
 
     private static final boolean SHOW_SEPARATORS = false;
@@ -147,21 +143,12 @@ public class ViewContactActivity extends Activity
      */
     private ArrayList<Long> mRawContactIds = new ArrayList<Long>();
 
-    /* package */ ArrayList<ViewEntry> mPhoneEntries = new ArrayList<ViewEntry>();
-    /* package */ ArrayList<ViewEntry> mSmsEntries = new ArrayList<ViewEntry>();
-    /* package */ ArrayList<ViewEntry> mEmailEntries = new ArrayList<ViewEntry>();
-    /* package */ ArrayList<ViewEntry> mPostalEntries = new ArrayList<ViewEntry>();
-    /* package */ ArrayList<ViewEntry> mImEntries = new ArrayList<ViewEntry>();
-    /* package */ ArrayList<ViewEntry> mNicknameEntries = new ArrayList<ViewEntry>();
-    /* package */ ArrayList<ViewEntry> mOrganizationEntries = new ArrayList<ViewEntry>();
-    /* package */ ArrayList<ViewEntry> mGroupEntries = new ArrayList<ViewEntry>();
-    /* package */ ArrayList<ViewEntry> mOtherEntries = new ArrayList<ViewEntry>();
     /* package */ ArrayList<ArrayList<ViewEntry>> mSections = new ArrayList<ArrayList<ViewEntry>>();
 
     private Cursor mCursor;
 
     protected ContactHeaderWidget mContactHeaderWidget;
-    private NotifyingAsyncQueryHandler mHandler;
+    private DetailsLoader mDetailsLoader;
 
     protected LayoutInflater mInflater;
 
@@ -173,18 +160,9 @@ public class ViewContactActivity extends Activity
 
     protected ArrayList<Long> mWritableRawContactIds = new ArrayList<Long>();
 
-    private static final int TOKEN_ENTITIES = 0;
-    private static final int TOKEN_STATUSES = 1;
-
-    private boolean mHasEntities = false;
-    private boolean mHasStatuses = false;
-
     private long mNameRawContactId = -1;
     private int mDisplayNameSource = DisplayNameSources.UNDEFINED;
 
-    private ArrayList<Entity> mEntities = Lists.newArrayList();
-    private HashMap<Long, DataStatus> mStatuses = Maps.newHashMap();
-
     /**
      * The view shown if the detail list is empty.
      * We set this to the list view when first bind the adapter, so that it won't be shown while
@@ -212,6 +190,17 @@ public class ViewContactActivity extends Activity
         finish();
     }
 
+    private SpeedDialRegistry mSpeedDials;
+
+    private final SpeedDialRegistry.Listener mSpeedDialListener =
+            new SpeedDialRegistry.Listener() {
+        public void onSpeedDialsLoaded(SpeedDialRegistry.Entries entries) {
+            if (mAdapter != null) {
+                mAdapter.notifyDataSetChanged();
+            }
+        }
+    };
+
     private ListView mListView;
     private boolean mShowSmsLinksForAllPhones;    
     
@@ -250,8 +239,6 @@ public class ViewContactActivity extends Activity
         });
         mContactHeaderWidget.setSelectedContactsAppTabIndex(StickyTabs.getTab(getIntent()));
 
-        mHandler = new NotifyingAsyncQueryHandler(this, this);
-
         mListView = (ListView) findViewById(R.id.contact_data);
         mListView.setOnCreateContextMenuListener(this);
         mListView.setScrollBarStyle(ListView.SCROLLBARS_OUTSIDE_OVERLAY);
@@ -261,17 +248,8 @@ public class ViewContactActivity extends Activity
 
         mResolver = getContentResolver();
 
-        // Build the list of sections. The order they're added to mSections dictates the
-        // order they are displayed in the list.
-        mSections.add(mPhoneEntries);
-        mSections.add(mSmsEntries);
-        mSections.add(mEmailEntries);
-        mSections.add(mImEntries);
-        mSections.add(mPostalEntries);
-        mSections.add(mNicknameEntries);
-        mSections.add(mOrganizationEntries);
-        mSections.add(mGroupEntries);
-        mSections.add(mOtherEntries);
+        // Start resolving the common actions, shared with QuickContact
+        IntentResolveCache.getInstance(this);
 
         //TODO Read this value from a preference
         //mShowSmsLinksForAllPhones = true;
@@ -300,6 +278,8 @@ public class ViewContactActivity extends Activity
         //Wysie: Read from preference
         mShowSmsLinksForAllPhones = !ePrefs.getBoolean("contacts_show_text_mobile_only", false);        
         
+        mSpeedDials = SpeedDialRegistry.getInstance(this);
+        mSpeedDials.addListener(mSpeedDialListener);
         startEntityQuery();
     }
 
@@ -312,6 +292,7 @@ public class ViewContactActivity extends Activity
             mEarDetector.enable(false);
         }
 
+        mSpeedDials.removeListener(mSpeedDialListener);
         closeCursor();
     }
 
@@ -325,6 +306,10 @@ public class ViewContactActivity extends Activity
         }
 
         closeCursor();
+        if (mDetailsLoader != null) {
+            mDetailsLoader.cancel(false);
+            mDetailsLoader = null;
+        }
     }
 
     @Override
@@ -370,67 +355,6 @@ public class ViewContactActivity extends Activity
         return null;
     }
 
-    /** {@inheritDoc} */
-    public void onQueryComplete(int token, Object cookie, final Cursor cursor) {
-        if (token == TOKEN_STATUSES) {
-            try {
-                // Read available social rows and consider binding
-                readStatuses(cursor);
-            } finally {
-                if (cursor != null) {
-                    cursor.close();
-                }
-            }
-            considerBindData();
-            return;
-        }
-
-        // One would think we could just iterate over the Cursor
-        // directly here, as the result set should be small, and we've
-        // already run the query in an AsyncTask, but a lot of ANRs
-        // were being reported in this code nonetheless.  See bug
-        // 2539603 for details.  The real bug which makes this result
-        // set huge and CPU-heavy may be elsewhere.
-        // TODO: if we keep this async, perhaps the entity iteration
-        // should also be original AsyncTask, rather than ping-ponging
-        // between threads like this.
-        final ArrayList<Entity> oldEntities = mEntities;
-        (new AsyncTask<Void, Void, ArrayList<Entity>>() {
-            @Override
-            protected ArrayList<Entity> doInBackground(Void... params) {
-                ArrayList<Entity> newEntities = new ArrayList<Entity>(cursor.getCount());
-                EntityIterator iterator = RawContacts.newEntityIterator(cursor);
-                try {
-                    while (iterator.hasNext()) {
-                        Entity entity = iterator.next();
-                        newEntities.add(entity);
-                    }
-                } finally {
-                    iterator.close();
-                }
-                return newEntities;
-            }
-
-            @Override
-            protected void onPostExecute(ArrayList<Entity> newEntities) {
-                if (newEntities == null) {
-                    // There was an error loading.
-                    return;
-                }
-                synchronized (ViewContactActivity.this) {
-                    if (mEntities != oldEntities) {
-                        // Multiple async tasks were in flight and we
-                        // lost the race.
-                        return;
-                    }
-                    mEntities = newEntities;
-                    mHasEntities = true;
-                }
-                considerBindData();
-            }
-        }).execute();
-    }
-
     private long getRefreshedContactId() {
         Uri freshContactUri = Contacts.lookupContact(getContentResolver(), mLookupUri);
         if (freshContactUri != null) {
@@ -439,23 +363,6 @@ public class ViewContactActivity extends Activity
         return -1;
     }
 
-    /**
-     * Read from the given {@link Cursor} and build a set of {@link DataStatus}
-     * objects to match any valid statuses found.
-     */
-    private synchronized void readStatuses(Cursor cursor) {
-        mStatuses.clear();
-
-        // Walk found statuses, creating internal row for each
-        while (cursor.moveToNext()) {
-            final DataStatus status = new DataStatus(cursor);
-            final long dataId = cursor.getLong(StatusQuery._ID);
-            mStatuses.put(dataId, status);
-        }
-
-        mHasStatuses = true;
-    }
-
     private static Cursor setupContactCursor(ContentResolver resolver, Uri lookupUri) {
         if (lookupUri == null) {
             return null;
@@ -532,20 +439,14 @@ public class ViewContactActivity extends Activity
 
         mCursor.registerContentObserver(mObserver);
 
-        // Clear flags and start queries to data and status
-        mHasEntities = false;
-        mHasStatuses = false;
-
-        mHandler.startQuery(TOKEN_ENTITIES, null, RawContactsEntity.CONTENT_URI, null,
-                RawContacts.CONTACT_ID + "=?", new String[] {
-                    String.valueOf(contactId)
-                }, null);
-        final Uri dataUri = Uri.withAppendedPath(
-                ContentUris.withAppendedId(Contacts.CONTENT_URI, contactId),
-                Contacts.Data.CONTENT_DIRECTORY);
-        mHandler.startQuery(TOKEN_STATUSES, null, dataUri, StatusQuery.PROJECTION,
-                        StatusUpdates.PRESENCE + " IS NOT NULL OR " + StatusUpdates.STATUS
-                                + " IS NOT NULL", null, null);
+        // Load data and status, and build the entries from them, in the background.
+        // A load still in flight is out of date now.
+        if (mDetailsLoader != null) {
+            mDetailsLoader.cancel(false);
+        }
+        mDetailsLoader = new DetailsLoader(this, new ContactDetails(contactId,
+                mNameRawContactId, mDisplayNameSource, mShowSmsLinksForAllPhones));
+        mDetailsLoader.execute();
 
         mContactHeaderWidget.bindFromContactLookupUri(mLookupUri);
     }
@@ -559,27 +460,148 @@ public class ViewContactActivity extends Activity
     }
 
     /**
-     * Consider binding views after any of several background queries has
-     * completed. We check internal flags and only bind when all data has
-     * arrived.
+     * Everything the list shows of the contact.  Built by {@link DetailsLoader} in the
+     * background, and not changed after it has been handed to the UI thread.
      */
-    private void considerBindData() {
-        if (mHasEntities && mHasStatuses) {
-            bindData();
+    private static final class ContactDetails {
+        final long contactId;
+        final long nameRawContactId;
+        final int displayNameSource;
+        final boolean showSmsLinksForAllPhones;
+
+        final ArrayList<ViewEntry> phoneEntries = new ArrayList<ViewEntry>();
+        final ArrayList<ViewEntry> smsEntries = new ArrayList<ViewEntry>();
+        final ArrayList<ViewEntry> emailEntries = new ArrayList<ViewEntry>();
+        final ArrayList<ViewEntry> postalEntries = new ArrayList<ViewEntry>();
+        final ArrayList<ViewEntry> imEntries = new ArrayList<ViewEntry>();
+        final ArrayList<ViewEntry> nicknameEntries = new ArrayList<ViewEntry>();
+        final ArrayList<ViewEntry> organizationEntries = new ArrayList<ViewEntry>();
+        final ArrayList<ViewEntry> groupEntries = new ArrayList<ViewEntry>();
+        final ArrayList<ViewEntry> otherEntries = new ArrayList<ViewEntry>();
+        final ArrayList<ArrayList<ViewEntry>> sections = new ArrayList<ArrayList<ViewEntry>>();
+
+        final ArrayList<Long> rawContactIds = new ArrayList<Long>();
+        final ArrayList<Long> writableRawContactIds = new ArrayList<Long>();
+        int readOnlySourcesCnt;
+        int writableSourcesCnt;
+        boolean allRestricted = true;
+        Uri primaryPhoneUri;
+        int numPhoneNumbers;
+
+        ContactDetails(long contactId, long nameRawContactId, int displayNameSource,
+                boolean showSmsLinksForAllPhones) {
+            this.contactId = contactId;
+            this.nameRawContactId = nameRawContactId;
+            this.displayNameSource = displayNameSource;
+            this.showSmsLinksForAllPhones = showSmsLinksForAllPhones;
+
+            // The order the sections are added in dictates the order they are displayed
+            // in the list.
+            sections.add(phoneEntries);
+            sections.add(smsEntries);
+            sections.add(emailEntries);
+            sections.add(imEntries);
+            sections.add(postalEntries);
+            sections.add(nicknameEntries);
+            sections.add(organizationEntries);
+            sections.add(groupEntries);
+            sections.add(otherEntries);
         }
     }
 
-    private void bindData() {
+    /**
+     * Queries the data and status of the contact, and builds and collapses the entries,
+     * all on one background thread.  The entities are not iterated on the UI thread,
+     * which caused ANRs (see bug 2539603), and neither are the entries built there.
+     */
+    private static final class DetailsLoader
+            extends WeakAsyncTask<Void, Void, ContactDetails, ViewContactActivity> {
+        private final ContactDetails mDetails;
+
+        public DetailsLoader(ViewContactActivity target, ContactDetails details) {
+            super(target);
+            mDetails = details;
+        }
+
+        @Override
+        protected ContactDetails doInBackground(ViewContactActivity target, Void... params) {
+            final ContentResolver resolver = target.getContentResolver();
+            final long contactId = mDetails.contactId;
+
+            final HashMap<Long, DataStatus> statuses = Maps.newHashMap();
+            final Uri dataUri = Uri.withAppendedPath(
+                    ContentUris.withAppendedId(Contacts.CONTENT_URI, contactId),
+                    Contacts.Data.CONTENT_DIRECTORY);
+            Cursor cursor = resolver.query(dataUri, StatusQuery.PROJECTION,
+                    StatusUpdates.PRESENCE + " IS NOT NULL OR " + StatusUpdates.STATUS
+                            + " IS NOT NULL", null, null);
+            if (cursor != null) {
+                try {
+                    // Walk found statuses, creating internal row for each
+                    while (cursor.moveToNext()) {
+                        statuses.put(cursor.getLong(StatusQuery._ID), new DataStatus(cursor));
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+            if (isCancelled()) {
+                return null;
+            }
+
+            final ArrayList<Entity> entities = Lists.newArrayList();
+            cursor = resolver.query(RawContactsEntity.CONTENT_URI, null,
+                    RawContacts.CONTACT_ID + "=?", new String[] {
+                        String.valueOf(contactId)
+                    }, null);
+            if (cursor == null) {
+                // There was an error loading.
+                return null;
+            }
+            EntityIterator iterator = RawContacts.newEntityIterator(cursor);
+            try {
+                while (iterator.hasNext()) {
+                    entities.add(iterator.next());
+                }
+            } finally {
+                iterator.close();
+            }
+            if (isCancelled()) {
+                return null;
+            }
+
+            // Build up the contact entries
+            target.buildEntries(mDetails, entities, statuses);
+
+            // Collapse similar data items in select sections.
+            Collapser.collapseList(mDetails.phoneEntries);
+            Collapser.collapseList(mDetails.smsEntries);
+            Collapser.collapseList(mDetails.emailEntries);
+            Collapser.collapseList(mDetails.postalEntries);
+            Collapser.collapseList(mDetails.imEntries);
+            return mDetails;
+        }
 
-        // Build up the contact entries
-        buildEntries();
+        @Override
+        protected void onPostExecute(ViewContactActivity target, ContactDetails details) {
+            if (details == null || target.mDetailsLoader != this) {
+                // There was an error loading, or a newer load is in flight
+                return;
+            }
+            target.mDetailsLoader = null;
+            target.bindData(details);
+        }
+    }
 
-        // Collapse similar data items in select sections.
-        Collapser.collapseList(mPhoneEntries);
-        Collapser.collapseList(mSmsEntries);
-        Collapser.collapseList(mEmailEntries);
-        Collapser.collapseList(mPostalEntries);
-        Collapser.collapseList(mImEntries);
+    private void bindData(ContactDetails details) {
+        mSections = details.sections;
+        mRawContactIds = details.rawContactIds;
+        mWritableRawContactIds = details.writableRawContactIds;
+        mReadOnlySourcesCnt = details.readOnlySourcesCnt;
+        mWritableSourcesCnt = details.writableSourcesCnt;
+        mAllRestricted = details.allRestricted;
+        mPrimaryPhoneUri = details.primaryPhoneUri;
+        mNumPhoneNumbers = details.numPhoneNumbers;
 
         if (mAdapter == null) {
             mAdapter = new ViewAdapter(this, mSections);
@@ -1019,224 +1041,211 @@ public class ViewContactActivity extends Activity
     }
 
     /**
-     * Build up the entries to display on the screen.
+     * Build up the entries to display on the screen.  Called on the thread of the
+     * {@link DetailsLoader}, so it must not touch the state of the activity.
      *
-     * @param personCursor the URI for the contact being displayed
+     * @param details the details to add the entries to
+     * @param entities the raw contacts of the contact, with their data
+     * @param statuses the statuses of the data, by data id
      */
-    private final void buildEntries() {
-        // Clear out the old entries
-        final int numSections = mSections.size();
-        for (int i = 0; i < numSections; i++) {
-            mSections.get(i).clear();
-        }
-
-        mRawContactIds.clear();
-
-        mReadOnlySourcesCnt = 0;
-        mWritableSourcesCnt = 0;
-        mAllRestricted = true;
-        mPrimaryPhoneUri = null;
-
-        mWritableRawContactIds.clear();
-
+    private final void buildEntries(ContactDetails details, ArrayList<Entity> entities,
+            HashMap<Long, DataStatus> statuses) {
         final Context context = this;
         final Sources sources = Sources.getInstance(context);
 
         // Build up method entries
-        if (mLookupUri != null) {
-            for (Entity entity: mEntities) {
-                final ContentValues entValues = entity.getEntityValues();
-                final String accountType = entValues.getAsString(RawContacts.ACCOUNT_TYPE);
-                final long rawContactId = entValues.getAsLong(RawContacts._ID);
-
-                // Mark when this contact has any unrestricted components
-                final boolean isRestricted = entValues.getAsInteger(RawContacts.IS_RESTRICTED) != 0;
-                if (!isRestricted) mAllRestricted = false;
-
-                if (!mRawContactIds.contains(rawContactId)) {
-                    mRawContactIds.add(rawContactId);
-                }
-                ContactsSource contactsSource = sources.getInflatedSource(accountType,
-                        ContactsSource.LEVEL_SUMMARY);
-                if (contactsSource != null && contactsSource.readOnly) {
-                    mReadOnlySourcesCnt += 1;
-                } else {
-                    mWritableSourcesCnt += 1;
-                    mWritableRawContactIds.add(rawContactId);
-                }
+        for (Entity entity: entities) {
+            final ContentValues entValues = entity.getEntityValues();
+            final String accountType = entValues.getAsString(RawContacts.ACCOUNT_TYPE);
+            final long rawContactId = entValues.getAsLong(RawContacts._ID);
 
-                for (NamedContentValues subValue : entity.getSubValues()) {
-                    final ContentValues entryValues = subValue.values;
-                    entryValues.put(Data.RAW_CONTACT_ID, rawContactId);
-
-                    final long dataId = entryValues.getAsLong(Data._ID);
-                    final String mimeType = entryValues.getAsString(Data.MIMETYPE);
-                    if (mimeType == null) continue;
-
-                    final DataKind kind = sources.getKindOrFallback(accountType, mimeType, this,
-                            ContactsSource.LEVEL_MIMETYPES);
-                    if (kind == null) continue;
-
-                    final ViewEntry entry = ViewEntry.fromValues(context, mimeType, kind,
-                            rawContactId, dataId, entryValues);
-
-                    final boolean hasData = !TextUtils.isEmpty(entry.data);
-                    final boolean isSuperPrimary = entryValues.getAsInteger(
-                            Data.IS_SUPER_PRIMARY) != 0;
-
-                    if (Phone.CONTENT_ITEM_TYPE.equals(mimeType) && hasData) {
-                        // Build phone entries
-                        mNumPhoneNumbers++;
-
-                        entry.intent = new Intent(Intent.ACTION_CALL_PRIVILEGED,
-                                Uri.fromParts(Constants.SCHEME_TEL, entry.data, null));
-                        entry.secondaryIntent = new Intent(Intent.ACTION_SENDTO,
-                                Uri.fromParts(Constants.SCHEME_SMSTO, entry.data, null));
-                        entry.tertiaryIntent = new Intent(UI.SPEED_DIAL_GRID_ACTION)
-                                .putExtra(UI.SPEED_DIAL_PHONE_ID, Long.toString(entry.id));
-
-                        // Remember super-primary phone
-                        if (isSuperPrimary) mPrimaryPhoneUri = entry.uri;
-
-                        entry.isPrimary = isSuperPrimary;
-                        mPhoneEntries.add(entry);
-                        
-                        //Wysie: Workaround for the entry.type bug, since entry.type always returns -1
-                        
-                        Integer type = entryValues.getAsInteger(Phone.TYPE);
-                        //Wysie: Bug here, entry.type always returns -1.
-
-                        if ((type != null && type == CommonDataKinds.Phone.TYPE_MOBILE) || mShowSmsLinksForAllPhones) {
-                            // Add an SMS entry
-                            if (kind.iconAltRes > 0) {
-                                entry.secondaryActionIcon = kind.iconAltRes;
-                            }
-                        }
-                    } else if (Email.CONTENT_ITEM_TYPE.equals(mimeType) && hasData) {
-                        // Build email entries
-                        entry.intent = new Intent(Intent.ACTION_SENDTO,
-                                Uri.fromParts(Constants.SCHEME_MAILTO, entry.data, null));
-                        entry.isPrimary = isSuperPrimary;
-                        mEmailEntries.add(entry);
-
-                        // When Email rows have status, create additional Im row
-                        final DataStatus status = mStatuses.get(entry.id);
-                        if (status != null) {
-                            final String imMime = Im.CONTENT_ITEM_TYPE;
-                            final DataKind imKind = sources.getKindOrFallback(accountType,
-                                    imMime, this, ContactsSource.LEVEL_MIMETYPES);
-                            final ViewEntry imEntry = ViewEntry.fromValues(context,
-                                    imMime, imKind, rawContactId, dataId, entryValues);
-                            imEntry.intent = ContactsUtils.buildImIntent(entryValues);
-                            imEntry.applyStatus(status, false);
-                            mImEntries.add(imEntry);
+            // Mark when this contact has any unrestricted components
+            final boolean isRestricted = entValues.getAsInteger(RawContacts.IS_RESTRICTED) != 0;
+            if (!isRestricted) details.allRestricted = false;
+
+            if (!details.rawContactIds.contains(rawContactId)) {
+                details.rawContactIds.add(rawContactId);
+            }
+            ContactsSource contactsSource = sources.getInflatedSource(accountType,
+                    ContactsSource.LEVEL_SUMMARY);
+            if (contactsSource != null && contactsSource.readOnly) {
+                details.readOnlySourcesCnt += 1;
+            } else {
+                details.writableSourcesCnt += 1;
+                details.writableRawContactIds.add(rawContactId);
+            }
+
+            for (NamedContentValues subValue : entity.getSubValues()) {
+                final ContentValues entryValues = subValue.values;
+                entryValues.put(Data.RAW_CONTACT_ID, rawContactId);
+
+                final long dataId = entryValues.getAsLong(Data._ID);
+                final String mimeType = entryValues.getAsString(Data.MIMETYPE);
+                if (mimeType == null) continue;
+
+                final DataKind kind = sources.getKindOrFallback(accountType, mimeType, this,
+                        ContactsSource.LEVEL_MIMETYPES);
+                if (kind == null) continue;
+
+                final ViewEntry entry = ViewEntry.fromValues(context, mimeType, kind,
+                        rawContactId, dataId, entryValues);
+
+                final boolean hasData = !TextUtils.isEmpty(entry.data);
+                final boolean isSuperPrimary = entryValues.getAsInteger(
+                        Data.IS_SUPER_PRIMARY) != 0;
+
+                if (Phone.CONTENT_ITEM_TYPE.equals(mimeType) && hasData) {
+                    // Build phone entries
+                    details.numPhoneNumbers++;
+
+                    entry.intent = new Intent(Intent.ACTION_CALL_PRIVILEGED,
+                            Uri.fromParts(Constants.SCHEME_TEL, entry.data, null));
+                    entry.secondaryIntent = new Intent(Intent.ACTION_SENDTO,
+                            Uri.fromParts(Constants.SCHEME_SMSTO, entry.data, null));
+                    entry.tertiaryIntent = new Intent(UI.SPEED_DIAL_GRID_ACTION)
+                            .putExtra(UI.SPEED_DIAL_PHONE_ID, Long.toString(entry.id));
+
+                    // Remember super-primary phone
+                    if (isSuperPrimary) details.primaryPhoneUri = entry.uri;
+
+                    entry.isPrimary = isSuperPrimary;
+                    details.phoneEntries.add(entry);
+                    
+                    //Wysie: Workaround for the entry.type bug, since entry.type always returns -1
+                    
+                    Integer type = entryValues.getAsInteger(Phone.TYPE);
+                    //Wysie: Bug here, entry.type always returns -1.
+
+                    if ((type != null && type == CommonDataKinds.Phone.TYPE_MOBILE) || details.showSmsLinksForAllPhones) {
+                        // Add an SMS entry
+                        if (kind.iconAltRes > 0) {
+                            entry.secondaryActionIcon = kind.iconAltRes;
                         }
-                    } else if (StructuredPostal.CONTENT_ITEM_TYPE.equals(mimeType) && hasData) {
-                        // Build postal entries
-                        entry.maxLines = 4;
-                        entry.intent = new Intent(Intent.ACTION_VIEW, entry.uri);                        
-
-                        Intent i = startNavigation(entry.data);
-                        
-                        if (i != null) {
-                            entry.secondaryIntent = i;
-                            // Add a navigation entry
-                            if (kind.iconAltRes > 0) {
-                                entry.secondaryActionIcon = kind.iconAltRes;
-                            }
+                    }
+                } else if (Email.CONTENT_ITEM_TYPE.equals(mimeType) && hasData) {
+                    // Build email entries
+                    entry.intent = new Intent(Intent.ACTION_SENDTO,
+                            Uri.fromParts(Constants.SCHEME_MAILTO, entry.data, null));
+                    entry.isPrimary = isSuperPrimary;
+                    details.emailEntries.add(entry);
+
+                    // When Email rows have status, create additional Im row
+                    final DataStatus status = statuses.get(entry.id);
+                    if (status != null) {
+                        final String imMime = Im.CONTENT_ITEM_TYPE;
+                        final DataKind imKind = sources.getKindOrFallback(accountType,
+                                imMime, this, ContactsSource.LEVEL_MIMETYPES);
+                        final ViewEntry imEntry = ViewEntry.fromValues(context,
+                                imMime, imKind, rawContactId, dataId, entryValues);
+                        imEntry.intent = ContactsUtils.buildImIntent(entryValues);
+                        imEntry.applyStatus(status, false);
+                        details.imEntries.add(imEntry);
+                    }
+                } else if (StructuredPostal.CONTENT_ITEM_TYPE.equals(mimeType) && hasData) {
+                    // Build postal entries
+                    entry.maxLines = 4;
+                    entry.intent = new Intent(Intent.ACTION_VIEW, entry.uri);                        
+
+                    Intent i = startNavigation(entry.data);
+                    
+                    if (i != null) {
+                        entry.secondaryIntent = i;
+                        // Add a navigation entry
+                        if (kind.iconAltRes > 0) {
+                            entry.secondaryActionIcon = kind.iconAltRes;
                         }
-                        
-                        mPostalEntries.add(entry);
-                        
-                    } else if (Im.CONTENT_ITEM_TYPE.equals(mimeType) && hasData) {
-                        // Build IM entries
-                        entry.intent = ContactsUtils.buildImIntent(entryValues);
+                    }
+                    
+                    details.postalEntries.add(entry);
+                    
+                } else if (Im.CONTENT_ITEM_TYPE.equals(mimeType) && hasData) {
+                    // Build IM entries
+                    entry.intent = ContactsUtils.buildImIntent(entryValues);
+                    if (TextUtils.isEmpty(entry.label)) {
+                        entry.label = getString(R.string.chat).toLowerCase();
+                    }
+
+                    // Apply presence and status details when available
+                    final DataStatus status = statuses.get(entry.id);
+                    if (status != null) {
+                        entry.applyStatus(status, false);
+                    }
+                    details.imEntries.add(entry);
+                } else if (Organization.CONTENT_ITEM_TYPE.equals(mimeType) &&
+                        (hasData || !TextUtils.isEmpty(entry.label))) {
+                    // Build organization entries
+                    final boolean isNameRawContact = (details.nameRawContactId == rawContactId);
+
+                    final boolean duplicatesTitle =
+                        isNameRawContact
+                        && details.displayNameSource == DisplayNameSources.ORGANIZATION
+                        && (!hasData || TextUtils.isEmpty(entry.label));
+
+                    if (!duplicatesTitle) {
+                        entry.uri = null;
+
                         if (TextUtils.isEmpty(entry.label)) {
-                            entry.label = getString(R.string.chat).toLowerCase();
+                            entry.label = entry.data;
+                            entry.data = "";
                         }
 
-                        // Apply presence and status details when available
-                        final DataStatus status = mStatuses.get(entry.id);
-                        if (status != null) {
-                            entry.applyStatus(status, false);
-                        }
-                        mImEntries.add(entry);
-                    } else if (Organization.CONTENT_ITEM_TYPE.equals(mimeType) &&
-                            (hasData || !TextUtils.isEmpty(entry.label))) {
-                        // Build organization entries
-                        final boolean isNameRawContact = (mNameRawContactId == rawContactId);
-
-                        final boolean duplicatesTitle =
-                            isNameRawContact
-                            && mDisplayNameSource == DisplayNameSources.ORGANIZATION
-                            && (!hasData || TextUtils.isEmpty(entry.label));
-
-                        if (!duplicatesTitle) {
-                            entry.uri = null;
-
-                            if (TextUtils.isEmpty(entry.label)) {
-                                entry.label = entry.data;
-                                entry.data = "";
-                            }
-
-                            mOrganizationEntries.add(entry);
-                        }
-                    } else if (Nickname.CONTENT_ITEM_TYPE.equals(mimeType) && hasData) {
-                        // Build nickname entries
-                        final boolean isNameRawContact = (mNameRawContactId == rawContactId);
+                        details.organizationEntries.add(entry);
+                    }
+                } else if (Nickname.CONTENT_ITEM_TYPE.equals(mimeType) && hasData) {
+                    // Build nickname entries
+                    final boolean isNameRawContact = (details.nameRawContactId == rawContactId);
 
-                        final boolean duplicatesTitle =
-                            isNameRawContact
-                            && mDisplayNameSource == DisplayNameSources.NICKNAME;
+                    final boolean duplicatesTitle =
+                        isNameRawContact
+                        && details.displayNameSource == DisplayNameSources.NICKNAME;
 
-                        if (!duplicatesTitle) {
-                            entry.uri = null;
-                            mNicknameEntries.add(entry);
-                        }
-                    } else if (Note.CONTENT_ITEM_TYPE.equals(mimeType) && hasData) {
-                        // Build note entries
-                        entry.uri = null;
-                        entry.maxLines = 100;
-                        mOtherEntries.add(entry);
-                    } else if (Website.CONTENT_ITEM_TYPE.equals(mimeType) && hasData) {
-                        // Build Website entries
+                    if (!duplicatesTitle) {
                         entry.uri = null;
-                        entry.maxLines = 10;
-                        try {
-                            WebAddress webAddress = new WebAddress(entry.data);
-                            entry.intent = new Intent(Intent.ACTION_VIEW,
-                                    Uri.parse(webAddress.toString()));
-                        } catch (ParseException e) {
-                            Log.e(TAG, "Couldn't parse website: " + entry.data);
-                        }
-                        mOtherEntries.add(entry);
-                    } else if (SipAddress.CONTENT_ITEM_TYPE.equals(mimeType) && hasData) {
-                        // Build SipAddress entries
-                        entry.uri = null;
-                        entry.maxLines = 1;
-                        entry.intent = new Intent(Intent.ACTION_CALL_PRIVILEGED,
-                                Uri.fromParts(Constants.SCHEME_SIP, entry.data, null));
-                        mOtherEntries.add(entry);
-                        // TODO: Consider moving the SipAddress into its own
-                        // section (rather than lumping it in with mOtherEntries)
-                        // so that we can reposition it right under the phone number.
-                        // (Then, we'd also update FallbackSource.java to set
-                        // secondary=false for this field, and tweak the weight
-                        // of its DataKind.)
-                    } else {
-                        // Handle showing custom rows
-                        entry.intent = new Intent(Intent.ACTION_VIEW, entry.uri);
-
-                        // Use social summary when requested by external source
-                        final DataStatus status = mStatuses.get(entry.id);
-                        final boolean hasSocial = kind.actionBodySocial && status != null;
-                        if (hasSocial) {
-                            entry.applyStatus(status, true);
-                        }
+                        details.nicknameEntries.add(entry);
+                    }
+                } else if (Note.CONTENT_ITEM_TYPE.equals(mimeType) && hasData) {
+                    // Build note entries
+                    entry.uri = null;
+                    entry.maxLines = 100;
+                    details.otherEntries.add(entry);
+                } else if (Website.CONTENT_ITEM_TYPE.equals(mimeType) && hasData) {
+                    // Build Website entries
+                    entry.uri = null;
+                    entry.maxLines = 10;
+                    try {
+                        WebAddress webAddress = new WebAddress(entry.data);
+                        entry.intent = new Intent(Intent.ACTION_VIEW,
+                                Uri.parse(webAddress.toString()));
+                    } catch (ParseException e) {
+                        Log.e(TAG, "Couldn't parse website: " + entry.data);
+                    }
+                    details.otherEntries.add(entry);
+                } else if (SipAddress.CONTENT_ITEM_TYPE.equals(mimeType) && hasData) {
+                    // Build SipAddress entries
+                    entry.uri = null;
+                    entry.maxLines = 1;
+                    entry.intent = new Intent(Intent.ACTION_CALL_PRIVILEGED,
+                            Uri.fromParts(Constants.SCHEME_SIP, entry.data, null));
+                    details.otherEntries.add(entry);
+                    // TODO: Consider moving the SipAddress into its own
+                    // section (rather than lumping it in with otherEntries)
+                    // so that we can reposition it right under the phone number.
+                    // (Then, we'd also update FallbackSource.java to set
+                    // secondary=false for this field, and tweak the weight
+                    // of its DataKind.)
+                } else {
+                    // Handle showing custom rows
+                    entry.intent = new Intent(Intent.ACTION_VIEW, entry.uri);
+
+                    // Use social summary when requested by external source
+                    final DataStatus status = statuses.get(entry.id);
+                    final boolean hasSocial = kind.actionBodySocial && status != null;
+                    if (hasSocial) {
+                        entry.applyStatus(status, true);
+                    }
 
-                        if (hasSocial || hasData) {
-                            mOtherEntries.add(entry);
-                        }
+                    if (hasSocial || hasData) {
+                        details.otherEntries.add(entry);
                     }
                 }
             }
@@ -1266,7 +1275,8 @@ public class ViewContactActivity extends Activity
     /**
      * A basic structure with the data for a contact entry in the list.
      */
-    static class ViewEntry extends ContactEntryAdapter.Entry implements Collapsible<ViewEntry> {
+    static class ViewEntry extends ContactEntryAdapter.Entry
+            implements KeyedCollapsible<ViewEntry> {
         public Context context = null;
         public String resPackageName = null;
         public int actionIcon = -1;
@@ -1382,6 +1392,10 @@ public class ViewContactActivity extends Activity
 
             return true;
         }
+
+        public Object getCollapseKey() {
+            return ContactsUtils.getCollapseKey(mimetype, data);
+        }
     }
 
     /** Cache of the children views of a row */
@@ -1496,21 +1510,11 @@ public class ViewContactActivity extends Activity
             // Set the primary icon
             views.primaryIcon.setVisibility(entry.isPrimary ? View.VISIBLE : View.GONE);
 
-            //Set the visibility of speed dial icon
-            String whereClause = ContactsContract.SpeedDial.PHONE_ID + "='"+entry.id+"'";
-            Cursor speeDialCursor = getContentResolver().query(SpeedDial.CONTENT_URI,
-                    new String[]{ContactsContract.SpeedDial.PHONE_ID}, whereClause, null, null);
-            if (speeDialCursor != null) {
-                if(speeDialCursor.moveToFirst()) {
-                    views.speedDialIcon.setVisibility(View.VISIBLE);
-                    entry.isSpeedDial = true;
-                } else {
-                    views.speedDialIcon.setVisibility(View.GONE);
-                }
-                speeDialCursor.close();
-             } else {
-                views.speedDialIcon.setVisibility(View.GONE);
-            }
+            // Set the visibility of speed dial icon, the listener binds again once the
+            // speed dials are loaded
+            SpeedDialRegistry.Entries speedDials = mSpeedDials.getEntries();
+            entry.isSpeedDial = speedDials != null && speedDials.getByPhoneId(entry.id) != null;
+            views.speedDialIcon.setVisibility(entry.isSpeedDial ? View.VISIBLE : View.GONE);
 
             // Set the action icon
             ImageView action = views.actionIcon;
@@ -1595,9 +1599,7 @@ public class ViewContactActivity extends Activity
     }
     //Wysie
     public boolean isIntentAvailable(Intent intent) {
-        final PackageManager packageManager = this.getPackageManager();
-        List<ResolveInfo> list = packageManager.queryIntentActivities(intent, PackageManager.MATCH_DEFAULT_ONLY);
-        return list.size() > 0;
+        return IntentResolveCache.getInstance(this).hasResolve(null, intent);
     }
         
     //Wysie: Navigation code. Adapted from rac2030's NavStarter.
@@ -72,6 +72,13 @@ public class EntityDelta implements Parcelable {
      */
     private HashMap<String, ArrayList<ValuesDelta>> mEntries = Maps.newHashMap();
 
+    /**
+     * Index of the children in {@link #mEntries} by their
+     * {@link BaseColumns#_ID}, so that they can be found without searching
+     * every bin. Children without an {@link BaseColumns#_ID} are not indexed.
+     */
+    private HashMap<Long, ValuesDelta> mEntriesById = Maps.newHashMap();
+
     public EntityDelta() {
     }
 
@@ -238,9 +245,33 @@ public class EntityDelta implements Parcelable {
     public ValuesDelta addEntry(ValuesDelta entry) {
         final String mimeType = entry.getMimetype();
         getMimeEntries(mimeType, true).add(entry);
+        indexEntry(entry);
         return entry;
     }
 
+    /**
+     * Add the given child to {@link #mEntriesById}, unless another child
+     * already has the same {@link BaseColumns#_ID}.
+     */
+    private void indexEntry(ValuesDelta entry) {
+        final Long childId = entry.getId();
+        if (childId != null && !mEntriesById.containsKey(childId)) {
+            mEntriesById.put(childId, entry);
+        }
+    }
+
+    /**
+     * Rebuild {@link #mEntriesById} from all children.
+     */
+    private void reindexEntries() {
+        mEntriesById.clear();
+        for (ArrayList<ValuesDelta> mimeEntries : mEntries.values()) {
+            for (ValuesDelta entry : mimeEntries) {
+                indexEntry(entry);
+            }
+        }
+    }
+
     /**
      * Find entry with the given {@link BaseColumns#_ID} value.
      */
@@ -250,15 +281,14 @@ public class EntityDelta implements Parcelable {
             return null;
         }
 
-        // Search all children for requested entry
-        for (ArrayList<ValuesDelta> mimeEntries : mEntries.values()) {
-            for (ValuesDelta entry : mimeEntries) {
-                if (childId.equals(entry.getId())) {
-                    return entry;
-                }
-            }
+        ValuesDelta entry = mEntriesById.get(childId);
+        if (entry != null && !childId.equals(entry.getId())) {
+            // Child changed its id since it was indexed, such as an insert
+            // that dropped its temporary id when building its diff
+            reindexEntries();
+            entry = mEntriesById.get(childId);
         }
-        return null;
+        return entry;
     }
 
     /**
@@ -294,6 +324,13 @@ public class EntityDelta implements Parcelable {
     }
 
     private boolean containsEntry(ValuesDelta entry) {
+        final Long childId = entry.getId();
+        if (childId != null) {
+            // Matching child must have the same id
+            final ValuesDelta child = getEntry(childId);
+            return child != null && child.equals(entry);
+        }
+
         for (ArrayList<ValuesDelta> mimeEntries : mEntries.values()) {
             for (ValuesDelta child : mimeEntries) {
                 // Contained if we find any child that matches
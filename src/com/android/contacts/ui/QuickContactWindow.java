@@ -19,6 +19,7 @@ package com.android.contacts.ui;
 import com.android.contacts.Collapser;
 import com.android.contacts.ContactPresenceIconUtil;
 import com.android.contacts.ContactsUtils;
+import com.android.contacts.IntentResolveCache;
 import com.android.contacts.R;
 import com.android.contacts.StickyTabs;
 import com.android.contacts.model.ContactsSource;
@@ -28,18 +29,15 @@ import com.android.contacts.ui.widget.CheckableImageView;
 import com.android.contacts.util.Constants;
 import com.android.contacts.util.DataStatus;
 import com.android.contacts.util.NotifyingAsyncQueryHandler;
+import com.android.contacts.util.WeakAsyncTask;
 import com.android.internal.policy.PolicyManager;
-import com.google.android.collect.Sets;
 
 import android.content.ActivityNotFoundException;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
-import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
-import android.content.pm.ResolveInfo;
 import android.content.res.Resources;
 import android.database.Cursor;
 import android.graphics.Bitmap;
@@ -47,6 +45,8 @@ import android.graphics.BitmapFactory;
 import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
+import android.os.Looper;
+import android.os.MessageQueue;
 import android.provider.ContactsContract.Contacts;
 import android.provider.ContactsContract.Data;
 import android.provider.ContactsContract.QuickContact;
@@ -92,7 +92,6 @@ import android.widget.RelativeLayout;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import java.lang.ref.SoftReference;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -157,7 +156,7 @@ public class QuickContactWindow implements Window.Callback,
 
     private NotifyingAsyncQueryHandler mHandler;
     private OnDismissListener mDismissListener;
-    private ResolveCache mResolveCache;
+    private IntentResolveCache mResolveCache;
 
     /** Last selected tab of the Dialtacs-Activity. This is -1 if not called out of contacts app */
     private int mLastSelectedContactsAppTab;
@@ -208,6 +207,30 @@ public class QuickContactWindow implements Window.Callback,
      */
     private LinkedList<View> mActionPool = new LinkedList<View>();
 
+    /**
+     * Number of chiclets kept ready in {@link #mActionPool}, enough for the
+     * actions of most contacts.
+     */
+    private static final int ACTION_POOL_SIZE = 6;
+
+    /**
+     * Tops up {@link #mActionPool} for the next time the window is shown, once the
+     * main thread has nothing else to do.
+     */
+    private final MessageQueue.IdleHandler mFillActionPoolHandler =
+            new MessageQueue.IdleHandler() {
+        public boolean queueIdle() {
+            fillActionPool();
+            return false;
+        }
+    };
+
+    /** View shown in the track when there are no actions, inflated once. */
+    private View mNoDataView;
+
+    /** Task decoding the photo of the contact, if one is in progress. */
+    private PhotoDecodeTask mPhotoDecodeTask;
+
     private String[] mExcludeMimes;
 
     /**
@@ -237,21 +260,6 @@ public class QuickContactWindow implements Window.Callback,
             Website.CONTENT_ITEM_TYPE,
     };
 
-    /**
-     * Specific list {@link ApplicationInfo#packageName} of apps that are
-     * prefered <strong>only</strong> for the purposes of default icons when
-     * multiple {@link ResolveInfo} are found to match. This only happens when
-     * the user has not selected a default app yet, and they will still be
-     * presented with the system disambiguation dialog.
-     */
-    private static final HashSet<String> sPreferResolve = Sets.newHashSet(
-            "com.android.email",
-            "com.android.calendar",
-            "com.android.contacts",
-            "com.android.mms",
-            "com.android.phone",
-            "com.android.browser");
-
     private static final int TOKEN_DATA = 1;
 
     static final boolean LOGD = false;
@@ -283,7 +291,7 @@ public class QuickContactWindow implements Window.Callback,
         mArrowUp = (ImageView)mWindow.findViewById(R.id.arrow_up);
         mArrowDown = (ImageView)mWindow.findViewById(R.id.arrow_down);
 
-        mResolveCache = new ResolveCache(mContext);
+        mResolveCache = IntentResolveCache.getInstance(mContext);
 
         final Resources res = mContext.getResources();
         mShadowHoriz = res.getDimensionPixelSize(R.dimen.quickcontact_shadow_horiz);
@@ -507,6 +515,10 @@ public class QuickContactWindow implements Window.Callback,
 
         mTrack.startAnimation(mTrackAnim);
 
+        // Inflate any missing chiclets for the next time, now that this one is out
+        Looper.myQueue().removeIdleHandler(mFillActionPoolHandler);
+        Looper.myQueue().addIdleHandler(mFillActionPoolHandler);
+
         if (TRACE_LAUNCH) {
             android.os.Debug.stopMethodTracing();
             Log.d(TAG, "Window recycled " + mWindowRecycled + " times, chiclets "
@@ -570,6 +582,7 @@ public class QuickContactWindow implements Window.Callback,
 
         // Cancel any pending queries
         mHandler.cancelOperation(TOKEN_DATA);
+        cancelPhotoDecode();
         mQuerying = false;
 
         // Completely hide header and reset track
@@ -585,7 +598,6 @@ public class QuickContactWindow implements Window.Callback,
         mLastAction = null;
 
         // Clear track actions and scroll to hard left
-        mResolveCache.clear();
         mActions.clear();
 
         // Recycle any chiclets in use
@@ -639,6 +651,89 @@ public class QuickContactWindow implements Window.Callback,
             cursor.close();
         }
 
+        // Otherwise shown once the photo is decoded
+        if (mPhotoDecodeTask == null) {
+            considerShowing();
+        }
+    }
+
+    /**
+     * Decodes the photo of the contact in the background, downsampled to the
+     * size of the header photo, while the track is being built.
+     */
+    private static class PhotoDecodeTask extends
+            WeakAsyncTask<byte[], Void, Bitmap, QuickContactWindow> {
+        private final int mTargetWidth;
+        private final int mTargetHeight;
+
+        public PhotoDecodeTask(QuickContactWindow target, int targetWidth, int targetHeight) {
+            super(target);
+            mTargetWidth = targetWidth;
+            mTargetHeight = targetHeight;
+        }
+
+        @Override
+        protected Bitmap doInBackground(QuickContactWindow target, byte[]... params) {
+            return decodePhoto(params[0], mTargetWidth, mTargetHeight);
+        }
+
+        @Override
+        protected void onPostExecute(QuickContactWindow target, Bitmap result) {
+            target.onPhotoDecoded(this, result);
+        }
+    }
+
+    /**
+     * Decode the given photo, downsampled by the largest power of two that
+     * still leaves it at least as large as the requested size.
+     */
+    private static Bitmap decodePhoto(byte[] photoBlob, int targetWidth, int targetHeight) {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        if (targetWidth > 0 && targetHeight > 0) {
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(photoBlob, 0, photoBlob.length, options);
+
+            int sampleSize = 1;
+            while (options.outWidth / (sampleSize * 2) >= targetWidth
+                    && options.outHeight / (sampleSize * 2) >= targetHeight) {
+                sampleSize *= 2;
+            }
+            options.inSampleSize = sampleSize;
+            options.inJustDecodeBounds = false;
+        }
+        return BitmapFactory.decodeByteArray(photoBlob, 0, photoBlob.length, options);
+    }
+
+    /**
+     * Start decoding the given photo for the given {@link ImageView}, replacing
+     * any decode already in progress.
+     */
+    private void startPhotoDecode(byte[] photoBlob, ImageView photoView) {
+        cancelPhotoDecode();
+        final ViewGroup.LayoutParams params = photoView.getLayoutParams();
+        mPhotoDecodeTask = new PhotoDecodeTask(this, params.width, params.height);
+        mPhotoDecodeTask.execute(photoBlob);
+    }
+
+    private void cancelPhotoDecode() {
+        if (mPhotoDecodeTask != null) {
+            mPhotoDecodeTask.cancel(false);
+            mPhotoDecodeTask = null;
+        }
+    }
+
+    private void onPhotoDecoded(PhotoDecodeTask task, Bitmap photoBitmap) {
+        // Bail early when decode is stale
+        if (task != mPhotoDecodeTask) return;
+        mPhotoDecodeTask = null;
+
+        final ImageView photoView = (ImageView)mHeader.findViewById(R.id.photo);
+        if (photoView != null) {
+            // Place photo when it could be decoded, otherwise hide
+            photoView.setVisibility(photoBitmap != null ? View.VISIBLE : View.GONE);
+            photoView.setImageBitmap(photoBitmap);
+        }
+
         considerShowing();
     }
 
@@ -707,7 +802,7 @@ public class QuickContactWindow implements Window.Callback,
      * Abstract definition of an action that could be performed, along with
      * string description and icon.
      */
-    private interface Action extends Collapser.Collapsible<Action> {
+    private interface Action extends Collapser.KeyedCollapsible<Action> {
         public CharSequence getHeader();
         public CharSequence getBody();
 
@@ -945,6 +1040,11 @@ public class QuickContactWindow implements Window.Callback,
             }
             return true;
         }
+
+        /** {@inheritDoc} */
+        public Object getCollapseKey() {
+            return ContactsUtils.getCollapseKey(mMimeType, mBody);
+        }
     }
 
     /**
@@ -1005,141 +1105,10 @@ public class QuickContactWindow implements Window.Callback,
         public boolean shouldCollapseWith(Action t) {
             return false; // Never dup.
         }
-    }
-
-    /**
-     * Internally hold a cache of scaled icons based on {@link PackageManager}
-     * queries, keyed internally on MIME-type.
-     */
-    private static class ResolveCache {
-        private PackageManager mPackageManager;
-
-        /**
-         * Cached entry holding the best {@link ResolveInfo} for a specific
-         * MIME-type, along with a {@link SoftReference} to its icon.
-         */
-        private static class Entry {
-            public ResolveInfo bestResolve;
-            public SoftReference<Drawable> icon;
-        }
-
-        private HashMap<String, Entry> mCache = new HashMap<String, Entry>();
-
-        public ResolveCache(Context context) {
-            mPackageManager = context.getPackageManager();
-        }
 
-        /**
-         * Get the {@link Entry} best associated with the given {@link Action},
-         * or create and populate a new one if it doesn't exist.
-         */
-        protected Entry getEntry(Action action) {
-            final String mimeType = action.getMimeType();
-            Entry entry = mCache.get(mimeType);
-            if (entry != null) return entry;
-            entry = new Entry();
-
-            final Intent intent = action.getIntent();
-            if (intent != null) {
-                final List<ResolveInfo> matches = mPackageManager.queryIntentActivities(intent,
-                        PackageManager.MATCH_DEFAULT_ONLY);
-
-                // Pick first match, otherwise best found
-                ResolveInfo bestResolve = null;
-                final int size = matches.size();
-                if (size == 1) {
-                    bestResolve = matches.get(0);
-                } else if (size > 1) {
-                    bestResolve = getBestResolve(intent, matches);
-                }
-
-                if (bestResolve != null) {
-                    final Drawable icon = bestResolve.loadIcon(mPackageManager);
-
-                    entry.bestResolve = bestResolve;
-                    entry.icon = new SoftReference<Drawable>(icon);
-                }
-            }
-
-            mCache.put(mimeType, entry);
-            return entry;
-        }
-
-        /**
-         * Best {@link ResolveInfo} when multiple found. Ties are broken by
-         * selecting first from the {QuickContactWindow#sPreferResolve} list of
-         * preferred packages, second by apps that live on the system partition,
-         * otherwise the app from the top of the list. This is
-         * <strong>only</strong> used for selecting a default icon for
-         * displaying in the track, and does not shortcut the system
-         * {@link Intent} disambiguation dialog.
-         */
-        protected ResolveInfo getBestResolve(Intent intent, List<ResolveInfo> matches) {
-            // Try finding preferred activity, otherwise detect disambig
-            final ResolveInfo foundResolve = mPackageManager.resolveActivity(intent,
-                    PackageManager.MATCH_DEFAULT_ONLY);
-            final boolean foundDisambig = (foundResolve.match &
-                    IntentFilter.MATCH_CATEGORY_MASK) == 0;
-
-            if (!foundDisambig) {
-                // Found concrete match, so return directly
-                return foundResolve;
-            }
-
-            // Accept any package from prefer list, otherwise first system app
-            ResolveInfo firstSystem = null;
-            for (ResolveInfo info : matches) {
-                final boolean isSystem = (info.activityInfo.applicationInfo.flags
-                        & ApplicationInfo.FLAG_SYSTEM) != 0;
-                final boolean isPrefer = QuickContactWindow.sPreferResolve
-                        .contains(info.activityInfo.applicationInfo.packageName);
-
-
-
-                if (isPrefer) return info;
-                if (isSystem && firstSystem != null) firstSystem = info;
-            }
-
-            // Return first system found, otherwise first from list
-            return firstSystem != null ? firstSystem : matches.get(0);
-        }
-
-        /**
-         * Check {@link PackageManager} to see if any apps offer to handle the
-         * given {@link Action}.
-         */
-        public boolean hasResolve(Action action) {
-            return getEntry(action).bestResolve != null;
-        }
-
-        /**
-         * Find the best description for the given {@link Action}, usually used
-         * for accessibility purposes.
-         */
-        public CharSequence getDescription(Action action) {
-            final CharSequence actionHeader = action.getHeader();
-            final ResolveInfo info = getEntry(action).bestResolve;
-            if (!TextUtils.isEmpty(actionHeader)) {
-                return actionHeader;
-            } else if (info != null) {
-                return info.loadLabel(mPackageManager);
-            } else {
-                return null;
-            }
-        }
-
-        /**
-         * Return the best icon for the given {@link Action}, which is usually
-         * based on the {@link ResolveInfo} found through a
-         * {@link PackageManager} query.
-         */
-        public Drawable getIcon(Action action) {
-            final SoftReference<Drawable> iconRef = getEntry(action).icon;
-            return (iconRef == null) ? null : iconRef.get();
-        }
-
-        public void clear() {
-            mCache.clear();
+        /** {@inheritDoc} */
+        public Object getCollapseKey() {
+            return null; // Never dup.
         }
     }
 
@@ -1196,7 +1165,7 @@ public class QuickContactWindow implements Window.Callback,
         final Sources sources = Sources.getInstance(mContext);
         final ImageView photoView = (ImageView)mHeader.findViewById(R.id.photo);
 
-        Bitmap photoBitmap = null;
+        boolean hasPhoto = false;
         while (cursor.moveToNext()) {
             final long dataId = cursor.getLong(DataQuery._ID);
             final String accountType = cursor.getString(DataQuery.ACCOUNT_TYPE);
@@ -1212,8 +1181,10 @@ public class QuickContactWindow implements Window.Callback,
             if (Photo.CONTENT_ITEM_TYPE.equals(mimeType)) {
                 final int colPhoto = cursor.getColumnIndex(Photo.PHOTO);
                 final byte[] photoBlob = cursor.getBlob(colPhoto);
-                if (photoBlob != null) {
-                    photoBitmap = BitmapFactory.decodeByteArray(photoBlob, 0, photoBlob.length);
+                if (photoBlob != null && photoView != null) {
+                    // Decoded in the background while the track is built
+                    startPhotoDecode(photoBlob, photoView);
+                    hasPhoto = true;
                 }
                 continue;
             }
@@ -1259,10 +1230,10 @@ public class QuickContactWindow implements Window.Callback,
             setHeaderImage(R.id.presence, statusIcon);
         }
 
-        if (photoView != null) {
-            // Place photo when discovered in data, otherwise hide
-            photoView.setVisibility(photoBitmap != null ? View.VISIBLE : View.GONE);
-            photoView.setImageBitmap(photoBitmap);
+        if (photoView != null && !hasPhoto) {
+            // Hide photo when not discovered in data
+            photoView.setVisibility(View.GONE);
+            photoView.setImageBitmap(null);
         }
 
         mHasValidSocial = status.isValid();
@@ -1314,8 +1285,10 @@ public class QuickContactWindow implements Window.Callback,
 
         // When there is no data to display, add a TextView to show the user there's no data
         if (!hasData) {
-            View view = mInflater.inflate(R.layout.quickcontact_item_nodata, mTrack, false);
-            mTrack.addView(view, index++);
+            if (mNoDataView == null) {
+                mNoDataView = mInflater.inflate(R.layout.quickcontact_item_nodata, mTrack, false);
+            }
+            mTrack.addView(mNoDataView, index++);
         }
     }
 
@@ -1325,11 +1298,23 @@ public class QuickContactWindow implements Window.Callback,
      * {@link Action#getIntent()}.
      */
     private void considerAdd(Action action, String mimeType) {
-        if (mResolveCache.hasResolve(action)) {
+        if (mResolveCache.hasResolve(action.getMimeType(), action.getIntent())) {
             mActions.collect(mimeType, action);
         }
     }
 
+    /**
+     * Find the best description for the given {@link Action}, usually used
+     * for accessibility purposes.
+     */
+    private CharSequence getDescription(Action action) {
+        final CharSequence actionHeader = action.getHeader();
+        if (!TextUtils.isEmpty(actionHeader)) {
+            return actionHeader;
+        }
+        return mResolveCache.getLabel(action.getMimeType(), action.getIntent());
+    }
+
     /**
      * Obtain a new {@link CheckableImageView} for a new chiclet, either by
      * recycling one from {@link #mActionPool}, or by inflating a new one. When
@@ -1357,6 +1342,18 @@ public class QuickContactWindow implements Window.Callback,
         mActionRecycled++;
     }
 
+    /**
+     * Inflate {@link CheckableImageView} into {@link #mActionPool} until it
+     * holds {@link #ACTION_POOL_SIZE}, so that building the track does not
+     * have to inflate them.
+     */
+    private synchronized void fillActionPool() {
+        if (QuickContactActivity.FORCE_CREATE) return;
+        while (mActionPool.size() < ACTION_POOL_SIZE) {
+            mActionPool.offer(mInflater.inflate(R.layout.quickcontact_item, mTrack, false));
+        }
+    }
+
     /**
      * Inflate the in-track view for the action of the given MIME-type, collapsing duplicate values.
      * Will use the icon provided by the {@link DataKind}.
@@ -1387,8 +1384,9 @@ public class QuickContactWindow implements Window.Callback,
         }
 
         // Set icon and listen for clicks
-        final CharSequence descrip = mResolveCache.getDescription(firstInfo);
-        final Drawable icon = mResolveCache.getIcon(firstInfo);
+        final CharSequence descrip = getDescription(firstInfo);
+        final Drawable icon = mResolveCache.getIcon(firstInfo.getMimeType(),
+                firstInfo.getIntent());
         view.setChecked(false);
         view.setContentDescription(descrip);
         view.setImageDrawable(icon);
@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.util;
+
+import android.database.CharArrayBuffer;
+import android.telephony.PhoneNumberUtils;
+
+/**
+ * Loose phone number comparison that works directly on character arrays.
+ * <p>
+ * Follows the same rules as {@link PhoneNumberUtils#compare(String, String)}:
+ * numbers are compared from the end ignoring separators, at least
+ * {@link #MIN_MATCH} dialable characters have to match, and the remaining
+ * prefixes may differ only by an international or trunk prefix. Unlike
+ * {@link PhoneNumberUtils}, no {@link String} is allocated, which matters when
+ * comparing every adjacent pair of rows of a large call log.
+ */
+public final class PhoneNumberComparator {
+
+    /**
+     * Minimum number of trailing dialable characters that have to match.
+     */
+    static final int MIN_MATCH = 7;
+
+    private PhoneNumberComparator() {
+    }
+
+    /**
+     * Compares the strings copied into the two buffers.
+     */
+    public static boolean compare(CharArrayBuffer a, CharArrayBuffer b) {
+        return compare(a.data, a.sizeCopied, b.data, b.sizeCopied);
+    }
+
+    /**
+     * Compares the first {@code aLength} characters of {@code a} with the first
+     * {@code bLength} characters of {@code b}.
+     */
+    public static boolean compare(char[] a, int aLength, char[] b, int bLength) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        if (aLength == 0 || bLength == 0) {
+            return false;
+        }
+
+        int ia = indexOfLastNetworkChar(a, aLength);
+        int ib = indexOfLastNetworkChar(b, bLength);
+        int matched = 0;
+        int numNonDialableCharsInA = 0;
+        int numNonDialableCharsInB = 0;
+
+        while (ia >= 0 && ib >= 0) {
+            boolean skipCmp = false;
+
+            char ca = a[ia];
+            if (!PhoneNumberUtils.isDialable(ca)) {
+                ia--;
+                skipCmp = true;
+                numNonDialableCharsInA++;
+            }
+
+            char cb = b[ib];
+            if (!PhoneNumberUtils.isDialable(cb)) {
+                ib--;
+                skipCmp = true;
+                numNonDialableCharsInB++;
+            }
+
+            if (!skipCmp) {
+                if (cb != ca && ca != PhoneNumberUtils.WILD && cb != PhoneNumberUtils.WILD) {
+                    break;
+                }
+                ia--;
+                ib--;
+                matched++;
+            }
+        }
+
+        if (matched < MIN_MATCH) {
+            int effectiveALength = aLength - numNonDialableCharsInA;
+            int effectiveBLength = bLength - numNonDialableCharsInB;
+
+            // Short numbers are equal only if all dialable characters matched,
+            // e.g. 404-04 and 40404
+            return effectiveALength == effectiveBLength && effectiveALength == matched;
+        }
+
+        // At least one number has matched completely
+        if (ia < 0 || ib < 0) {
+            return true;
+        }
+
+        // What remains must be a '+' on one side and a '00' or '011' on the other,
+        // or a trunk '0' on one side and an international prefix plus country code
+        // on the other.
+        if (matchIntlPrefix(a, ia + 1) && matchIntlPrefix(b, ib + 1)) {
+            return true;
+        }
+        if (matchTrunkPrefix(a, ia + 1) && matchIntlPrefixAndCC(b, ib + 1)) {
+            return true;
+        }
+        if (matchTrunkPrefix(b, ib + 1) && matchIntlPrefixAndCC(a, ia + 1)) {
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the index of the last character before any pause or wait.
+     */
+    private static int indexOfLastNetworkChar(char[] a, int length) {
+        for (int i = 0; i < length; i++) {
+            char c = a[i];
+            if (c == PhoneNumberUtils.PAUSE || c == PhoneNumberUtils.WAIT) {
+                return i - 1;
+            }
+        }
+        return length - 1;
+    }
+
+    private static boolean isISODigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * All of {@code a} up to {@code length} must be an international prefix
+     * ('+', '00' or '011') or separators.
+     */
+    private static boolean matchIntlPrefix(char[] a, int length) {
+        int state = 0;
+        for (int i = 0; i < length; i++) {
+            char c = a[i];
+            switch (state) {
+                case 0:
+                    if (c == '+') state = 1;
+                    else if (c == '0') state = 2;
+                    else if (PhoneNumberUtils.isNonSeparator(c)) return false;
+                    break;
+                case 2:
+                    if (c == '0') state = 3;
+                    else if (c == '1') state = 4;
+                    else if (PhoneNumberUtils.isNonSeparator(c)) return false;
+                    break;
+                case 4:
+                    if (c == '1') state = 5;
+                    else if (PhoneNumberUtils.isNonSeparator(c)) return false;
+                    break;
+                default:
+                    if (PhoneNumberUtils.isNonSeparator(c)) return false;
+                    break;
+            }
+        }
+        return state == 1 || state == 3 || state == 5;
+    }
+
+    /**
+     * All of {@code a} up to {@code length} must be an international prefix
+     * followed by a one to three digit country code.
+     */
+    private static boolean matchIntlPrefixAndCC(char[] a, int length) {
+        int state = 0;
+        for (int i = 0; i < length; i++) {
+            char c = a[i];
+            switch (state) {
+                case 0:
+                    if (c == '+') state = 1;
+                    else if (c == '0') state = 2;
+                    else if (PhoneNumberUtils.isNonSeparator(c)) return false;
+                    break;
+                case 2:
+                    if (c == '0') state = 3;
+                    else if (c == '1') state = 4;
+                    else if (PhoneNumberUtils.isNonSeparator(c)) return false;
+                    break;
+                case 4:
+                    if (c == '1') state = 5;
+                    else if (PhoneNumberUtils.isNonSeparator(c)) return false;
+                    break;
+                case 1:
+                case 3:
+                case 5:
+                    if (isISODigit(c)) state = 6;
+                    else if (PhoneNumberUtils.isNonSeparator(c)) return false;
+                    break;
+                case 6:
+                case 7:
+                    if (isISODigit(c)) state++;
+                    else if (PhoneNumberUtils.isNonSeparator(c)) return false;
+                    break;
+                default:
+                    if (PhoneNumberUtils.isNonSeparator(c)) return false;
+                    break;
+            }
+        }
+        return state == 6 || state == 7 || state == 8;
+    }
+
+    /**
+     * All of {@code a} up to {@code length} must be a trunk prefix ('0') or
+     * separators.
+     */
+    private static boolean matchTrunkPrefix(char[] a, int length) {
+        boolean found = false;
+        for (int i = 0; i < length; i++) {
+            char c = a[i];
+            if (c == '0' && !found) {
+                found = true;
+            } else if (PhoneNumberUtils.isNonSeparator(c)) {
+                return false;
+            }
+        }
+        return found;
+    }
+}
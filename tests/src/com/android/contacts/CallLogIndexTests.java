@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.provider.CallLog.Calls;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+/**
+ * Tests for {@link CallLogIndex}.
+ */
+@SmallTest
+public class CallLogIndexTests extends AndroidTestCase {
+
+    private CallLogIndex mIndex;
+    private MatrixCursor mCursor;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        MatrixCursor cursor = new MatrixCursor(RecentCallsListActivity.CALL_LOG_PROJECTION);
+        addCall(cursor, 1, "650-555-1212", "Alice");
+        addCall(cursor, 2, "5551213", null);
+        addCall(cursor, 3, "+16505551212", "Alice");
+        addCall(cursor, 4, "6505551212", null);
+        addCall(cursor, 5, "bob@example.com", "Bob");
+        mIndex = new CallLogIndex(cursor);
+        mCursor = cursor;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mCursor.close();
+        super.tearDown();
+    }
+
+    public void testQueryByName() {
+        assertIds(mIndex.queryByName("Alice"), 1, 3);
+        assertIds(mIndex.queryByName("Bob"), 5);
+        assertIds(mIndex.queryByName("Carol"));
+    }
+
+    public void testQueryByNumber() {
+        assertIds(mIndex.queryByNumber("6505551212"), 1, 3, 4);
+        assertIds(mIndex.queryByNumber("555-1213"), 2);
+        assertIds(mIndex.queryByNumber("6505551299"));
+        assertIds(mIndex.queryByNumber("Bob@Example.com"), 5);
+        assertIds(mIndex.queryByNumber(""));
+    }
+
+    public void testCopiesColumns() {
+        Cursor cursor = mIndex.queryByNumber("bob@example.com");
+        assertTrue(cursor.moveToFirst());
+        assertEquals("bob@example.com",
+                cursor.getString(RecentCallsListActivity.NUMBER_COLUMN_INDEX));
+        assertEquals(5000, cursor.getLong(RecentCallsListActivity.DATE_COLUMN_INDEX));
+        assertEquals(Calls.INCOMING_TYPE,
+                cursor.getInt(RecentCallsListActivity.CALL_TYPE_COLUMN_INDEX));
+        assertEquals("Bob", cursor.getString(RecentCallsListActivity.CALLER_NAME_COLUMN_INDEX));
+        cursor.close();
+    }
+
+    public void testUpdateCachedInfo() {
+        ContentValues values = new ContentValues(3);
+        values.put(Calls.CACHED_NAME, "Alice");
+        values.put(Calls.CACHED_NUMBER_TYPE, 2);
+        values.putNull(Calls.CACHED_NUMBER_LABEL);
+        mIndex.updateCachedInfo("6505551212", values);
+        assertIds(mIndex.queryByName("Alice"), 1, 3, 4);
+
+        values.put(Calls.CACHED_NAME, "Carol");
+        mIndex.updateCachedInfo("650-555-1212", values);
+        assertIds(mIndex.queryByName("Alice"), 3, 4);
+        assertIds(mIndex.queryByName("Carol"), 1);
+    }
+
+    public void testMatches() {
+        assertTrue(mIndex.matches(mCursor));
+
+        ContentValues values = new ContentValues(3);
+        values.put(Calls.CACHED_NAME, "Bob");
+        values.put(Calls.CACHED_NUMBER_TYPE, 0);
+        values.putNull(Calls.CACHED_NUMBER_LABEL);
+        mIndex.updateCachedInfo("5551213", values);
+        assertFalse(mIndex.matches(mCursor));
+
+        MatrixCursor cursor = new MatrixCursor(RecentCallsListActivity.CALL_LOG_PROJECTION);
+        addCall(cursor, 1, "650-555-1212", "Alice");
+        addCall(cursor, 2, "5551213", "Bob");
+        addCall(cursor, 3, "+16505551212", "Alice");
+        addCall(cursor, 4, "6505551212", null);
+        addCall(cursor, 5, "bob@example.com", "Bob");
+        assertTrue(mIndex.matches(cursor));
+        addCall(cursor, 6, "5551213", null);
+        assertFalse(mIndex.matches(cursor));
+        cursor.close();
+    }
+
+    private void addCall(MatrixCursor cursor, long id, String number, String name) {
+        cursor.addRow(new Object[] {
+                id, number, id * 1000, 60, Calls.INCOMING_TYPE, name, 0, null
+        });
+    }
+
+    private void assertIds(Cursor cursor, long... ids) {
+        assertEquals(ids.length, cursor.getCount());
+        for (long id : ids) {
+            assertTrue(cursor.moveToNext());
+            assertEquals(id, cursor.getLong(RecentCallsListActivity.ID_COLUMN_INDEX));
+        }
+        cursor.close();
+    }
+}
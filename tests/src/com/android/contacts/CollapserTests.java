@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts;
+
+import com.android.contacts.Collapser.Collapsible;
+import com.android.contacts.Collapser.KeyedCollapsible;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.ArrayList;
+
+/**
+ * Tests for {@link Collapser}.
+ */
+@SmallTest
+public class CollapserTests extends AndroidTestCase {
+
+    /**
+     * Collapses with items of the same value, ignoring case.
+     */
+    private static class Item implements Collapsible<Item> {
+        final String value;
+        int collapseCount;
+
+        Item(String value) {
+            this.value = value;
+        }
+
+        public boolean collapseWith(Item t) {
+            if (!shouldCollapseWith(t)) {
+                return false;
+            }
+            collapseCount++;
+            return true;
+        }
+
+        public boolean shouldCollapseWith(Item t) {
+            return value.equalsIgnoreCase(t.value);
+        }
+    }
+
+    /**
+     * Keyed by the first letter, so that some items with equal keys do not collapse.
+     */
+    private static class KeyedItem extends Item implements KeyedCollapsible<Item> {
+        KeyedItem(String value) {
+            super(value);
+        }
+
+        public Object getCollapseKey() {
+            return value.length() == 0 ? null : value.substring(0, 1).toLowerCase();
+        }
+    }
+
+    public void testCollapseList() {
+        ArrayList<Item> list = new ArrayList<Item>();
+        for (String value : new String[] { "a", "b", "A", "ab", "b", "a" }) {
+            list.add(new Item(value));
+        }
+        Collapser.collapseList(list);
+        assertValues(list, "a", "b", "ab");
+        assertEquals(2, list.get(0).collapseCount);
+        assertEquals(1, list.get(1).collapseCount);
+    }
+
+    public void testCollapseKeyedList() {
+        ArrayList<Item> list = new ArrayList<Item>();
+        for (String value : new String[] { "a", "b", "A", "ab", "b", "", "Ab", "a", "" }) {
+            list.add(new KeyedItem(value));
+        }
+        Collapser.collapseList(list);
+        // Items with null keys never collapse
+        assertValues(list, "a", "b", "ab", "", "");
+        assertEquals(2, list.get(0).collapseCount);
+        assertEquals(1, list.get(1).collapseCount);
+        assertEquals(1, list.get(2).collapseCount);
+    }
+
+    public void testCollapseMixedList() {
+        // Not all items have keys, so they are compared pairwise
+        ArrayList<Item> list = new ArrayList<Item>();
+        list.add(new KeyedItem("a"));
+        list.add(new Item("b"));
+        list.add(new KeyedItem("A"));
+        Collapser.collapseList(list);
+        assertValues(list, "a", "b");
+    }
+
+    private static void assertValues(ArrayList<Item> list, String... values) {
+        assertEquals(values.length, list.size());
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(values[i], list.get(i).value);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts;
+
+import android.database.MatrixCursor;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+/**
+ * Tests for {@link ContactListSnapshot}.
+ */
+@SmallTest
+public class ContactListSnapshotTests extends AndroidTestCase {
+
+    private static final String[] PROJECTION = new String[] { "_id", "name", "starred" };
+
+    public void testNoPreviousSnapshot() {
+        ContactListSnapshot snapshot = snapshot(1, "Alice", 0);
+        assertEquals(ContactListSnapshot.CHANGE_LIST, snapshot.compare(null));
+    }
+
+    public void testUnchanged() {
+        ContactListSnapshot previous = snapshot(1, "Alice", 0, 2, "Bob", 1);
+        ContactListSnapshot snapshot = snapshot(1, "Alice", 0, 2, "Bob", 1);
+        assertEquals(ContactListSnapshot.CHANGE_NONE, snapshot.compare(previous));
+    }
+
+    public void testRowChanged() {
+        ContactListSnapshot previous = snapshot(1, "Alice", 0, 2, "Bob", 1);
+        ContactListSnapshot snapshot = snapshot(1, "Alice", 1, 2, "Bob", 1);
+        assertEquals(ContactListSnapshot.CHANGE_ROWS, snapshot.compare(previous));
+    }
+
+    public void testRowsAddedOrMoved() {
+        ContactListSnapshot previous = snapshot(1, "Alice", 0, 2, "Bob", 1);
+        assertEquals(ContactListSnapshot.CHANGE_LIST,
+                snapshot(1, "Alice", 0, 3, "Bill", 0, 2, "Bob", 1).compare(previous));
+        assertEquals(ContactListSnapshot.CHANGE_LIST,
+                snapshot(2, "Bob", 1, 1, "Alice", 0).compare(previous));
+    }
+
+    public void testNullValues() {
+        ContactListSnapshot previous = snapshot(1, null, 0);
+        assertEquals(ContactListSnapshot.CHANGE_NONE, snapshot(1, null, 0).compare(previous));
+        assertEquals(ContactListSnapshot.CHANGE_ROWS, snapshot(1, "Alice", 0).compare(previous));
+        assertEquals(ContactListSnapshot.CHANGE_ROWS, snapshot(1, "", 0).compare(previous));
+    }
+
+    public void testValuesShiftedBetweenColumns() {
+        ContactListSnapshot previous = snapshot(1, "Al1", "");
+        assertEquals(ContactListSnapshot.CHANGE_ROWS, snapshot(1, "Al", "1").compare(previous));
+    }
+
+    private ContactListSnapshot snapshot(Object... values) {
+        MatrixCursor cursor = new MatrixCursor(PROJECTION);
+        for (int i = 0; i < values.length; i += PROJECTION.length) {
+            cursor.addRow(new Object[] { values[i], values[i + 1], values[i + 2] });
+        }
+        ContactListSnapshot snapshot = ContactListSnapshot.fromCursor(cursor);
+        cursor.close();
+        return snapshot;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.provider.ContactsContract.CommonDataKinds.Email;
+import android.provider.ContactsContract.CommonDataKinds.Nickname;
+import android.provider.ContactsContract.CommonDataKinds.Organization;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+/**
+ * Tests for {@link ContactNameIndex}.
+ */
+@SmallTest
+public class ContactNameIndexTests extends AndroidTestCase {
+
+    private ContactNameIndex mIndex;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        MatrixCursor contacts = new MatrixCursor(ContactNameIndex.CONTACTS_PROJECTION);
+        addContact(contacts, 1, "John Smith", null);
+        addContact(contacts, 2, "José Álvarez", null);
+        addContact(contacts, 3, "Mary-Ann Jones", "mary an jounzu");
+        addContact(contacts, 4, "Bob", null);
+
+        MatrixCursor data = new MatrixCursor(ContactNameIndex.DATA_PROJECTION);
+        data.addRow(new Object[] { 4, Nickname.CONTENT_ITEM_TYPE, "Bobby Tables", null });
+        data.addRow(new Object[] { 4, Email.CONTENT_ITEM_TYPE, "rtables@example.com", null });
+        data.addRow(new Object[] { 1, Organization.CONTENT_ITEM_TYPE, "Initech", "Engineer" });
+        data.addRow(new Object[] { 99, Nickname.CONTENT_ITEM_TYPE, "Ghost", null });
+
+        mIndex = new ContactNameIndex(contacts, data, "selection", "sort");
+        contacts.close();
+        data.close();
+    }
+
+    public void testNamePrefixes() {
+        assertIds(mIndex.query("jo"), 1, 2, 3);
+        assertIds(mIndex.query("SMI"), 1);
+        assertIds(mIndex.query("smith john"), 1);
+        assertIds(mIndex.query("johnsm"), 1);
+        assertIds(mIndex.query("john x"));
+        assertIds(mIndex.query("ann"), 3);
+        assertIds(mIndex.query("zed"));
+    }
+
+    public void testAccents() {
+        assertIds(mIndex.query("jose alv"), 2);
+        assertIds(mIndex.query("ÁLVAREZ"), 2);
+    }
+
+    public void testPhoneticName() {
+        assertIds(mIndex.query("jounzu"), 3);
+    }
+
+    public void testDataKeysAsSnippets() {
+        Cursor cursor = mIndex.query("bobby t");
+        assertIds(cursor, 4);
+
+        cursor = mIndex.query("rtab");
+        assertTrue(cursor.moveToFirst());
+        assertEquals(Email.CONTENT_ITEM_TYPE,
+                cursor.getString(ContactsListActivity.SUMMARY_SNIPPET_MIMETYPE_COLUMN_INDEX));
+        assertEquals("rtables@example.com",
+                cursor.getString(ContactsListActivity.SUMMARY_SNIPPET_DATA1_COLUMN_INDEX));
+        cursor.close();
+
+        cursor = mIndex.query("engin");
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Initech",
+                cursor.getString(ContactsListActivity.SUMMARY_SNIPPET_DATA1_COLUMN_INDEX));
+        assertEquals("Engineer",
+                cursor.getString(ContactsListActivity.SUMMARY_SNIPPET_DATA4_COLUMN_INDEX));
+        cursor.close();
+
+        // Name matches have no snippet
+        cursor = mIndex.query("bob");
+        assertTrue(cursor.moveToFirst());
+        assertNull(cursor.getString(ContactsListActivity.SUMMARY_SNIPPET_MIMETYPE_COLUMN_INDEX));
+        cursor.close();
+
+        assertIds(mIndex.query("ghost"));
+    }
+
+    public void testUnsupportedFilters() {
+        assertNull(mIndex.query("555"));
+        assertNull(mIndex.query("bob@"));
+        assertNull(mIndex.query("  "));
+    }
+
+    public void testIsFor() {
+        assertTrue(mIndex.isFor("selection", "sort"));
+        assertFalse(mIndex.isFor("selection", "other"));
+        assertFalse(mIndex.isFor(null, "sort"));
+    }
+
+    private void addContact(MatrixCursor cursor, long id, String name, String phoneticName) {
+        Object[] row = new Object[ContactNameIndex.CONTACTS_PROJECTION.length];
+        row[ContactsListActivity.SUMMARY_ID_COLUMN_INDEX] = id;
+        row[ContactsListActivity.SUMMARY_DISPLAY_NAME_PRIMARY_COLUMN_INDEX] = name;
+        row[ContactsListActivity.SUMMARY_DISPLAY_NAME_ALTERNATIVE_COLUMN_INDEX] = name;
+        row[ContactsListActivity.SUMMARY_SORT_KEY_PRIMARY_COLUMN_INDEX] = name;
+        row[ContactsListActivity.SUMMARY_STARRED_COLUMN_INDEX] = 0;
+        row[ContactsListActivity.SUMMARY_PHONETIC_NAME_COLUMN_INDEX] = phoneticName;
+        cursor.addRow(row);
+    }
+
+    private void assertIds(Cursor cursor, long... ids) {
+        assertNotNull(cursor);
+        assertEquals(ids.length, cursor.getCount());
+        for (long id : ids) {
+            assertTrue(cursor.moveToNext());
+            assertEquals(id, cursor.getLong(ContactsListActivity.SUMMARY_ID_COLUMN_INDEX));
+        }
+        cursor.close();
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts;
+
+import android.database.MatrixCursor;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.Locale;
+
+/**
+ * Tests for {@link ContactsSectionIndexBuilder}.
+ */
+@SmallTest
+public class ContactsSectionIndexBuilderTests extends AndroidTestCase {
+
+    public void testLatinTitles() {
+        ContactsSectionIndexBuilder builder = new ContactsSectionIndexBuilder(Locale.ENGLISH);
+        assertEquals("A", builder.getSectionTitle("alice"));
+        assertEquals("E", builder.getSectionTitle("Élodie"));
+        assertEquals("A", builder.getSectionTitle("Åsa"));
+        assertEquals("#", builder.getSectionTitle("1st"));
+        assertEquals("#", builder.getSectionTitle("  "));
+        assertEquals("#", builder.getSectionTitle(null));
+    }
+
+    public void testSeparateAccentedLetters() {
+        ContactsSectionIndexBuilder builder = new ContactsSectionIndexBuilder(new Locale("sv"));
+        assertEquals("Å", builder.getSectionTitle("åsa"));
+        assertEquals("Å", builder.getSectionTitle("Åsa"));
+        assertEquals("E", builder.getSectionTitle("Élodie"));
+
+        builder = new ContactsSectionIndexBuilder(new Locale("tr"));
+        assertEquals("İ", builder.getSectionTitle("ivan"));
+    }
+
+    public void testKanaRows() {
+        ContactsSectionIndexBuilder builder = new ContactsSectionIndexBuilder(Locale.JAPANESE);
+        // Hiragana and katakana of the same row share a section
+        assertEquals("は", builder.getSectionTitle("ひろし"));
+        assertEquals("は", builder.getSectionTitle("ホシ"));
+        assertEquals("や", builder.getSectionTitle("ゆき"));
+        assertEquals("わ", builder.getSectionTitle("を"));
+    }
+
+    public void testHangulInitials() {
+        ContactsSectionIndexBuilder builder = new ContactsSectionIndexBuilder(Locale.KOREAN);
+        assertEquals("ㄱ", builder.getSectionTitle("김"));
+        assertEquals("ㄱ", builder.getSectionTitle("꽃"));
+        assertEquals("ㅎ", builder.getSectionTitle("한"));
+    }
+
+    public void testBuild() {
+        MatrixCursor cursor = new MatrixCursor(new String[] { "sort_key" });
+        for (String key : new String[] { "Al", "Bo", "bz", null, "Cy", "Cz" }) {
+            cursor.addRow(new Object[] { key });
+        }
+
+        ContactsSectionIndexer indexer =
+                new ContactsSectionIndexBuilder(Locale.ENGLISH).build(cursor, 0);
+        cursor.close();
+
+        Object[] sections = indexer.getSections();
+        assertEquals(4, sections.length);
+        assertEquals("A", sections[0]);
+        assertEquals("B", sections[1]);
+        assertEquals("#", sections[2]);
+        assertEquals("C", sections[3]);
+        assertEquals(1, indexer.getPositionForSection(1));
+        assertEquals(4, indexer.getPositionForSection(3));
+        assertEquals(1, indexer.getSectionForPosition(2));
+        assertEquals(3, indexer.getSectionForPosition(5));
+    }
+}
@@ -22,6 +22,7 @@ import android.net.Uri;
 import android.provider.ContactsContract.CommonDataKinds.Email;
 import android.provider.ContactsContract.CommonDataKinds.Im;
 import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.telephony.PhoneNumberUtils;
 import android.test.AndroidTestCase;
 import android.test.suitebuilder.annotation.LargeTest;
 
@@ -178,6 +179,27 @@ public class ContactsUtilsTests extends AndroidTestCase {
             CharSequence data1, CharSequence mimetype2, CharSequence data2) {
         assertEquals(message, expected,
                 ContactsUtils.shouldCollapse(mContext, mimetype1, data1, mimetype2, data2));
+        if (expected) {
+            // Data that collapse have to be found by their keys
+            assertEquals(message, ContactsUtils.getCollapseKey(mimetype1, data1),
+                    ContactsUtils.getCollapseKey(mimetype2, data2));
+        }
+    }
+
+    public void testPhoneNumberCollapseKey() throws Exception {
+        checkPhoneNumberCollapseKey("1", "650-555-1234", "(650) 555 1234");
+        checkPhoneNumberCollapseKey("2", "+1 650 555 1234", "6505551234");
+
+        assertFalse("11", ContactsUtils.getPhoneNumberCollapseKey("5551234").equals(
+                ContactsUtils.getPhoneNumberCollapseKey("5551235")));
+        assertFalse("12", ContactsUtils.getPhoneNumberCollapseKey("1234").equals(
+                ContactsUtils.getPhoneNumberCollapseKey("5551234")));
+    }
+
+    private void checkPhoneNumberCollapseKey(String message, String number1, String number2) {
+        assertTrue(message, PhoneNumberUtils.compare(mContext, number1, number2));
+        assertEquals(message, ContactsUtils.getPhoneNumberCollapseKey(number1),
+                ContactsUtils.getPhoneNumberCollapseKey(number2));
     }
 
     public void testAreIntentActionEqual() throws Exception {
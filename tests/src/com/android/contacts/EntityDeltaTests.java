@@ -142,6 +142,66 @@ public class EntityDeltaTests extends AndroidTestCase {
         assertEquals("Unexpected change when merging", source, merged);
     }
 
+    public void testParcelChangesManyInserts() {
+        final Entity before = getEntity(TEST_CONTACT_ID, TEST_PHONE_ID);
+        final EntityDelta source = EntityDelta.fromBefore(before);
+        final EntityDelta dest = EntityDelta.fromBefore(before);
+
+        // Add many new rows, each should be merged exactly once
+        for (int i = 0; i < 50; i++) {
+            final ContentValues phone = new ContentValues();
+            phone.put(Data.MIMETYPE, Phone.CONTENT_ITEM_TYPE);
+            phone.put(Phone.NUMBER, TEST_PHONE_NUMBER_2 + i);
+            phone.put(Phone.TYPE, Phone.TYPE_WORK);
+            source.addEntry(ValuesDelta.fromAfter(phone));
+        }
+
+        // Merge modified values and assert they match
+        final EntityDelta merged = EntityDelta.mergeAfter(dest, source);
+        assertEquals("Unexpected change when merging", source, merged);
+        assertEquals("Unexpected entries after merging", 51, merged.getEntryCount(false));
+    }
+
+    /**
+     * Test that {@link EntityDelta#getEntry(Long)} finds children by their
+     * {@link Data#_ID}, including after passing through a {@link Parcel} and
+     * after an insert drops its temporary id.
+     */
+    public void testGetEntry() {
+        final Entity before = getEntity(TEST_CONTACT_ID, TEST_PHONE_ID);
+        final EntityDelta source = EntityDelta.fromBefore(before);
+
+        final ContentValues phone = new ContentValues();
+        phone.put(Data.MIMETYPE, Phone.CONTENT_ITEM_TYPE);
+        phone.put(Phone.NUMBER, TEST_PHONE_NUMBER_2);
+        phone.put(Phone.TYPE, Phone.TYPE_WORK);
+        final ValuesDelta insert = source.addEntry(ValuesDelta.fromAfter(phone));
+        final Long insertId = insert.getId();
+
+        assertEquals("Missing existing entry", TEST_PHONE_NUMBER_1,
+                source.getEntry(TEST_PHONE_ID).getAsString(Phone.NUMBER));
+        assertSame("Missing inserted entry", insert, source.getEntry(insertId));
+        assertNull("Unexpected entry", source.getEntry(TEST_PHONE_ID + 1));
+        assertNull("Unexpected entry", source.getEntry(null));
+
+        // Entries should still be found after passing through a parcel
+        final Parcel parcel = Parcel.obtain();
+        source.writeToParcel(parcel, 0);
+        parcel.setDataPosition(0);
+        final EntityDelta unparceled = EntityDelta.CREATOR.createFromParcel(parcel);
+        parcel.recycle();
+
+        assertEquals("Missing existing entry", TEST_PHONE_NUMBER_1,
+                unparceled.getEntry(TEST_PHONE_ID).getAsString(Phone.NUMBER));
+        assertEquals("Missing inserted entry", TEST_PHONE_NUMBER_2,
+                unparceled.getEntry(insertId).getAsString(Phone.NUMBER));
+
+        // Building the insert drops its temporary id
+        insert.buildDiff(Data.CONTENT_URI);
+        assertNull("Unexpected entry", source.getEntry(insertId));
+        assertNotNull("Missing existing entry", source.getEntry(TEST_PHONE_ID));
+    }
+
     /**
      * Test that {@link ValuesDelta#buildDiff(android.net.Uri)} is correctly
      * built for insert, update, and delete cases. Note this only tests behavior
@@ -80,6 +80,20 @@ public class GroupingListAdapterTests extends AndroidTestCase {
             }
         }
 
+        @Override
+        protected int findAppendPosition(Cursor cursor) {
+            int count = cursor.getCount();
+            cursor.moveToLast();
+            String value = cursor.getString(CALLS_NUMBER_COLUMN_INDEX);
+            for (int i = count - 2; i >= 0; i--) {
+                cursor.moveToPosition(i);
+                if (!TextUtils.equals(cursor.getString(CALLS_NUMBER_COLUMN_INDEX), value)) {
+                    return i + 1;
+                }
+            }
+            return 0;
+        }
+
         @Override
         protected void bindChildView(View view, Context context, Cursor cursor) {
         }
@@ -303,6 +317,74 @@ public class GroupingListAdapterTests extends AndroidTestCase {
         assertEquals(250, mAdapter.getCount());
     }
 
+    public void testRandomAccessAfterExpandingGroups() {
+        String[] numbers = new String[500];
+        for (int i = 0; i < numbers.length; i++) {
+
+            // Groups of 3 separated by a stand-alone item
+            numbers[i] = (i % 4 == 3) ? "s" + i : String.valueOf(i / 4);
+        }
+
+        buildCursor(numbers);
+        mAdapter.changeCursor(mCursor);
+        assertEquals(250, mAdapter.getCount());
+
+        // Expand the group at 200 (group #100 in the cursor)
+        assertPositionMetadata(200, ITEM_TYPE_GROUP_HEADER, false, 400);
+        mAdapter.toggleGroup(200);
+        assertEquals(253, mAdapter.getCount());
+
+        // Access positions out of order
+        assertPositionMetadata(499 / 2 + 3, ITEM_TYPE_STANDALONE, false, 499);
+        assertPositionMetadata(202, ITEM_TYPE_IN_GROUP, false, 401);
+        assertPositionMetadata(1, ITEM_TYPE_STANDALONE, false, 3);
+        assertPositionMetadata(204, ITEM_TYPE_STANDALONE, false, 403);
+        assertPositionMetadata(200, ITEM_TYPE_GROUP_HEADER, true, 400);
+        assertPositionMetadata(205, ITEM_TYPE_GROUP_HEADER, false, 404);
+        assertPositionMetadata(199, ITEM_TYPE_STANDALONE, false, 399);
+        assertPositionMetadata(0, ITEM_TYPE_GROUP_HEADER, false, 0);
+
+        // Expand the first group, everything after it moves down
+        mAdapter.toggleGroup(0);
+        assertEquals(256, mAdapter.getCount());
+        assertPositionMetadata(203, ITEM_TYPE_GROUP_HEADER, true, 400);
+        assertPositionMetadata(3, ITEM_TYPE_IN_GROUP, false, 2);
+        assertPositionMetadata(4, ITEM_TYPE_STANDALONE, false, 3);
+
+        // Collapse the group at 400 again
+        mAdapter.toggleGroup(203);
+        assertEquals(253, mAdapter.getCount());
+        assertPositionMetadata(204, ITEM_TYPE_STANDALONE, false, 403);
+    }
+
+    public void testAppendingPage() {
+        buildCursor("1", "2", "2", "3", "4", "4");
+        mAdapter.changeCursor(mCursor);
+        mAdapter.toggleGroup(1);
+        assertEquals(4, mAdapter.getAppendPosition());
+
+        // The page repeats the calls from the append position on
+        MatrixCursor page = new MatrixCursor(CALL_LOG_PROJECTION);
+        page.addRow(new Object[]{5L, "4", 995L});
+        page.addRow(new Object[]{6L, "4", 994L});
+        page.addRow(new Object[]{7L, "4", 993L});
+        page.addRow(new Object[]{8L, "5", 992L});
+        mAdapter.appendCursor(page);
+
+        assertEquals(8, mAdapter.getCursor().getCount());
+        assertEquals(7, mAdapter.getAppendPosition());
+        assertEquals(7, mAdapter.getCount());
+        assertPositionMetadata(0, ITEM_TYPE_STANDALONE, false, 0);
+        assertPositionMetadata(1, ITEM_TYPE_GROUP_HEADER, true, 1);
+        assertPositionMetadata(2, ITEM_TYPE_IN_GROUP, false, 1);
+        assertPositionMetadata(3, ITEM_TYPE_IN_GROUP, false, 2);
+        assertPositionMetadata(4, ITEM_TYPE_STANDALONE, false, 3);
+        assertPositionMetadata(5, ITEM_TYPE_GROUP_HEADER, false, 4);
+        assertPositionMetadata(6, ITEM_TYPE_STANDALONE, false, 7);
+        assertEquals(3, mAdapter.getGroupSize(5));
+        assertEquals(8L, mAdapter.getItemId(6));
+    }
+
     private void assertPositionMetadata(int position, int itemType, boolean isExpanded,
             int cursorPosition) {
         GroupingListAdapter.PositionMetadata metadata = new GroupingListAdapter.PositionMetadata();
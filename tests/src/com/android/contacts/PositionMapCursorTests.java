@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts;
+
+import com.android.contacts.ContactsListActivity.FilterResultCursor;
+import com.android.contacts.ContactsListActivity.PositionMapCursor;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+/**
+ * Tests for {@link PositionMapCursor}.
+ */
+@SmallTest
+public class PositionMapCursorTests extends AndroidTestCase {
+
+    public void testMoveThroughRows() {
+        Cursor cursor = PositionMapCursor.create(names("Alice", "Bob", "Carol", "Dave"),
+                new int[] { 1, 3 });
+        assertEquals(2, cursor.getCount());
+        assertTrue(cursor.isBeforeFirst());
+        assertTrue(cursor.moveToNext());
+        assertTrue(cursor.isFirst());
+        assertEquals("Bob", cursor.getString(1));
+        assertTrue(cursor.moveToNext());
+        assertTrue(cursor.isLast());
+        assertEquals(1, cursor.getPosition());
+        assertEquals("Dave", cursor.getString(1));
+        assertFalse(cursor.moveToNext());
+        assertTrue(cursor.isAfterLast());
+        assertTrue(cursor.moveToPrevious());
+        assertEquals("Dave", cursor.getString(1));
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Bob", cursor.getString(1));
+        cursor.close();
+    }
+
+    public void testEmpty() {
+        Cursor cursor = PositionMapCursor.create(names("Alice"), new int[0]);
+        assertEquals(0, cursor.getCount());
+        assertFalse(cursor.moveToFirst());
+        assertTrue(cursor.isBeforeFirst());
+        assertTrue(cursor.isAfterLast());
+        cursor.close();
+    }
+
+    public void testNarrowedTwice() {
+        MatrixCursor names = names("Alice", "Bob", "Carol", "Dave");
+        Cursor cursor = PositionMapCursor.create(
+                PositionMapCursor.create(names, new int[] { 0, 2, 3 }), new int[] { 1, 2 });
+        assertEquals(2, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Carol", cursor.getString(1));
+        assertTrue(cursor.moveToLast());
+        assertEquals("Dave", cursor.getString(1));
+        cursor.close();
+        assertTrue(names.isClosed());
+    }
+
+    public void testReleasedFilterResultsKeepRows() {
+        MatrixCursor names = names("Alice", "Bob");
+        FilterResultCursor results = new FilterResultCursor(names, "a");
+        Cursor refined = new FilterResultCursor(
+                PositionMapCursor.create(results.release(), new int[] { 0 }), "al");
+        results.close();
+        assertFalse(names.isClosed());
+        refined.close();
+        assertTrue(names.isClosed());
+    }
+
+    private MatrixCursor names(String... names) {
+        MatrixCursor cursor = new MatrixCursor(new String[] { "_id", "display_name" });
+        for (int i = 0; i < names.length; i++) {
+            cursor.addRow(new Object[] { i + 1, names[i] });
+        }
+        return cursor;
+    }
+}
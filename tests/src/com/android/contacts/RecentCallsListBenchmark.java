@@ -0,0 +1,522 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.Intent;
+import android.database.Cursor;
+import android.database.DataSetObserver;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.provider.CallLog;
+import android.provider.CallLog.Calls;
+import android.provider.ContactsContract;
+import android.test.ActivityUnitTestCase;
+import android.test.mock.MockContentProvider;
+import android.test.mock.MockContentResolver;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.text.SpannableStringBuilder;
+import android.util.Log;
+import android.view.View;
+import android.widget.FrameLayout;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for the call log list: loading the first page, paging through the
+ * whole log, binding rows and resolving caller ids, on synthetic call logs of 1k,
+ * 5k and 20k calls.
+ * <p>
+ * The activity runs with a {@link MockContentResolver}.  Its call log is served by
+ * {@link FakeCallLogProvider}, which also takes the caller info and new call flags
+ * the activity writes back, so the real call log is neither read nor written.
+ * Contacts are looked up in the real contacts provider, read-only.  Loads go
+ * through the same queries, grouping thread and paging as on the device.
+ * <p>
+ * Results are written to the log under the {@link #TAG} tag.  Running the benchmarks:
+ *
+ *   adb shell am instrument -w -e class com.android.contacts.RecentCallsListBenchmark \
+ *     com.android.contacts.tests/android.test.InstrumentationTestRunner
+ */
+@LargeTest
+public class RecentCallsListBenchmark extends ActivityUnitTestCase<RecentCallsListActivity> {
+    private static final String TAG = "RecentCallsListBenchmark";
+
+    private static final int[] CALL_LOG_SIZES = new int[] { 1000, 5000, 20000 };
+
+    /**
+     * Size of the pages the activity loads the call log in, see
+     * {@link RecentCallsListActivity}.
+     */
+    private static final int CALL_LOG_PAGE_SIZE = 200;
+
+    /**
+     * Number of rows that make up the first screen of the list.
+     */
+    private static final int FIRST_SCREEN_ROW_COUNT = 10;
+
+    /**
+     * Number of distinct numbers looked up in the caller id benchmark.
+     */
+    private static final int CALLER_ID_LOOKUP_COUNT = 100;
+
+    private static final long LOAD_TIMEOUT_SECONDS = 60;
+
+    private FakeCallLogProvider mCallLog;
+    private RecentCallsListActivity mActivity;
+    private FrameLayout mParentView;
+    private RecentCallsListActivity.RecentCallsAdapter mAdapter;
+
+    public RecentCallsListBenchmark() {
+        super(RecentCallsListActivity.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        Context context = getInstrumentation().getTargetContext();
+        mCallLog = new FakeCallLogProvider();
+        MockContentResolver resolver = new MockContentResolver();
+        resolver.addProvider(CallLog.AUTHORITY, mCallLog);
+        resolver.addProvider(ContactsContract.AUTHORITY,
+                new ReadOnlyProvider(context.getContentResolver()));
+        setActivityContext(new ResolverContext(context, resolver));
+
+        // The activity posts to the main thread, so it has to be created there
+        getInstrumentation().runOnMainSync(new Runnable() {
+            public void run() {
+                mActivity = startActivity(newIntent(), null, null);
+                mAdapter = mActivity.mAdapter;
+                getInstrumentation().callActivityOnStart(mActivity);
+            }
+        });
+        mParentView = new FrameLayout(mActivity);
+
+        // Resuming loads the call log, which is empty until a benchmark fills it
+        runAndWaitForCursor(new Runnable() {
+            public void run() {
+                getInstrumentation().callActivityOnResume(mActivity);
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        getInstrumentation().runOnMainSync(new Runnable() {
+            public void run() {
+                getInstrumentation().callActivityOnPause(mActivity);
+                getInstrumentation().callActivityOnDestroy(mActivity);
+            }
+        });
+        super.tearDown();
+    }
+
+    /**
+     * Measures the time from resuming the call log to the first screen of rows,
+     * including the query of the first page, grouping it and inflating the row views.
+     */
+    public void testTimeToFirstScreen() throws InterruptedException {
+        for (final int size : CALL_LOG_SIZES) {
+            mCallLog.setCalls(buildCallLog(size));
+            long elapsed = reload();
+
+            final long[] bindElapsed = new long[1];
+            getInstrumentation().runOnMainSync(new Runnable() {
+                public void run() {
+                    long start = SystemClock.elapsedRealtime();
+                    int count = Math.min(FIRST_SCREEN_ROW_COUNT, mAdapter.getCount());
+                    for (int i = 0; i < count; i++) {
+                        View view = mAdapter.getView(i, null, mParentView);
+                        view.measure(0, 0);
+                    }
+                    bindElapsed[0] = SystemClock.elapsedRealtime() - start;
+                }
+            });
+
+            assertLoaded(Math.min(size, CALL_LOG_PAGE_SIZE));
+            report("first screen", size, elapsed + bindElapsed[0],
+                    mAdapter.getCount() + " items");
+        }
+    }
+
+    /**
+     * Measures paging through a whole call log the way scrolling to its end does,
+     * each page being queried, grouped and appended in the background.
+     */
+    public void testPaging() throws InterruptedException {
+        for (final int size : CALL_LOG_SIZES) {
+            mCallLog.setCalls(buildCallLog(size));
+
+            // Start over from the first page
+            getInstrumentation().runOnMainSync(new Runnable() {
+                public void run() {
+                    getInstrumentation().callActivityOnNewIntent(mActivity, newIntent());
+                }
+            });
+            long elapsed = reload();
+
+            int pages = 1;
+            while (mAdapter.getCursor().getCount() < size) {
+                elapsed += runAndWaitForCursor(new Runnable() {
+                    public void run() {
+                        int count = mAdapter.getCount();
+                        mAdapter.onScroll(mActivity.getListView(), count - 1, 1, count);
+                    }
+                });
+                pages++;
+            }
+
+            assertLoaded(size);
+            report("paging", size, elapsed, pages + " pages, " + mAdapter.getCount() + " items");
+        }
+    }
+
+    /**
+     * Measures binding every row into a recycled view, as happens while scrolling,
+     * and counts the objects allocated doing so.
+     */
+    public void testBindRows() {
+        for (final int size : CALL_LOG_SIZES) {
+            final MatrixCursor cursor = buildCallLog(size);
+            final long[] elapsed = new long[1];
+            final int[] allocations = new int[1];
+            getInstrumentation().runOnMainSync(new Runnable() {
+                public void run() {
+                    View view = mAdapter.newStandAloneView(mActivity, mParentView);
+
+                    // Bind once first so that lazily created state is not counted
+                    cursor.moveToFirst();
+                    mAdapter.bindStandAloneView(view, mActivity, cursor);
+
+                    Debug.startAllocCounting();
+                    Debug.resetThreadAllocCount();
+                    long start = SystemClock.elapsedRealtime();
+                    cursor.moveToPosition(-1);
+                    while (cursor.moveToNext()) {
+                        mAdapter.bindStandAloneView(view, mActivity, cursor);
+                    }
+                    elapsed[0] = SystemClock.elapsedRealtime() - start;
+                    allocations[0] = Debug.getThreadAllocCount();
+                    Debug.stopAllocCounting();
+                }
+            });
+            cursor.close();
+            report("bind", size, elapsed[0], String.format("%.1f us/row, %.1f allocations/row",
+                    elapsed[0] * 1000f / size, (float) allocations[0] / size));
+        }
+    }
+
+    /**
+     * Measures looking up numbers that are not in the contacts, which is what most
+     * of the lookups of a large call log amount to.
+     */
+    public void testCallerIdResolution() {
+        SpannableStringBuilder builder = new SpannableStringBuilder();
+        long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < CALLER_ID_LOOKUP_COUNT; i++) {
+            RecentCallsListActivity.CallerInfoQuery ciq =
+                    new RecentCallsListActivity.CallerInfoQuery();
+            ciq.number = String.format("1555012%04d", i);
+            ciq.lookup = true;
+            mAdapter.queryContactInfo(ciq, builder);
+        }
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        report("caller id", CALLER_ID_LOOKUP_COUNT, elapsed,
+                String.format("%.1f lookups/s", CALLER_ID_LOOKUP_COUNT * 1000f / elapsed));
+    }
+
+    /**
+     * Returns an intent that shows the whole call log.
+     */
+    private static Intent newIntent() {
+        Intent intent = new Intent();
+        intent.putExtras(new Bundle());
+        return intent;
+    }
+
+    /**
+     * Pauses and resumes the activity, which loads the first page of the call log
+     * again.  Returns the time until the page is in place.
+     */
+    private long reload() throws InterruptedException {
+        return runAndWaitForCursor(new Runnable() {
+            public void run() {
+                getInstrumentation().callActivityOnPause(mActivity);
+                getInstrumentation().callActivityOnResume(mActivity);
+            }
+        });
+    }
+
+    /**
+     * Runs {@code action} on the main thread and waits until the adapter has put a
+     * new cursor in place.  Returns the time that took.
+     */
+    private long runAndWaitForCursor(final Runnable action) throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final long[] times = new long[2];
+        getInstrumentation().runOnMainSync(new Runnable() {
+            public void run() {
+                final Cursor previousCursor = mAdapter.getCursor();
+                mAdapter.registerDataSetObserver(new DataSetObserver() {
+                    @Override
+                    public void onChanged() {
+                        if (mAdapter.getCursor() != previousCursor) {
+                            times[1] = SystemClock.elapsedRealtime();
+                            mAdapter.unregisterDataSetObserver(this);
+                            latch.countDown();
+                        }
+                    }
+                });
+                times[0] = SystemClock.elapsedRealtime();
+                action.run();
+            }
+        });
+        assertTrue("Timed out loading the call log",
+                latch.await(LOAD_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        return times[1] - times[0];
+    }
+
+    /**
+     * Checks that the list holds the first {@code rowCount} calls of the call log,
+     * grouped the way {@link RecentCallsListActivity.RecentCallsAdapter} groups them.
+     */
+    private void assertLoaded(final int rowCount) {
+        getInstrumentation().runOnMainSync(new Runnable() {
+            public void run() {
+                assertEquals(rowCount, mAdapter.getCursor().getCount());
+
+                int groupCount = 0;
+                int itemCount = mAdapter.getCount();
+                for (int i = 0; i < itemCount; i++) {
+                    if (mAdapter.isGroupHeader(i)) {
+                        groupCount++;
+                    }
+                }
+                int[] expected = countGroups(mCallLog.getCalls(), rowCount);
+                assertEquals(expected[0], groupCount);
+                assertEquals(expected[1], itemCount);
+            }
+        });
+    }
+
+    /**
+     * Returns the number of groups and of list items the first {@code rowCount}
+     * calls make up.  Adjacent calls from the same number are grouped, except that a
+     * missed call does not take the calls below it into its group.
+     */
+    private static int[] countGroups(ArrayList<Object[]> calls, int rowCount) {
+        int groupCount = 0;
+        int itemCount = 0;
+        int runSize = 0;
+        String runNumber = null;
+        int runCallType = 0;
+        for (int i = 0; i < rowCount; i++) {
+            Object[] call = calls.get(i);
+            String number = (String) call[RecentCallsListActivity.NUMBER_COLUMN_INDEX];
+            boolean sameNumber = number.equals(runNumber);
+            if (sameNumber && runCallType != Calls.MISSED_TYPE) {
+                runSize++;
+                continue;
+            }
+
+            if (runSize > 0) {
+                itemCount++;
+                groupCount += runSize > 1 ? 1 : 0;
+            }
+            runSize = 1;
+            runNumber = number;
+            runCallType = sameNumber
+                    ? 0 : (Integer) call[RecentCallsListActivity.CALL_TYPE_COLUMN_INDEX];
+        }
+        if (runSize > 0) {
+            itemCount++;
+            groupCount += runSize > 1 ? 1 : 0;
+        }
+        return new int[] { groupCount, itemCount };
+    }
+
+    /**
+     * Builds a call log of {@code size} calls, most recent first.  Calls come from a
+     * pool of numbers in runs of one to four, so that about half of them are grouped.
+     * Each size gets ids of its own, so that the logs do not look like updates of
+     * one another to the incremental grouping.
+     */
+    private MatrixCursor buildCallLog(int size) {
+        MatrixCursor cursor = new MatrixCursor(RecentCallsListActivity.CALL_LOG_PROJECTION, size);
+        Random random = new Random(size);
+        int numberCount = Math.max(1, size / 10);
+        long date = System.currentTimeMillis();
+        String number = null;
+        String name = null;
+        int run = 0;
+        for (int i = 0; i < size; i++) {
+            if (run == 0) {
+                int n = random.nextInt(numberCount);
+                number = String.format("1650555%04d", n);
+                name = n % 3 == 0 ? "Contact " + n : null;
+                run = 1 + random.nextInt(4);
+            }
+            run--;
+
+            int type;
+            switch (random.nextInt(3)) {
+                case 0: type = Calls.INCOMING_TYPE; break;
+                case 1: type = Calls.OUTGOING_TYPE; break;
+                default: type = Calls.MISSED_TYPE; break;
+            }
+            date -= 1 + random.nextInt(6 * 60 * 60 * 1000);
+            cursor.addRow(new Object[] {
+                    (long) size * 100 + size - i, number, date, random.nextInt(600), type, name, 0, null
+            });
+        }
+        return cursor;
+    }
+
+    private void report(String benchmark, int size, long elapsedMs, String details) {
+        Log.i(TAG, benchmark + " [" + size + "]: " + elapsedMs + " ms"
+                + (details != null ? " (" + details + ")" : ""));
+    }
+
+    /**
+     * Serves the activity's content resolver in place of the real one.
+     */
+    private static class ResolverContext extends ContextWrapper {
+        private final ContentResolver mResolver;
+
+        public ResolverContext(Context base, ContentResolver resolver) {
+            super(base);
+            mResolver = resolver;
+        }
+
+        @Override
+        public ContentResolver getContentResolver() {
+            return mResolver;
+        }
+    }
+
+    /**
+     * Serves a synthetic call log, in {@link RecentCallsListActivity#CALL_LOG_SORT_ORDER},
+     * to the queries of the activity: the first page, and the pages that follow a
+     * given call.  Updates are accepted and dropped.
+     */
+    private static class FakeCallLogProvider extends MockContentProvider {
+        private volatile ArrayList<Object[]> mCalls = new ArrayList<Object[]>();
+
+        public void setCalls(MatrixCursor cursor) {
+            ArrayList<Object[]> calls = new ArrayList<Object[]>(cursor.getCount());
+            int columnCount = cursor.getColumnCount();
+            cursor.moveToPosition(-1);
+            while (cursor.moveToNext()) {
+                Object[] call = new Object[columnCount];
+                call[RecentCallsListActivity.ID_COLUMN_INDEX] =
+                        cursor.getLong(RecentCallsListActivity.ID_COLUMN_INDEX);
+                call[RecentCallsListActivity.NUMBER_COLUMN_INDEX] =
+                        cursor.getString(RecentCallsListActivity.NUMBER_COLUMN_INDEX);
+                call[RecentCallsListActivity.DATE_COLUMN_INDEX] =
+                        cursor.getLong(RecentCallsListActivity.DATE_COLUMN_INDEX);
+                call[RecentCallsListActivity.DURATION_COLUMN_INDEX] =
+                        cursor.getLong(RecentCallsListActivity.DURATION_COLUMN_INDEX);
+                call[RecentCallsListActivity.CALL_TYPE_COLUMN_INDEX] =
+                        cursor.getInt(RecentCallsListActivity.CALL_TYPE_COLUMN_INDEX);
+                call[RecentCallsListActivity.CALLER_NAME_COLUMN_INDEX] =
+                        cursor.getString(RecentCallsListActivity.CALLER_NAME_COLUMN_INDEX);
+                call[RecentCallsListActivity.CALLER_NUMBERTYPE_COLUMN_INDEX] =
+                        cursor.getInt(RecentCallsListActivity.CALLER_NUMBERTYPE_COLUMN_INDEX);
+                call[RecentCallsListActivity.CALLER_NUMBERLABEL_COLUMN_INDEX] =
+                        cursor.getString(RecentCallsListActivity.CALLER_NUMBERLABEL_COLUMN_INDEX);
+                calls.add(call);
+            }
+            cursor.close();
+            mCalls = calls;
+        }
+
+        public ArrayList<Object[]> getCalls() {
+            return mCalls;
+        }
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection,
+                String[] selectionArgs, String sortOrder) {
+            int limit = Integer.MAX_VALUE;
+            int limitStart = sortOrder != null ? sortOrder.indexOf(" LIMIT ") : -1;
+            if (limitStart >= 0) {
+                limit = Integer.parseInt(sortOrder.substring(limitStart + 7).trim());
+            }
+
+            // Pages are selected by the date and id of the call they start with
+            long startDate = Long.MAX_VALUE;
+            long startId = Long.MAX_VALUE;
+            if (selection != null) {
+                startDate = Long.parseLong(selectionArgs[selectionArgs.length - 2]);
+                startId = Long.parseLong(selectionArgs[selectionArgs.length - 1]);
+            }
+
+            MatrixCursor cursor = new MatrixCursor(RecentCallsListActivity.CALL_LOG_PROJECTION);
+            for (Object[] call : mCalls) {
+                if (cursor.getCount() >= limit) {
+                    break;
+                }
+                long date = (Long) call[RecentCallsListActivity.DATE_COLUMN_INDEX];
+                long id = (Long) call[RecentCallsListActivity.ID_COLUMN_INDEX];
+                if (date < startDate || (date == startDate && id <= startId)) {
+                    cursor.addRow(call);
+                }
+            }
+            return cursor;
+        }
+
+        @Override
+        public int update(Uri uri, ContentValues values, String selection,
+                String[] selectionArgs) {
+            return 0;
+        }
+
+        @Override
+        public ContentProviderResult[] applyBatch(
+                ArrayList<ContentProviderOperation> operations) {
+            return new ContentProviderResult[operations.size()];
+        }
+    }
+
+    /**
+     * Answers queries from another content resolver and rejects all writes.
+     */
+    private static class ReadOnlyProvider extends MockContentProvider {
+        private final ContentResolver mResolver;
+
+        public ReadOnlyProvider(ContentResolver resolver) {
+            mResolver = resolver;
+        }
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection,
+                String[] selectionArgs, String sortOrder) {
+            return mResolver.query(uri, projection, selection, selectionArgs, sortOrder);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.util;
+
+import android.database.CharArrayBuffer;
+import android.telephony.PhoneNumberUtils;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+/**
+ * Tests for {@link PhoneNumberComparator}.
+ */
+@SmallTest
+public class PhoneNumberComparatorTests extends AndroidTestCase {
+
+    private final CharArrayBuffer mBuffer1 = new CharArrayBuffer(128);
+    private final CharArrayBuffer mBuffer2 = new CharArrayBuffer(128);
+
+    public void testMatchesPhoneNumberUtils() {
+        assertSameAsPhoneNumberUtils("6505551212", "6505551212");
+        assertSameAsPhoneNumberUtils("650-555-1212", "(650) 555 1212");
+        assertSameAsPhoneNumberUtils("+16505551212", "6505551212");
+        assertSameAsPhoneNumberUtils("+16505551212", "0116505551212");
+        assertSameAsPhoneNumberUtils("+441234567890", "01234567890");
+        assertSameAsPhoneNumberUtils("+441234567890", "00441234567890");
+        assertSameAsPhoneNumberUtils("6505551212", "6505551213");
+        assertSameAsPhoneNumberUtils("404-04", "40404");
+        assertSameAsPhoneNumberUtils("404-04", "40405");
+        assertSameAsPhoneNumberUtils("5551212", "5551212,1234");
+        assertSameAsPhoneNumberUtils("555121", "5551212");
+        assertSameAsPhoneNumberUtils("", "5551212");
+        assertSameAsPhoneNumberUtils("", "");
+    }
+
+    public void testReusedBuffers() {
+        // A longer value left behind in the buffer must not leak into the comparison
+        assertTrue(compare("6505551212999", "6505551212999"));
+        assertTrue(compare("6505551212", "6505551212"));
+        assertFalse(compare("6505551212", "6505551299"));
+    }
+
+    private void assertSameAsPhoneNumberUtils(String a, String b) {
+        boolean expected = PhoneNumberUtils.compare(a, b);
+        assertEquals(a + " vs " + b, expected, compare(a, b));
+        assertEquals(b + " vs " + a, expected, compare(b, a));
+    }
+
+    private boolean compare(String a, String b) {
+        copy(a, mBuffer1);
+        copy(b, mBuffer2);
+        return PhoneNumberComparator.compare(mBuffer1, mBuffer2);
+    }
+
+    private static void copy(String value, CharArrayBuffer buffer) {
+        value.getChars(0, value.length(), buffer.data, 0);
+        buffer.sizeCopied = value.length();
+    }
+}